@@ -1,25 +1,37 @@
 package com.cldellow.aspic.core;
 
+import com.facebook.presto.spi.block.Block;
+import com.facebook.presto.spi.block.VariableWidthBlock;
 import com.facebook.presto.spi.type.RealType;
 import com.facebook.presto.spi.type.Type;
 import com.facebook.presto.spi.type.VarcharType;
+import com.google.common.collect.ImmutableList;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.util.List;
 
 public class AspicReader {
     private final int numColumns;
     private final Type[] types;
     private final String[] columnNames;
     private final String[][] enumValues;
+    // Built once per file and shared by every row group, see buildEnum
+    private final Slice[][] enumSlices;
+    private final Block[] enumBlocks;
     private final Charset UTF8 = Charset.forName("UTF-8");
-    private final int[] rowGroupOffsets;
+    private final long[] rowGroupOffsets;
     private final int[] rowGroupLengths;
+    // where each row group's bloom filters start, right after the row group
+    private final long[] filterOffsets;
     private final String file;
+    private final long lastModified;
+    private final MappedFile mapped;
 
     // To minimize the # of objects floating around - there are # of rowgroups + 1 * numColumns
     // elements in each array. Most will be null or zero.
@@ -35,74 +47,150 @@ public class AspicReader {
 
     public AspicReader(String file) throws FileNotFoundException, IOException {
         this.file = file;
-        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
-             FileChannel channel = raf.getChannel()) {
-            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        lastModified = new File(file).lastModified();
+        mapped = new MappedFile(file);
 
-            // TODO: validate magic number = version
+        /* Read preamble */
+        ByteBuffer buffer = mapped.slice(0, (int) Math.min(mapped.length(), MappedFile.REGION_SIZE));
+        if (buffer.get() != 'A' || buffer.get() != 'S' || buffer.get() != 'P' || buffer.get() != 'C')
+            throw new IllegalArgumentException(file + " is not an aspic file");
+        final int version = buffer.get();
+        if (version != AspicWriter.VERSION)
+            throw new IllegalArgumentException(file + " has version " + version + ", expected " + AspicWriter.VERSION + "; convert it again");
 
-            /* Read preamble */
-            buffer.position(5);
-            int metadataStart = buffer.getInt();
+        final long metadataStart = buffer.getLong();
+        // the writer fills this in last
+        if (metadataStart <= 0 || metadataStart >= mapped.length())
+            throw new IllegalArgumentException(file + " is incomplete");
 
-            numColumns = buffer.get();
-            types = new Type[numColumns];
-            for (int i = 0; i < types.length; i++) {
-                types[i] = TypeSerializer.idToType(buffer.get());
-            }
+        /* Read metadata: the columns, then the row groups */
+        buffer = mapped.slice(metadataStart, (int) (mapped.length() - metadataStart));
+        numColumns = buffer.get();
+        types = new Type[numColumns];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = TypeSerializer.idToType(buffer.get());
+        }
 
-            columnNames = new String[numColumns];
-            for (int i = 0; i < columnNames.length; i++) {
-                columnNames[i] = readString(buffer);
-            }
+        columnNames = new String[numColumns];
+        for (int i = 0; i < columnNames.length; i++) {
+            columnNames[i] = readString(buffer);
+        }
 
-            enumValues = new String[numColumns][];
-            for (int i = 0; i < numColumns; i++) {
-                short numValues = buffer.getShort();
-                if (numValues > 0) {
-                    enumValues[i] = new String[numValues];
-                    for (int j = 0; j < numValues; j++) {
-                        enumValues[i][j] = readString(buffer);
-                    }
+        enumValues = new String[numColumns][];
+        for (int i = 0; i < numColumns; i++) {
+            short numValues = buffer.getShort();
+            if (numValues > 0) {
+                enumValues[i] = new String[numValues];
+                for (int j = 0; j < numValues; j++) {
+                    enumValues[i][j] = readString(buffer);
                 }
             }
+        }
 
-            buffer.position(metadataStart);
-            final int numberRowGroups = buffer.getInt();
-            /* Read row group stats, offsets. */
-            rowGroupOffsets = new int[numberRowGroups];
-            rowGroupLengths = new int[numberRowGroups];
-            for (int i = 0; i < numberRowGroups; i++) {
-                rowGroupOffsets[i] = buffer.getInt();
-                if(i >= 1)
-                    rowGroupLengths[i - 1] = rowGroupOffsets[i] - rowGroupOffsets[i - 1];
-            }
-            rowGroupLengths[numberRowGroups - 1] = metadataStart - rowGroupOffsets[numberRowGroups - 1];
-
-            // doc stats, then stats for each rowgroup
-            final int numEls = (1 + numberRowGroups) * numColumns;
-            numRows = new int[1 + numberRowGroups];
-            minLong = new long[numEls];
-            maxLong = new long[numEls];
-            minFloat = new float[numEls];
-            maxFloat = new float[numEls];
-            minString = new String[numEls];
-            maxString = new String[numEls];
-            numNulls = new int[numEls];
-            numUniques = new int[numEls];
-            readStats(buffer, numberRowGroups);
-            for (int i = 0; i < numberRowGroups; i++)
-                readStats(buffer, i);
+        enumSlices = new Slice[numColumns][];
+        enumBlocks = new Block[numColumns];
+        for (int i = 0; i < numColumns; i++) {
+            if (enumValues[i] != null)
+                buildEnum(i);
         }
+
+        final int numberRowGroups = buffer.getInt();
+        /* Read row group stats, offsets. */
+        rowGroupOffsets = new long[numberRowGroups];
+        rowGroupLengths = new int[numberRowGroups];
+        filterOffsets = new long[numberRowGroups];
+        for (int i = 0; i < numberRowGroups; i++)
+            rowGroupOffsets[i] = buffer.getLong();
+        for (int i = 0; i < numberRowGroups; i++) {
+            filterOffsets[i] = buffer.getLong();
+            rowGroupLengths[i] = (int) (filterOffsets[i] - rowGroupOffsets[i]);
+        }
+
+        // doc stats, then stats for each rowgroup
+        final int numEls = (1 + numberRowGroups) * numColumns;
+        numRows = new int[1 + numberRowGroups];
+        minLong = new long[numEls];
+        maxLong = new long[numEls];
+        minFloat = new float[numEls];
+        maxFloat = new float[numEls];
+        minString = new String[numEls];
+        maxString = new String[numEls];
+        numNulls = new int[numEls];
+        numUniques = new int[numEls];
+        readStats(buffer, numberRowGroups);
+        for (int i = 0; i < numberRowGroups; i++)
+            readStats(buffer, i);
     }
 
     public String getFile() { return file; }
+    /** When the file was last modified as of it being opened. */
+    public long getLastModified() { return lastModified; }
+    public MappedFile getMappedFile() { return mapped; }
     public int getNumRowGroups() { return rowGroupOffsets.length; }
-    public int getRowGroupOffset(int rowGroup) { return rowGroupOffsets[rowGroup]; }
+    public long getRowGroupOffset(int rowGroup) { return rowGroupOffsets[rowGroup]; }
     public int getRowGroupLength(int rowGroup) { return rowGroupLengths[rowGroup]; }
 
+    /** The row group's bloom filter for col, or null if it doesn't have one.
+     *  It reads straight out of the mapped file. */
+    public BloomFilter getBloomFilter(int rowGroup, int col) {
+        ByteBuffer lengths = mapped.slice(filterOffsets[rowGroup], 4 * numColumns);
+        long offset = filterOffsets[rowGroup] + 4 * numColumns;
+        for (int i = 0; i < col; i++)
+            offset += lengths.getInt();
+        final int length = lengths.getInt();
+        if (length == 0)
+            return null;
+        return new BloomFilter(mapped.slice(offset, length));
+    }
+
     public String[][] getEnumValues() { return enumValues; }
+
+    /** For enum columns, the UTF-8 bytes of each value, indexed by enum id. */
+    public Slice[] getEnumSlices(int col) { return enumSlices[col]; }
+
+    /** For enum columns, a block of the values indexed by enum id, plus a null
+     *  at the end. */
+    public Block getEnumBlock(int col) { return enumBlocks[col]; }
     public Type[] getTypes() { return types; }
+    public String[] getColumnNames() { return columnNames; }
+
+    /** Stats for the whole file. */
+    public Stats getDocStats() { return new StatsView(rowGroupOffsets.length); }
+
+    public Stats getRowGroupStats(int rowGroup) { return new StatsView(rowGroup); }
+
+    public List<Field> getFields() {
+        ImmutableList.Builder<Field> fields = ImmutableList.builder();
+        for (int i = 0; i < numColumns; i++)
+            fields.add(new Field(columnNames[i], types[i]));
+        return fields.build();
+    }
+
+    /** Packs the values of an enum column into one array, which both the
+     *  per-value slices and the dictionary block are views of. */
+    private void buildEnum(int col) {
+        final String[] values = enumValues[col];
+        byte[][] bytes = new byte[values.length][];
+        int[] offsets = new int[values.length + 2];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = values[i].getBytes(UTF8);
+            offsets[i + 1] = offsets[i] + bytes[i].length;
+        }
+        offsets[values.length + 1] = offsets[values.length];
+
+        byte[] data = new byte[offsets[values.length]];
+        for (int i = 0; i < values.length; i++)
+            System.arraycopy(bytes[i], 0, data, offsets[i], bytes[i].length);
+
+        final Slice slice = Slices.wrappedBuffer(data);
+        enumSlices[col] = new Slice[values.length];
+        for (int i = 0; i < values.length; i++)
+            enumSlices[col][i] = slice.slice(offsets[i], bytes[i].length);
+
+        boolean[] nulls = new boolean[values.length + 1];
+        nulls[values.length] = true;
+        enumBlocks[col] = new VariableWidthBlock(values.length + 1, slice, offsets, nulls);
+    }
 
     public void debug() {
         for (int i = 0; i < numColumns; i++) {
@@ -142,8 +230,9 @@ public class AspicReader {
             long max = buffer.getLong();
 
             if (types[i].equals(VarcharType.VARCHAR)) {
-                minString[offset + i] = strs[(int) min];
-                maxString[offset + i] = strs[(int) max];
+                // -1 => the column was entirely null
+                minString[offset + i] = min < 0 ? null : strs[(int) min];
+                maxString[offset + i] = max < 0 ? null : strs[(int) max];
             } else if (types[i].equals(RealType.REAL)) {
                 minFloat[offset + i] = Float.intBitsToFloat((int) min);
                 maxFloat[offset + i] = Float.intBitsToFloat((int) max);
@@ -155,6 +244,27 @@ public class AspicReader {
 
     }
 
+    /** Reads straight out of the shared arrays, rather than copying them into a FixedStats. */
+    private class StatsView implements Stats {
+        private final int index;
+        private final int offset;
+
+        StatsView(int index) {
+            this.index = index;
+            this.offset = index * numColumns;
+        }
+
+        public int getRows() { return numRows[index]; }
+        public long getMinLong(int col) { return minLong[offset + col]; }
+        public long getMaxLong(int col) { return maxLong[offset + col]; }
+        public float getMinFloat(int col) { return minFloat[offset + col]; }
+        public float getMaxFloat(int col) { return maxFloat[offset + col]; }
+        public String getMinString(int col) { return minString[offset + col]; }
+        public String getMaxString(int col) { return maxString[offset + col]; }
+        public int getNulls(int col) { return numNulls[offset + col]; }
+        public int getUnique(int col) { return numUniques[offset + col]; }
+    }
+
     private String readString(ByteBuffer buffer) {
         short length = buffer.getShort();
         byte[] bytes = new byte[length];
@@ -1,200 +1,494 @@
 package com.cldellow.aspic.core;
 
 import com.facebook.presto.spi.type.Type;
-import net.jpountz.lz4.LZ4FastDecompressor;
+import com.facebook.presto.spi.type.VarcharType;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 
+/** A row group is stored column-major: each column is its own compressed chunk,
+ *  which is only decompressed the first time something in that column is read.
+ */
 public class AspicRowGroup {
-    private final long[][] columnDicts;
+    private final ByteBuffer mapped;
+    private final String file;
+    private final long lastModified;
+    private final long offset;
+    // null => chunks aren't shared
+    private final ChunkCache cache;
     private final int numRows;
-    private final ByteBuffer buffer;
-    private final int[] rowOffsets;
-    private final int rowStart;
-    private final int nullByteSize;
+    private final int numColumns;
+    private final int[] chunkOffsets;
+    private final int[] chunkLengths;
+    private final int[] rawLengths;
+    private final int[] encodings;
+    private final int[] codecs;
+    // may be narrower than the column's type, if the writer widened it later
+    private final Type[] chunkTypes;
+    // Set for the chunks of a varchar column that were typed before the writer
+    // found it was a varchar, which are rendered as PLAIN strings; see render.
+    private final boolean[] rendered;
+
+    // Filled in as each column's chunk is decompressed.
+    private final ByteBuffer[] chunks;
+    private final Slice[] chunkSlices;
+    // null => the column is PLAIN or DICTIONARY
+    private final long[][] decoded;
+    // For DICTIONARY columns, each row's id, and the values the ids are
+    // into: longs, or for non-enum varchars, a view of the strings' bytes.
+    private final int[][] ids;
+    private final long[][] dictionaries;
+    private final int[][] dictionaryOffsets;
+    private final Slice[] dictionaryStrings;
+    // -1 => the column has no nulls in this row group
+    private final int[] nullStarts;
+    private final int[] valueStarts;
+    private long retainedSize = 0;
 
-    // < 0 => you need to pointer chase to find the position in memory
-    private final int[] columnOffsets;
+    // -1 => variable width, the values are preceded by an offset table
     private final int[] columnWidths;
-    private int currentRowStart = -1;
-    private final static Charset UTF8 = Charset.forName("UTF-8");
+    private final Type[] types;
     private final String[][] enumValues;
-    private final boolean[] isNull;
-    private final int numColumns;
+    private final Slice[][] enumSlices;
+    private int currentRow = -1;
 
     public AspicRowGroup(
             String file,
             String[][] enumValues,
             Type[] types,
-            int offset,
+            long offset,
             int length) throws FileNotFoundException, IOException {
+        this(map(file, offset, length), file, 0, offset, length, enumValues, enumSlices(enumValues), types, null);
+    }
+
+    /** Reads the row group out of the reader's mapping of the file, sharing
+     *  decompressed chunks through cache if it isn't null. */
+    public AspicRowGroup(AspicReader reader, int rowGroup, ChunkCache cache) {
+        this(
+                reader.getMappedFile().slice(reader.getRowGroupOffset(rowGroup), reader.getRowGroupLength(rowGroup)),
+                reader.getFile(),
+                reader.getLastModified(),
+                reader.getRowGroupOffset(rowGroup),
+                reader.getRowGroupLength(rowGroup),
+                reader.getEnumValues(),
+                enumSlices(reader),
+                reader.getTypes(),
+                cache);
+    }
+
+    private AspicRowGroup(
+            ByteBuffer mapped,
+            String file,
+            long lastModified,
+            long offset,
+            int length,
+            String[][] enumValues,
+            Slice[][] enumSlices,
+            Type[] types,
+            ChunkCache cache) {
         numColumns = types.length;
-//        System.out.println("offset=" + offset + ", length=" + length);
+        this.types = types;
         this.enumValues = enumValues;
-        nullByteSize = (int) Math.ceil(((double) numColumns) / 8.0);
-        isNull = new boolean[numColumns];
-        byte[] raw;
-        {
-            RandomAccessFile raf = new RandomAccessFile(file, "r");
-            FileChannel channel = raf.getChannel();
-            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
-            int rawLength = buffer.getInt();
-            int compressedOnceLength = buffer.getInt();
-            byte[] compressed = new byte[length - 8];
-            buffer.get(compressed);
-            LZ4FastDecompressor decompressor = AspicWriter.factory.fastDecompressor();
-            byte[] once = new byte[compressedOnceLength];
-            decompressor.decompress(compressed, once);
-            raw = new byte[rawLength];
-            decompressor.decompress(once, raw);
-
-            channel.close();
-            raf.close();
-        }
+        this.enumSlices = enumSlices;
+        this.mapped = mapped;
+        this.file = file;
+        this.lastModified = lastModified;
+        this.offset = offset;
+        this.cache = cache;
 
-        buffer = ByteBuffer.wrap(raw);
-        columnDicts = new long[numColumns][];
-        numRows = buffer.getInt();
-        rowOffsets = new int[numRows];
-        for (int i = 0; i < numRows; i++) {
-            rowOffsets[i] = buffer.getInt();
-        }
-        // an optimized column order is here. it's ignored for now.
-        for (int i = 0; i < numColumns; i++)
-            buffer.get();
+        numRows = mapped.getInt();
+        chunkOffsets = new int[numColumns];
+        chunkLengths = new int[numColumns];
+        rawLengths = new int[numColumns];
+        encodings = new int[numColumns];
+        codecs = new int[numColumns];
+        chunkTypes = new Type[numColumns];
+        rendered = new boolean[numColumns];
         for (int i = 0; i < numColumns; i++) {
-            int size = byteAsUnsigned(buffer.get());
-//            System.out.println("dict size for column " + i + " is " + size);
-            if (size > 0) {
-                columnDicts[i] = new long[size];
-                for (int j = 0; j < size; j++) {
-                    columnDicts[i][j] = buffer.getLong();
-                }
-            }
+            chunkOffsets[i] = mapped.getInt();
+            rawLengths[i] = mapped.getInt();
+            encodings[i] = mapped.get();
+            codecs[i] = mapped.get();
+            chunkTypes[i] = TypeSerializer.idToType(mapped.get());
+            rendered[i] = enumValues[i] == null && types[i].equals(VarcharType.VARCHAR) && !chunkTypes[i].equals(VarcharType.VARCHAR);
+            if (i >= 1)
+                chunkLengths[i - 1] = chunkOffsets[i] - chunkOffsets[i - 1];
         }
+        if (numColumns > 0)
+            chunkLengths[numColumns - 1] = length - chunkOffsets[numColumns - 1];
 
+        chunks = new ByteBuffer[numColumns];
+        chunkSlices = new Slice[numColumns];
+        decoded = new long[numColumns][];
+        ids = new int[numColumns][];
+        dictionaries = new long[numColumns][];
+        dictionaryOffsets = new int[numColumns][];
+        dictionaryStrings = new Slice[numColumns];
+        nullStarts = new int[numColumns];
+        valueStarts = new int[numColumns];
         columnWidths = new int[numColumns];
-        columnOffsets = new int[numColumns];
-        for (int i = 0; i < numColumns; i++) {
-            int width = -1;
-
-            if (columnDicts[i] != null) {
-                // a dict is a 1 byte lookup
-                width = 1;
-            } else if (enumValues[i] != null) {
-                // an enum is a 2 byte lookup
-                width = 2;
-            } else {
-                width = TypeSerializer.width(types[i]);
-            }
+    }
 
-            columnWidths[i] = width;
-
-            // if offset of previous entry is unknown, so is this one
-            if (i == 0) {
-                // 0th offset is trivially known
-            } else if (columnOffsets[i - 1] == -1 || columnWidths[i - 1] == -1) {
-                // if previous offset isn't fixed, or previous width
-                // is variable, neither is this one
-                columnOffsets[i] = -1;
-            } else {
-                columnOffsets[i] = columnOffsets[i - 1] + columnWidths[i - 1];
-            }
+    private static Slice[][] enumSlices(AspicReader reader) {
+        Slice[][] rv = new Slice[reader.getTypes().length][];
+        for (int i = 0; i < rv.length; i++)
+            rv[i] = reader.getEnumSlices(i);
+        return rv;
+    }
+
+    private static Slice[][] enumSlices(String[][] enumValues) {
+        Slice[][] rv = new Slice[enumValues.length][];
+        for (int i = 0; i < rv.length; i++) {
+            if (enumValues[i] == null)
+                continue;
+            rv[i] = new Slice[enumValues[i].length];
+            for (int j = 0; j < rv[i].length; j++)
+                rv[i][j] = Slices.utf8Slice(enumValues[i][j]);
         }
+        return rv;
+    }
 
-        rowStart = buffer.position();
-//        System.out.println("numRows=" + numRows);
+    private static ByteBuffer map(String file, long offset, int length) throws FileNotFoundException, IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        }
     }
 
-    private static int byteAsUnsigned(byte a) {
-        int b = a & 0xFF;
-        return b;
+    public int getNumRows() { return numRows; }
+
+    /** How col is encoded in this row group, see {@link Encoding}. */
+    int getEncoding(int col) { return rendered[col] ? Encoding.PLAIN : encodings[col]; }
+
+    /** What col's values were written as in this row group. */
+    Type getChunkType(int col) { return chunkTypes[col]; }
+
+    /** How col is compressed in this row group. */
+    Codec getCodec(int col) { return Codec.fromId(codecs[col]); }
+
+    /** Size of the column chunks that have been decompressed so far. */
+    public long getRetainedSize() { return retainedSize; }
+
+    private ByteBuffer column(int col) {
+        if (chunks[col] == null)
+            decompress(col);
+        return chunks[col];
     }
 
+    private byte[] decompressChunk(int col) {
+        byte[] compressed = new byte[chunkLengths[col]];
+        ByteBuffer src = mapped.duplicate();
+        src.position(chunkOffsets[col]);
+        src.get(compressed);
 
-    public int getNumRows() { return numRows; }
-    public void setRow(int row) {
-//        System.out.println(rowOffsets[row]);
-        currentRowStart = rowStart + rowOffsets[row] + nullByteSize;
-        buffer.position(currentRowStart - nullByteSize);
-        int nulls = 0;
-        for(int i = 0; i < nullByteSize; i++) {
-            final byte b = buffer.get();
-            final int to = Math.min(numColumns, (i + 1) * 8);
-            for(int j = i * 8; j < numColumns && j < to; j++) {
-                isNull[j] = 1 == ((b >> (j % 8)) & 1);
-            }
-        }
-//        System.out.println("setting target to: " + target);
+        return Codec.fromId(codecs[col]).decompress(compressed, rawLengths[col]);
     }
 
-    public float getFloat(int col) {
-        int width = columnWidths[col];
-        int offset = columnOffsets[col];
-        if (width == -1 || offset == -1) {
-            throw new IllegalArgumentException("cannot handle column=" + col + ", width=" + width + ", offset=" + offset);
+    private void decompress(int col) {
+        // chunks in the cache are shared, so are never written to
+        final byte[] raw = cache == null ?
+                readChunk(col) :
+                cache.get(file, lastModified, offset, col, () -> readChunk(col));
+
+        ByteBuffer buffer = ByteBuffer.wrap(raw);
+        chunkSlices[col] = Slices.wrappedBuffer(raw);
+        boolean hasNulls = buffer.get() != 0;
+        nullStarts[col] = -1;
+        if (hasNulls) {
+            nullStarts[col] = buffer.position();
+            buffer.position(buffer.position() + (numRows + 7) / 8);
         }
 
-        buffer.position(currentRowStart + columnOffsets[col]);
-        if (columnDicts[col] != null) {
-            int idx = byteAsUnsigned(buffer.get());
-            return Float.intBitsToFloat((int)columnDicts[col][idx]);
+        if (getEncoding(col) == Encoding.PLAIN) {
+            // an enum is a 2 byte id
+            columnWidths[col] = enumValues[col] != null ? 2 : rendered[col] ? -1 : TypeSerializer.width(chunkTypes[col]);
+            valueStarts[col] = buffer.position();
+        } else if (encodings[col] == Encoding.DICTIONARY) {
+            readDictionary(col, buffer);
+        } else {
+            decoded[col] = Encoding.decode(encodings[col], buffer, numRows);
+            retainedSize += 8L * numRows;
         }
 
-        return buffer.getFloat();
+        retainedSize += raw.length;
+        chunks[col] = buffer;
     }
 
-    public String getString(int col) {
-        int width = columnWidths[col];
-        int offset = columnOffsets[col];
-        if (width == -1 || offset == -1) {
-            throw new IllegalArgumentException("cannot handle column=" + col + ", width=" + width + ", offset=" + offset);
-        }
+    private byte[] readChunk(int col) {
+        return rendered[col] ? render(col, decompressChunk(col)) : decompressChunk(col);
+    }
 
-        buffer.position(currentRowStart + columnOffsets[col]);
-        if(enumValues[col] == null) {
-            short len = buffer.getShort();
-            byte[] bytes = new byte[len];
-            buffer.get(bytes);
-            return new String(bytes, UTF8);
+    /** Turns a typed chunk into a PLAIN varchar chunk of the text it was read from. */
+    private byte[] render(int col, byte[] raw) {
+        final ByteBuffer buffer = ByteBuffer.wrap(raw);
+        final boolean hasNulls = buffer.get() != 0;
+        final int nullBytes = hasNulls ? (numRows + 7) / 8 : 0;
+        buffer.position(buffer.position() + nullBytes);
+
+        final long[] values;
+        final Type type = chunkTypes[col];
+        if (encodings[col] == Encoding.PLAIN) {
+            values = new long[numRows];
+            final int width = TypeSerializer.width(type);
+            for (int row = 0; row < numRows; row++) {
+                final int pos = buffer.position() + width * row;
+                values[row] = width == 1 ? buffer.get(pos) : width == 2 ? buffer.getShort(pos) :
+                        width == 4 ? buffer.getInt(pos) : buffer.getLong(pos);
+            }
+        } else if (encodings[col] == Encoding.DICTIONARY) {
+            final long[] dictionary = new long[buffer.getInt()];
+            for (int i = 0; i < dictionary.length; i++)
+                dictionary[i] = buffer.getLong();
+            final int width = buffer.get();
+            final int[] ids = Encoding.unpackIds(buffer, buffer.position(), numRows, width);
+            values = new long[numRows];
+            for (int row = 0; row < numRows; row++)
+                values[row] = dictionary[ids[row]];
+        } else {
+            values = Encoding.decode(encodings[col], buffer, numRows);
         }
 
-        if (columnDicts[col] != null) {
-            int idx = byteAsUnsigned(buffer.get());
-            return enumValues[col][(int)columnDicts[col][idx]];
+        final byte[][] text = new byte[numRows][];
+        int length = 0;
+        for (int row = 0; row < numRows; row++) {
+            final boolean isNull = hasNulls && ((raw[1 + (row >> 3)] >> (row & 7)) & 1) == 1;
+            text[row] = isNull ? new byte[0] : TypeSerializer.toText(type, values[row]).getBytes(StandardCharsets.UTF_8);
+            length += text[row].length;
         }
 
-        int idx = buffer.getShort();
-        return enumValues[col][idx];
+        // the same null bitmask, then R + 1 offsets and the string data
+        final ByteBuffer rv = ByteBuffer.allocate(1 + nullBytes + 4 * (numRows + 1) + length);
+        rv.put(raw, 0, 1 + nullBytes);
+        int offset = 0;
+        for (int row = 0; row < numRows; row++) {
+            rv.putInt(offset);
+            offset += text[row].length;
+        }
+        rv.putInt(offset);
+        for (byte[] bytes : text)
+            rv.put(bytes);
+        return rv.array();
     }
 
-    public long getLong(int col) {
-        int width = columnWidths[col];
-        int offset = columnOffsets[col];
-        if (width == -1 || offset == -1) {
-            throw new IllegalArgumentException("cannot handle column=" + col + ", width=" + width + ", offset=" + offset);
+    private void readDictionary(int col, ByteBuffer buffer) {
+        final int size = buffer.getInt();
+        if (enumValues[col] == null && TypeSerializer.width(chunkTypes[col]) == -1) {
+            final int[] offsets = new int[size + 1];
+            for (int i = 0; i <= size; i++)
+                offsets[i] = buffer.getInt();
+            dictionaryOffsets[col] = offsets;
+            dictionaryStrings[col] = chunkSlices[col].slice(buffer.position(), offsets[size]);
+            buffer.position(buffer.position() + offsets[size]);
+        } else {
+            final long[] values = new long[size];
+            for (int i = 0; i < size; i++)
+                values[i] = buffer.getLong();
+            dictionaries[col] = values;
         }
 
-        buffer.position(currentRowStart + columnOffsets[col]);
-        if (columnDicts[col] != null) {
-            int idx = byteAsUnsigned(buffer.get());
-            return columnDicts[col][idx];
+        final int width = buffer.get();
+        ids[col] = Encoding.unpackIds(buffer, buffer.position(), numRows, width);
+        retainedSize += 4L * numRows;
+    }
+
+    /** Whether col's values in this row group are ids into a dictionary, which
+     *  can be worked with instead of the values themselves. Enum columns are
+     *  better read as enum ids, which are the same in every row group. */
+    public boolean isDictionaryEncoded(int col) {
+        return getEncoding(col) == Encoding.DICTIONARY;
+    }
+
+    /** For dictionary encoded columns, the number of distinct values. */
+    public int getDictionarySize(int col) {
+        column(col);
+        return dictionaries[col] != null ? dictionaries[col].length : dictionaryOffsets[col].length - 1;
+    }
+
+    /** For dictionary encoded columns, the id of the value in row. */
+    public int getDictionaryId(int col, int row) {
+        if (isNull(col, row))
+            throw new IllegalArgumentException("column " + col + " is null");
+        return ids[col][row];
+    }
+
+    /** For dictionary encoded columns other than varchars, the value with id,
+     *  as getLong would return it. */
+    public long getDictionaryLong(int col, int id) {
+        column(col);
+        return dictionaries[col][id];
+    }
+
+    /** For dictionary encoded varchar columns, a view of all the values back to
+     *  back. offsets gets size + 1 entries, the start of each value followed by
+     *  the end of the last one. */
+    public Slice getDictionaryStrings(int col, int[] offsets) {
+        column(col);
+        System.arraycopy(dictionaryOffsets[col], 0, offsets, 0, dictionaryOffsets[col].length);
+        return dictionaryStrings[col];
+    }
+
+    public void setRow(int row) {
+        currentRow = row;
+    }
+
+    public boolean isNull(int col) {
+        return isNull(col, currentRow);
+    }
+
+    public boolean isNull(int col, int row) {
+        final ByteBuffer buffer = column(col);
+        if (nullStarts[col] < 0)
+            return false;
+
+        return 1 == ((buffer.get(nullStarts[col] + (row >> 3)) >> (row & 7)) & 1);
+    }
+
+    /** The decoded values of col, or null if it's read in place. */
+    private long[] decoded(int col, int row) {
+        if (isNull(col, row))
+            throw new IllegalArgumentException("column " + col + " is null");
+        return decoded[col];
+    }
+
+    /** Returns the absolute position of the value of col in row. */
+    private int position(int col, int row) {
+        if (isNull(col, row))
+            throw new IllegalArgumentException("column " + col + " is null");
+
+        final int width = columnWidths[col];
+        if (width == -1)
+            return chunks[col].getInt(valueStarts[col] + 4 * row);
+
+        return valueStarts[col] + width * row;
+    }
+
+    public float getFloat(int col) {
+        return getFloat(col, currentRow);
+    }
+
+    public float getFloat(int col, int row) {
+        final long[] values = decoded(col, row);
+        if (values != null)
+            return Float.intBitsToFloat((int) values[row]);
+        if (ids[col] != null)
+            return Float.intBitsToFloat((int) dictionaries[col][ids[col][row]]);
+
+        return chunks[col].getFloat(position(col, row));
+    }
+
+    public String getString(int col) {
+        return getString(col, currentRow);
+    }
+
+    public String getString(int col, int row) {
+        if(enumValues[col] == null)
+            return getSlice(col, row).toStringUtf8();
+
+        return enumValues[col][getEnumId(col, row)];
+    }
+
+    /** A varchar value as a view of the decompressed chunk, or for enums, the
+     *  value's shared slice. Nothing is copied, so the slice must not be written to. */
+    public Slice getSlice(int col) {
+        return getSlice(col, currentRow);
+    }
+
+    public Slice getSlice(int col, int row) {
+        if (enumSlices[col] != null)
+            return enumSlices[col][getEnumId(col, row)];
+        if (isDictionaryEncoded(col)) {
+            final int id = getDictionaryId(col, row);
+            final int[] offsets = dictionaryOffsets[col];
+            return dictionaryStrings[col].slice(offsets[id], offsets[id + 1] - offsets[id]);
         }
 
+        final int start = position(col, row);
+        final int end = chunks[col].getInt(valueStarts[col] + 4 * (row + 1));
+        return chunkSlices[col].slice(stringDataStart(col) + start, end - start);
+    }
+
+    /** For non-enum varchar columns, a view of the values of rows [row, row + count),
+     *  back to back. offsets gets count + 1 entries, the start of each value in the
+     *  slice followed by the end of the last one; null values are empty. */
+    public Slice getStrings(int col, int row, int count, int[] offsets) {
+        if (isDictionaryEncoded(col))
+            throw new IllegalArgumentException("column " + col + " is dictionary encoded");
+        final ByteBuffer buffer = column(col);
+        final int first = valueStarts[col] + 4 * row;
+        final int base = buffer.getInt(first);
+        for (int i = 0; i <= count; i++)
+            offsets[i] = buffer.getInt(first + 4 * i) - base;
+        return chunkSlices[col].slice(stringDataStart(col) + base, offsets[count]);
+    }
+
+    /** For enum columns, the index of the value in the file's enum values. */
+    public int getEnumId(int col) {
+        return getEnumId(col, currentRow);
+    }
+
+    public int getEnumId(int col, int row) {
+        final long[] values = decoded(col, row);
+        if (values != null)
+            return (int) values[row];
+        if (ids[col] != null)
+            return (int) dictionaries[col][ids[col][row]];
+
+        return chunks[col].getShort(position(col, row));
+    }
+
+    /** For non-enum varchar columns, the length in bytes of the UTF-8 value. */
+    public int getStringLength(int col) {
+        return getStringLength(col, currentRow);
+    }
+
+    public int getStringLength(int col, int row) {
+        return getSlice(col, row).length();
+    }
+
+    /** For non-enum varchar columns, copies the UTF-8 bytes of the value into dest. */
+    public void getStringBytes(int col, byte[] dest, int destOffset) {
+        getStringBytes(col, currentRow, dest, destOffset);
+    }
+
+    public void getStringBytes(int col, int row, byte[] dest, int destOffset) {
+        final Slice slice = getSlice(col, row);
+        slice.getBytes(0, dest, destOffset, slice.length());
+    }
+
+    private int stringDataStart(int col) {
+        return valueStarts[col] + 4 * (numRows + 1);
+    }
+
+    public long getLong(int col) {
+        return getLong(col, currentRow);
+    }
+
+    public long getLong(int col, int row) {
+        final long[] values = decoded(col, row);
+        if (values != null)
+            return values[row];
+        if (ids[col] != null)
+            return dictionaries[col][ids[col][row]];
+
+        final int pos = position(col, row);
+        final ByteBuffer buffer = chunks[col];
+        final int width = columnWidths[col];
         if(width == 1)
-            return buffer.get();
+            return buffer.get(pos);
         if(width == 2)
-            return buffer.getShort();
+            return buffer.getShort(pos);
         if(width == 4)
-            return buffer.getInt();
+            return buffer.getInt(pos);
         if(width == 8)
-            return buffer.getLong();
+            return buffer.getLong(pos);
 
-        throw new IllegalArgumentException("unexpected");
+        throw new IllegalArgumentException("cannot handle column=" + col + ", width=" + width);
     }
 }
@@ -1,98 +1,283 @@
 package com.cldellow.aspic.core;
 
 import com.facebook.presto.spi.type.*;
-import de.siegmar.fastcsv.reader.CsvParser;
-import de.siegmar.fastcsv.reader.CsvReader;
-import de.siegmar.fastcsv.reader.CsvRow;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import gnu.trove.iterator.TLongIntIterator;
 import gnu.trove.map.hash.TLongIntHashMap;
-import net.jpountz.lz4.LZ4Compressor;
-import net.jpountz.lz4.LZ4Factory;
 
 import java.io.*;
 import java.nio.charset.Charset;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 
 public class AspicWriter {
-    final static LZ4Factory factory = LZ4Factory.fastestInstance();
-    private final CsvParser parser;
-    private final DataOutputStream dos;
-    private final ArrayList<Integer> rowGroupOffsets = new ArrayList<>();
-    private final ArrayList<Integer> rowGroupRawLength = new ArrayList<>();
-    private final ArrayList<Integer> rowGroupCompressedLength = new ArrayList<>();
+    // 2: row groups are stored as one compressed chunk per column
+    // 3: file offsets are longs
+    // 4: each chunk picks an encoding, see Encoding
+    // 5: dictionaries of any size, with bit-packed ids, for varchars too
+    // 6: each chunk records its codec, see Codec
+    // 7: each chunk records the type it was written as, which may be narrower than its column's
+    // 8: the columns are described in the footer, so they can be typed as the file is written
+    // 9: bloom filters after each row group, their offsets in the footer
+    final static int VERSION = 9;
+    // Rows are parsed straight from the mapped CSV, so this bounds a row's length.
+    private static final int MAX_ROW_BYTES = 1 << 22;
+    // How each column's fields are parsed.
+    private static final int BOOLEAN = 0;
+    private static final int DATE = 1;
+    private static final int TIMESTAMP = 2;
+    private static final int TINYINT = 3;
+    private static final int SMALLINT = 4;
+    private static final int INTEGER = 5;
+    private static final int BIGINT = 6;
+    private static final int REAL = 7;
+    private static final int ENUM = 8;
+    private static final int STRING = 9;
+    // When picking a codec automatically, how many bytes of output a
+    // microsecond of decompression is worth.
+    private static final long AUTO_BYTES_PER_MICROSECOND = 100;
+    private static final int AUTO_TRIALS = 3;
+    // Chunks with fewer distinct values than this get no bloom filter; their
+    // values likely turn up in most row groups anyway.
+    private static final int MIN_BLOOM_FILTER_UNIQUES = 256;
+    private DataOutputStream dos;
+    // DataOutputStream.size() stops counting at 2 GB
+    private CountingOutputStream position;
+    private final ArrayList<Long> rowGroupOffsets = new ArrayList<>();
+    private final ArrayList<Long> filterOffsets = new ArrayList<>();
     private final ArrayList<RunningStats> rowGroupStats = new ArrayList<>();
     private final int numColumns;
-    private final Charset UTF8 = Charset.forName("UTF-8");
-    private final RunningStats docStats;
-    private final CsvSchema schema;
-    private final Object[] enum2Ids;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private RunningStats docStats;
+    private final String[] columnNames;
+    private final String[][] enumValues;
+    private final boolean sampled;
+    // Without a schema, every row group is buffered as text, and typed when
+    // it's full; see typeRowGroup.
+    private final boolean provisional;
+    private final EnumDictionary[] enumDictionaries;
     private final int rowGroupSize;
+    // A sampled schema's types are widened as values that don't fit them are
+    // found. Encoders only look at the types a row group had once it was full,
+    // so a column that became a varchar part way through it is written as text.
+    // Without a schema, a column's type is null until a value is seen.
     private final Type[] types;
-    private final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    private final LZ4Compressor lz4c = factory.highCompressor();
+    private final int[] kinds;
+    // The columns whose text is buffered: non-enum varchars, and for a sampled
+    // schema every non-enum column, so that a row group whose values stop fitting
+    // a column's type can be written as the text it was read from; see toVarchar.
+    private final boolean[] keepsText;
+    private final FieldParser parser = new FieldParser();
+    // fields with doubled quotes are unescaped into this
+    private final byte[] scratch = new byte[MAX_ROW_BYTES];
+    // AUTO entries are replaced while encoding the first row group
+    private final Codec[] codecs;
+    // Row groups are encoded and compressed on this pool, and written
+    // in order by the parsing thread.
+    private final ExecutorService encoders;
+    // each is the row group, then its bloom filters
+    private final ArrayDeque<Future<byte[][]>> pendingRowGroups = new ArrayDeque<>();
+    private final int maxPendingRowGroups;
+    // Row group buffers are recycled once they've been encoded, so the heap
+    // needed doesn't grow with the size of the file.
+    private final BlockingQueue<RowGroupBuffer> freeBuffers = new LinkedBlockingQueue<>();
+    private int buffersAllocated = 0;
     private int currentRow = 0;
 
     public AspicWriter(String csvFile, CsvSchema schema, int rowGroupSize, String outputFile) throws FileNotFoundException, IOException {
-        this.schema = schema;
+        this(csvFile, schema, rowGroupSize, outputFile, Runtime.getRuntime().availableProcessors());
+    }
+
+    public AspicWriter(String csvFile, CsvSchema schema, int rowGroupSize, String outputFile, int threads) throws FileNotFoundException, IOException {
+        this(csvFile, schema, rowGroupSize, outputFile, threads, defaultCodecs(schema));
+    }
+
+    /** codecs has one entry per column; AUTO picks one from the first row group. */
+    public AspicWriter(String csvFile, CsvSchema schema, int rowGroupSize, String outputFile, int threads, Codec[] codecs) throws FileNotFoundException, IOException {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be at least 1, was " + threads);
+        if (codecs.length != schema.getFields().size())
+            throw new IllegalArgumentException("expected " + schema.getFields().size() + " codecs, got " + codecs.length);
+        this.codecs = codecs.clone();
+        this.sampled = schema.getSampled();
+        this.provisional = false;
         this.rowGroupSize = rowGroupSize;
-        System.out.println("rowGroupSize = " + rowGroupSize);
+        // Enough to keep every encoder busy while the oldest row group is written,
+        // without buffering the whole file when the parser is faster.
+        maxPendingRowGroups = threads * 2;
         numColumns = schema.getFields().size();
-        enum2Ids = new Object[numColumns];
+        columnNames = new String[numColumns];
+        enumValues = schema.getEnumValues();
+        enumDictionaries = new EnumDictionary[numColumns];
         types = new Type[numColumns];
+        kinds = new int[numColumns];
+        keepsText = new boolean[numColumns];
         for (int i = 0; i < numColumns; i++) {
+            columnNames[i] = schema.getFields().get(i).getName();
             types[i] = schema.getFields().get(i).getType();
-            String[] enumValues = schema.getEnumValues()[i];
-            if (enumValues != null) {
-                Map<String, Integer> enum2Id = new HashMap<>();
-                enum2Ids[i] = enum2Id;
-                for (int j = 0; j < enumValues.length; j++)
-                    enum2Id.put(enumValues[j], j);
-            }
+            String[] enumValues = this.enumValues[i];
+            if (enumValues != null)
+                enumDictionaries[i] = new EnumDictionary(enumValues);
+            kinds[i] = kind(types[i], enumValues != null);
+            keepsText[i] = kinds[i] == STRING || (sampled && kinds[i] != ENUM);
+        }
+
+        MappedFile csv = new MappedFile(csvFile);
+        encoders = Executors.newFixedThreadPool(
+                threads,
+                new ThreadFactoryBuilder().setNameFormat("aspic-writer-%d").setDaemon(true).build());
+        try {
+            write(csv, schema, outputFile);
+        } finally {
+            encoders.shutdownNow();
         }
-        CsvReader reader = new CsvReader();
-        reader.setContainsHeader(true);
-        reader.setErrorOnDifferentFieldCount(true);
-        reader.setFieldSeparator(schema.getFieldSeparator());
+    }
+
+    public AspicWriter(InputStream csv, int rowGroupSize, String outputFile) throws IOException {
+        this(csv, rowGroupSize, outputFile, Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Converts a CSV without a schema, reading it once: the separator comes
+     *  from the header, and each column is typed one row group at a time.
+     *  A column is only typed if each of its values reads back as the same
+     *  text, and isn't inferred as a timestamp or an enum. Once a column is a
+     *  varchar, the row groups typed before then are read as their text. */
+    public AspicWriter(InputStream csv, int rowGroupSize, String outputFile, int threads) throws IOException {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be at least 1, was " + threads);
+        this.sampled = false;
+        this.provisional = true;
+        this.rowGroupSize = rowGroupSize;
+        maxPendingRowGroups = threads * 2;
+
+        BufferedInputStream in = new BufferedInputStream(csv, MAX_ROW_BYTES);
+        in.mark(MAX_ROW_BYTES);
+        byte[] line = new byte[MAX_ROW_BYTES];
+        int length = 0;
+        int read;
+        while (length < line.length && (read = in.read(line, length, line.length - length)) != -1) {
+            length += read;
+            if (indexOf(line, length - read, length, (byte) '\n') != -1)
+                break;
+        }
+        in.reset();
+
+        int start = 0;
+        if (length >= 3 && line[0] == (byte) 0xEF && line[1] == (byte) 0xBB && line[2] == (byte) 0xBF) {
+            start = 3;
+            in.skip(3);
+        }
+        int end = indexOf(line, start, length, (byte) '\n');
+        final boolean unixNewline = !(end > start && line[end - 1] == '\r');
+        if (end == -1)
+            end = length;
+
+        // the same separators, in the same order, as CsvSchemaInferer
+        boolean foundTab = false;
+        boolean foundPipe = false;
+        int separators = 0;
+        for (int i = start; i < end; i++) {
+            if (line[i] == '\t')
+                foundTab = true;
+            else if (line[i] == '|')
+                foundPipe = true;
+            if (line[i] == '\t' || line[i] == '|' || line[i] == ',')
+                separators++;
+        }
+        final char separator = foundTab ? '\t' : foundPipe ? '|' : ',';
+
+        MmapRecord record = new MmapRecord(line, separators + 3);
+        CsvCursor cursor = new CsvCursor(in, record, unixNewline, separator);
+        if (!cursor.next())
+            throw new IllegalArgumentException("the CSV has no header");
+        numColumns = record.getNumFields();
+        columnNames = new String[numColumns];
+        for (int i = 0; i < numColumns; i++)
+            columnNames[i] = new String(record.bytes, record.getStart(i), record.getLength(i), UTF8);
+
+        enumValues = new String[numColumns][];
+        enumDictionaries = new EnumDictionary[numColumns];
+        types = new Type[numColumns];
+        kinds = new int[numColumns];
+        keepsText = new boolean[numColumns];
+        Arrays.fill(kinds, STRING);
+        Arrays.fill(keepsText, true);
+        codecs = new Codec[numColumns];
+        Arrays.fill(codecs, Codec.LZ4_HC_TWICE);
+
+        encoders = Executors.newFixedThreadPool(
+                threads,
+                new ThreadFactoryBuilder().setNameFormat("aspic-writer-%d").setDaemon(true).build());
+        try {
+            // every column can become a varchar without starting again
+            write(cursor, record, outputFile);
+        } finally {
+            encoders.shutdownNow();
+        }
+    }
 
-        FileInputStream fis = new FileInputStream(csvFile);
-        if (schema.getByteOrderMark())
-            fis.skip(3);
+    private static int indexOf(byte[] bytes, int from, int to, byte b) {
+        for (int i = from; i < to; i++)
+            if (bytes[i] == b)
+                return i;
+        return -1;
+    }
 
-        Reader r = new BufferedReader(new FileReader(fis.getFD()));
-        parser = reader.parse(r);
-        CsvRow row = parser.nextRow();
+    private void write(MappedFile csv, CsvSchema schema, String outputFile) throws IOException {
+        final long start = schema.getByteOrderMark() ? 3 : 0;
+        // the header, and the end of each field, needs room in the offsets
+        MmapRecord record = new MmapRecord(new byte[MAX_ROW_BYTES], numColumns + 2);
+        CsvCursor cursor = new CsvCursor(csv, record, start, csv.length(), !hasCrlf(csv, start), schema.getFieldSeparator());
+        // skip the header
+        cursor.next();
+        write(cursor, record, outputFile);
+    }
 
-        dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile)));
+    /** Writes the rows after the cursor's header. */
+    private void write(CsvCursor cursor, MmapRecord record, String outputFile) throws IOException {
+        position = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile)));
+        dos = new DataOutputStream(position);
         // Magic number + version
         dos.writeByte('A');
         dos.writeByte('S');
         dos.writeByte('P');
         dos.writeByte('C');
-        dos.writeByte(1);
-        // Placeholder for rowgroup indexes.
-        dos.writeInt(0);
-        // # of columns, their types, their names.
-        dos.writeByte(numColumns);
-        for (int i = 0; i < numColumns; i++)
-            dos.writeByte(TypeSerializer.typeToId(schema.getFields().get(i).getType()));
-        for (int i = 0; i < numColumns; i++)
-            writeString(dos, schema.getFields().get(i).getName());
-
-        writeEnumValues(dos, schema.getEnumValues());
+        dos.writeByte(VERSION);
+        // Placeholder for the metadata's offset.
+        dos.writeLong(0);
 
         docStats = new RunningStats(numColumns);
-        writeRowGroups(row);
+        writeRowGroups(cursor, record);
 
-        int metadataPos = dos.size();
+        long metadataPos = position.getCount();
+
+        // # of columns, their types, their names. The types are only final now.
+        for (int i = 0; i < numColumns; i++)
+            if (types[i] == null)
+                types[i] = VarcharType.VARCHAR;
+        dos.writeByte(numColumns);
+        for (int i = 0; i < numColumns; i++)
+            dos.writeByte(TypeSerializer.typeToId(types[i]));
+        for (int i = 0; i < numColumns; i++)
+            writeString(dos, columnNames[i]);
+        writeEnumValues(dos, enumValues);
 
         dos.writeInt(rowGroupStats.size());
-        for (int i : rowGroupOffsets) {
-            dos.writeInt(i);
+        for (long offset : rowGroupOffsets) {
+            dos.writeLong(offset);
         }
-        writeStats(dos, docStats);
+        for (long offset : filterOffsets)
+            dos.writeLong(offset);
+        writeStats(dos, docStats, types);
         for (RunningStats s : rowGroupStats) {
-            writeStats(dos, s);
+            writeStats(dos, s, types);
         }
 
         dos.flush();
@@ -100,17 +285,50 @@ public class AspicWriter {
 
         RandomAccessFile raf = new RandomAccessFile(outputFile, "rw");
         raf.seek(5);
-        raf.writeInt(metadataPos);
+        raf.writeLong(metadataPos);
+        raf.close();
+    }
 
-        for(int i = 0; i < rowGroupRawLength.size(); i++) {
-            raf.seek(rowGroupOffsets.get(i));
-            raf.writeInt(rowGroupRawLength.get(i));
-            raf.writeInt(rowGroupCompressedLength.get(i));
+    private static Codec[] defaultCodecs(CsvSchema schema) {
+        Codec[] rv = new Codec[schema.getFields().size()];
+        Arrays.fill(rv, Codec.LZ4_HC_TWICE);
+        return rv;
+    }
+
+    private static int kind(Type type, boolean isEnum) {
+        if (type.equals(BooleanType.BOOLEAN))
+            return BOOLEAN;
+        if (type.equals(DateType.DATE))
+            return DATE;
+        if (type.equals(TimestampType.TIMESTAMP))
+            return TIMESTAMP;
+        if (type.equals(TinyintType.TINYINT))
+            return TINYINT;
+        if (type.equals(SmallintType.SMALLINT))
+            return SMALLINT;
+        if (type.equals(IntegerType.INTEGER))
+            return INTEGER;
+        if (type.equals(BigintType.BIGINT))
+            return BIGINT;
+        if (type.equals(RealType.REAL))
+            return REAL;
+        if (type.equals(VarcharType.VARCHAR))
+            return isEnum ? ENUM : STRING;
+        throw new IllegalArgumentException("unexpected type: " + type);
+    }
+
+    /** Whether the header ends with \r\n, in which case every row is assumed to. */
+    private static boolean hasCrlf(MappedFile csv, long start) {
+        for (long pos = start; pos < csv.length(); pos++) {
+            if (csv.get(pos) == '\n')
+                return pos > start && csv.get(pos - 1) == '\r';
         }
-        raf.close();
+        return false;
     }
 
-    private void writeStats(DataOutputStream dos, RunningStats stats) throws IOException {
+    /** Also the layout of each chunk's stats in a {@link CsvIndexWriter} index. */
+    static void writeStats(DataOutputStream dos, Stats stats, Type[] types) throws IOException {
+        final int numColumns = types.length;
         dos.writeInt(stats.getRows());
 
         Set<String> strSet = new HashSet<>();
@@ -119,7 +337,8 @@ public class AspicWriter {
         // likely exist in the dict string table... buuuuut, it makes processing
         // easier.
         for (int i = 0; i < numColumns; i++) {
-            if (types[i].equals(VarcharType.VARCHAR)) {
+            // min/max are null if every value was null
+            if (types[i].equals(VarcharType.VARCHAR) && stats.getMinString(i) != null) {
                 strSet.add(stats.getMinString(i));
                 strSet.add(stats.getMaxString(i));
             }
@@ -155,7 +374,12 @@ public class AspicWriter {
         }
     }
 
-    private void writeStringReference(DataOutputStream dos, String[] strs, String needle) throws IOException {
+    private static void writeStringReference(DataOutputStream dos, String[] strs, String needle) throws IOException {
+        if (needle == null) {
+            dos.writeLong(-1);
+            return;
+        }
+
         for (int i = 0; i < strs.length; i++) {
             if (strs[i].equals(needle)) {
                 dos.writeLong(i);
@@ -178,340 +402,804 @@ public class AspicWriter {
         }
     }
 
-    private void writeString(DataOutputStream dos, String s) throws IOException {
+    private static void writeString(DataOutputStream dos, String s) throws IOException {
         byte[] bytes = s.getBytes(UTF8);
         writeBytes(dos, bytes);
     }
 
-    private void writeBytes(DataOutputStream dos, byte[] bytes) throws IOException {
+    private static void writeBytes(DataOutputStream dos, byte[] bytes) throws IOException {
         // just use a short for length; we dictify fields w < 10K strings, so
         // these are probably long strings.
         dos.writeShort(bytes.length);
         dos.write(bytes);
     }
 
-    private void writeRowGroups(CsvRow row) throws IOException {
-        RunningStats groupStats = null;
-       /* We buffer rowgroup data in this so we can do analysis to decide
-       whether to encode a rowgroup differently.
-
-          Note that `long` is sufficient to track longs, shorts, bytes, floats, etc.
-       */
-        long[][] longs = null;
-        String[][] strings = null;
-
-        // Track unique # of numerics in a given rowgroup for each column.
-        // If it's <= 256, we'll store it as a dict lookup. This prevents
-        // accidental explosion of low-cardinality identifiers and floats
-        // from taking 4 bytes per row instead of 1.
-        TLongIntHashMap[] uniqueNumerics = null;
-        boolean[][] isNull = null;
-        boolean[] hasNulls = null;
-
-        while (row != null) {
-            int groupRow = currentRow % rowGroupSize;
-            if (groupRow == 0) {
-                if (currentRow != 0) {
-                    writeRowGroup(groupStats, hasNulls, isNull, longs, strings, uniqueNumerics);
-                }
-                groupStats = new RunningStats(numColumns);
-                longs = new long[rowGroupSize][];
-                hasNulls = new boolean[numColumns];
-                strings = new String[rowGroupSize][];
-                uniqueNumerics = new TLongIntHashMap[numColumns];
-                isNull = new boolean[rowGroupSize][];
-
-                for (int i = 0; i < rowGroupSize; i++) {
-                    longs[i] = new long[numColumns];
-                    strings[i] = new String[numColumns];
-                    isNull[i] = new boolean[numColumns];
-                }
+    private void writeRowGroups(CsvCursor cursor, MmapRecord record) throws IOException {
+        RowGroupBuffer buffer = null;
+        while (cursor.next()) {
+            final int numFields = record.getNumFields();
+            // blank lines are skipped, as FastCSV did
+            if (numFields == 1 && record.getLength(0) == 0)
+                continue;
+            if (numFields != numColumns)
+                throw new IllegalArgumentException("row " + (currentRow + 1) + " has " + numFields + " fields, expected " + numColumns);
 
-                for (int i = 0; i < numColumns; i++) {
-                    uniqueNumerics[i] = new TLongIntHashMap();
-                }
+            if (buffer == null)
+                buffer = takeBuffer();
+            parseRow(record, buffer);
+            currentRow++;
+
+            if (buffer.rows == rowGroupSize) {
+                submitRowGroup(buffer);
+                buffer = null;
             }
+        }
+
+        if (buffer != null)
+            submitRowGroup(buffer);
+        while (!pendingRowGroups.isEmpty())
+            writeNextRowGroup();
+    }
 
-            groupStats.addRow();
-            docStats.addRow();
+    /** Parses the fields of the record from their bytes into the next row of the buffer. */
+    private void parseRow(MmapRecord record, RowGroupBuffer buffer) {
+        final int row = buffer.rows++;
+        final RunningStats groupStats = buffer.stats;
+        groupStats.addRow();
+        docStats.addRow();
+
+        for (int i = 0; i < numColumns; i++) {
+            byte[] bytes = record.bytes;
+            int offset = record.getStart(i);
+            int length = record.getLength(i);
+            if (record.containsQuotes[i]) {
+                length = record.unescape(i, scratch, 0);
+                bytes = scratch;
+                offset = 0;
+            }
 
-            for (int i = 0; i < numColumns; i++) {
-                String value = row.getField(i);
-                if (value == null)
-                    throw new IllegalArgumentException();
+            docStats.countUnique(i, bytes, offset, length);
+            groupStats.countUnique(i, bytes, offset, length);
 
-                docStats.countUnique(i, value);
-                groupStats.countUnique(i, value);
-                if (value.isEmpty()) {
+            if (provisional) {
+                // typed, if at all, by typeRowGroup
+                buffer.isNull[i][row] = length == 0;
+                buffer.addString(i, row, bytes, offset, length);
+                if (length == 0) {
                     docStats.addNull(i);
                     groupStats.addNull(i);
-                    isNull[groupRow][i] = true;
-                    hasNulls[i] = true;
-                    continue;
+                    buffer.hasNulls[i] = true;
+                } else {
+                    docStats.addString(i, bytes, offset, length);
+                    groupStats.addString(i, bytes, offset, length);
                 }
+                continue;
+            }
 
-                Map<String, Integer> enum2Id = (Map<String, Integer>) enum2Ids[i];
-
-                Type type = schema.getFields().get(i).getType();
-                if (type.equals(BooleanType.BOOLEAN)) {
-                    byte b = 0;
-                    if (CsvSchemaInferer.isYes(value))
-                        b = 1;
-
-                    docStats.addLong(i, b);
-                    groupStats.addLong(i, b);
-                    longs[groupRow][i] = b;
-                } else if (type.equals(DateType.DATE)) {
-                    long l = 1;
-                    longs[groupRow][i] = l; // TODO
-                    docStats.addLong(i, l);
-                    groupStats.addLong(i, l);
-                } else if (type.equals(TimestampType.TIMESTAMP)) {
-                    long l = 2;
-                    longs[groupRow][i] = l; // TODO
-                    docStats.addLong(i, l);
-                    groupStats.addLong(i, l);
-                } else if (type.equals(TinyintType.TINYINT)) {
-                    try {
-                        int byteValue = Byte.parseByte(value);
-                        longs[groupRow][i] = byteValue;
-                        docStats.addLong(i, byteValue);
-                        groupStats.addLong(i, byteValue);
-                    } catch (NumberFormatException nfe) {
-                        isNull[groupRow][i] = true;
-                    }
-                } else if (type.equals(SmallintType.SMALLINT)) {
-                    try {
-                        int shortValue = Short.parseShort(value);
-                        longs[groupRow][i] = shortValue;
-                        docStats.addLong(i, shortValue);
-                        groupStats.addLong(i, shortValue);
-                    } catch (NumberFormatException nfe) {
-                        isNull[groupRow][i] = true;
-                    }
-                } else if (type.equals(IntegerType.INTEGER)) {
-                    try {
-                        int intValue = Integer.parseInt(value);
-                        longs[groupRow][i] = intValue;
-                        docStats.addLong(i, intValue);
-                        groupStats.addLong(i, intValue);
-                    } catch (NumberFormatException nfe) {
-                        isNull[groupRow][i] = true;
-                    }
-                } else if (type.equals(BigintType.BIGINT)) {
-                    try {
-                        long l = Long.parseLong(value);
-                        longs[groupRow][i] = l;
-                        docStats.addLong(i, l);
-                        groupStats.addLong(i, l);
-                    } catch (NumberFormatException nfe) {
-                        isNull[groupRow][i] = true;
-                    }
-                } else if (type.equals(RealType.REAL)) {
-                    try {
-                        float f = Float.parseFloat(value);
-                        longs[groupRow][i] = Float.floatToRawIntBits(f);
-                        docStats.addFloat(i, f);
-                        groupStats.addFloat(i, f);
-                    } catch (NumberFormatException nfe) {
-                        isNull[groupRow][i] = true;
-                    }
-                } else if (type.equals(VarcharType.VARCHAR)) {
-                    docStats.addString(i, value);
-                    groupStats.addString(i, value);
-                    if (enum2Id != null) {
+            if (keepsText[i])
+                buffer.addString(i, row, bytes, offset, length);
+            int kind = kinds[i];
+            boolean valid = length != 0;
+            if (valid) {
+                switch (kind) {
+                    case BOOLEAN:
+                        valid = parser.parseBoolean(bytes, offset, length);
+                        break;
+                    case DATE:
+                        // Presto stores dates as days since the epoch
+                        valid = parser.parseDate(bytes, offset, length);
+                        break;
+                    case TIMESTAMP:
+                        valid = parser.parseTimestamp(bytes, offset, length);
+                        break;
+                    case TINYINT:
+                        valid = parser.parseLong(bytes, offset, length, Byte.MIN_VALUE, Byte.MAX_VALUE);
+                        break;
+                    case SMALLINT:
+                        valid = parser.parseLong(bytes, offset, length, Short.MIN_VALUE, Short.MAX_VALUE);
+                        break;
+                    case INTEGER:
+                        valid = parser.parseLong(bytes, offset, length, Integer.MIN_VALUE, Integer.MAX_VALUE);
+                        break;
+                    case BIGINT:
+                        valid = parser.parseLong(bytes, offset, length, Long.MIN_VALUE, Long.MAX_VALUE);
+                        break;
+                    case REAL:
+                        valid = parser.parseReal(bytes, offset, length);
+                        break;
+                    case ENUM:
                         // null gets its own id
-                        int intValue = enum2Id.get(value).intValue();
-                        longs[groupRow][i] = intValue;
-                        docStats.addLong(i, intValue);
-                        groupStats.addLong(i, intValue);
-                    } else {
-                        strings[groupRow][i] = value;
-                    }
-                } else {
-                    throw new IllegalArgumentException("unexpected type: " + type);
+                        parser.value = enumDictionaries[i].get(bytes, offset, length);
+                        if (parser.value < 0)
+                            throw new IllegalArgumentException("row " + (currentRow + 1) + " column " + i + " is not one of the enum's values");
+                        break;
                 }
 
-                if (strings[groupRow][i] != null)
-                    continue;
-
-                if (isNull[groupRow][i]) {
-                    docStats.addNull(i);
-                    groupStats.addNull(i);
-                    hasNulls[i] = true;
-                    continue;
+                // Otherwise, values that don't parse are nulls.
+                if (!valid && sampled && kind != STRING && kind != ENUM) {
+                    if (!widen(i, bytes, offset, length))
+                        toVarchar(i, buffer, row);
+                    kind = kinds[i];
+                    valid = true;
                 }
+            }
 
-                // Accumulate unique numerics to see if we can do a dictionary
-                // encoding
-                if (!uniqueNumerics[i].contains(longs[groupRow][i])) {
-                    uniqueNumerics[i].put(longs[groupRow][i], uniqueNumerics[i].size());
-                }
+            buffer.isNull[i][row] = !valid;
+            if (!valid) {
+                docStats.addNull(i);
+                groupStats.addNull(i);
+                buffer.hasNulls[i] = true;
+                continue;
             }
 
-            row = parser.nextRow();
-            currentRow++;
+            if (kind == STRING || kind == ENUM) {
+                docStats.addString(i, bytes, offset, length);
+                groupStats.addString(i, bytes, offset, length);
+            }
+
+            // a varchar's text is already kept
+            if (kind == REAL) {
+                final float f = Float.intBitsToFloat((int) parser.value);
+                docStats.addFloat(i, f);
+                groupStats.addFloat(i, f);
+                buffer.setLong(i, row, parser.value);
+            } else if (kind != STRING) {
+                docStats.addLong(i, parser.value);
+                groupStats.addLong(i, parser.value);
+                buffer.setLong(i, row, parser.value);
+            }
         }
+    }
+
+    /** Makes a typed column of a sampled schema a varchar, from the row group
+     *  being parsed on, which is written as the text its rows were read from.
+     *  The chunks already written keep their types, and AspicRowGroup renders
+     *  them as text, as a schemaless file's; see addRenderedText. */
+    private void toVarchar(int col, RowGroupBuffer buffer, int row) {
+        types[col] = VarcharType.VARCHAR;
+        kinds[col] = STRING;
 
-        writeRowGroup(groupStats, hasNulls, isNull, longs, strings, uniqueNumerics);
+        // the rows before this one were counted as values of the old type
+        final boolean[] isNull = buffer.isNull[col];
+        final int[] offsets = buffer.stringOffsets[col];
+        final byte[] bytes = buffer.stringBytes[col];
+        for (int r = 0; r < row; r++) {
+            if (!isNull[r]) {
+                docStats.addString(col, bytes, offsets[r], offsets[r + 1] - offsets[r]);
+                buffer.stats.addString(col, bytes, offsets[r], offsets[r + 1] - offsets[r]);
+            }
+        }
     }
 
-    private void writeRowGroup(
-            RunningStats stats,
-            boolean[] hasNulls,
-            boolean[][] isNull,
-            long[][] longs,
-            String[][] strings,
-            TLongIntHashMap[] uniqueNumerics
-    ) throws IOException {
-        int rows = stats.getRows();
-        rowGroupOffsets.add(dos.size());
-        // placeholders for uncompressed + compressed length so we can use
-        // LZ4FastDecompressor
-        dos.writeInt(0);
-        dos.writeInt(0);
-        baos.reset();
-        rowGroupStats.add(stats);
-        System.out.print("called on " + rows + " rows: ");
-        boolean[] useDict = new boolean[numColumns];
-        for (int i = 0; i < uniqueNumerics.length; i++) {
-            int col = i;
-            useDict[col] = uniqueNumerics[col].size() != 0 && uniqueNumerics[col].size() < 256;
-            System.out.print(uniqueNumerics[i].size() + " ");
-        }
-        System.out.println();
-
-        // pack fixed-length non-null fields first, put all strings at the end
-        int[] columnOrder = new int[numColumns];
-        {
-            int j = 0;
-            for (int i = 0; i < numColumns; i++) {
-                if (!hasNulls[i] && isFixedLength(schema, i)) {
-                    columnOrder[j] = i;
-                    j++;
+    /** Adds the text each typed chunk of a sampled schema would be rendered as
+     *  to the string stats, in case its column becomes a varchar later. That's
+     *  the text it was read from, if it reads back; otherwise, "007" or "Y"
+     *  say, it's the value's usual spelling, "7" or "true". */
+    private void addRenderedText(RowGroupBuffer buffer) {
+        final int rows = buffer.rows;
+        for (int col = 0; col < numColumns; col++) {
+            final Type type = buffer.types[col];
+            if (!keepsText[col] || type.equals(VarcharType.VARCHAR))
+                continue;
+
+            final boolean[] isNull = buffer.isNull[col];
+            final long[] longs = buffer.longs[col];
+            final int[] offsets = buffer.stringOffsets[col];
+            final byte[] bytes = buffer.stringBytes[col];
+            for (int row = 0; row < rows; row++) {
+                if (isNull[row])
+                    continue;
+                final int offset = offsets[row];
+                final int length = offsets[row + 1] - offset;
+                if (readsBack(type, longs[row], bytes, offset, length)) {
+                    docStats.addString(col, bytes, offset, length);
+                    buffer.stats.addString(col, bytes, offset, length);
+                } else {
+                    final byte[] text = TypeSerializer.toText(type, longs[row]).getBytes(UTF8);
+                    docStats.addString(col, text, 0, text.length);
+                    buffer.stats.addString(col, text, 0, text.length);
                 }
             }
+        }
+    }
+
+    /** Widens an integer column to the narrowest type that holds the value, which
+     *  is left in parser.value. Any other value can only be kept by making the
+     *  column a varchar, so this returns false. */
+    private boolean widen(int col, byte[] bytes, int offset, int length) {
+        final int kind = kinds[col];
+        if (kind >= TINYINT && kind <= BIGINT && parser.parseLong(bytes, offset, length, Long.MIN_VALUE, Long.MAX_VALUE)) {
+            final long v = parser.value;
+            if (v >= Short.MIN_VALUE && v <= Short.MAX_VALUE)
+                types[col] = SmallintType.SMALLINT;
+            else if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE)
+                types[col] = IntegerType.INTEGER;
+            else
+                types[col] = BigintType.BIGINT;
+            kinds[col] = kind(types[col], false);
+            return true;
+        }
+        return false;
+    }
 
-            for (int i = 0; i < numColumns; i++) {
-                if (hasNulls[i] || !isFixedLength(schema, i)) {
-                    columnOrder[j] = i;
-                    j++;
+    /** Reuses the buffer of a row group that's been encoded, if there is one. */
+    private RowGroupBuffer takeBuffer() {
+        RowGroupBuffer buffer = freeBuffers.poll();
+        if (buffer == null) {
+            // At most maxPendingRowGroups are held by encoders, plus the one
+            // being parsed into.
+            if (buffersAllocated <= maxPendingRowGroups) {
+                buffersAllocated++;
+                buffer = new RowGroupBuffer(keepsText, rowGroupSize, provisional || sampled);
+            } else {
+                try {
+                    buffer = freeBuffers.take();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(ie);
                 }
             }
         }
 
-        DataOutputStream dos = new DataOutputStream(baos);
-        ArrayList<Integer> rowOffsets = new ArrayList<>();
+        buffer.reset();
+        return buffer;
+    }
 
-        for (int row = 0; row < rows; row++) {
-            rowOffsets.add(dos.size());
-            int numBytes = (int) Math.ceil(((double) numColumns) / 8.0);
-            for (int i = 0; i < numBytes; i++) {
-                byte b = 0;
-                for (int j = i * 8; j < Math.min((i + 1) * 8, numColumns); j++) {
-                    if (isNull[row][j])
-                        b |= 1 << (j % 8);
+    /** Hands the buffer off to an encoder, which returns it once it's been encoded. */
+    private void submitRowGroup(RowGroupBuffer buffer) throws IOException {
+        if (provisional) {
+            typeRowGroup(buffer);
+        } else {
+            buffer.types = types.clone();
+            if (sampled)
+                addRenderedText(buffer);
+        }
+        rowGroupStats.add(buffer.stats);
+
+        // AUTO is resolved on this thread, so that every later row group
+        // sees the same choice.
+        if (Arrays.asList(codecs).contains(Codec.AUTO)) {
+            try {
+                pendingRowGroups.add(CompletableFuture.completedFuture(encodeRowGroup(buffer)));
+            } finally {
+                freeBuffers.add(buffer);
+            }
+        } else {
+            pendingRowGroups.add(encoders.submit(() -> {
+                try {
+                    return encodeRowGroup(buffer);
+                } finally {
+                    freeBuffers.add(buffer);
                 }
-                dos.writeByte(b);
+            }));
+        }
+        while (pendingRowGroups.size() > maxPendingRowGroups)
+            writeNextRowGroup();
+    }
 
+    /** Picks a type for each column of a row group that's been buffered as text,
+     *  and parses the values into the buffer's longs. A chunk is typed if every
+     *  value reads back as the same text, and the type can be joined with the
+     *  column's: integers widen, other types have to match, and anything else
+     *  makes the column a varchar for good. Row groups that were typed before
+     *  then are rendered as text by AspicRowGroup. */
+    private void typeRowGroup(RowGroupBuffer buffer) {
+        final int rows = buffer.rows;
+        buffer.types = new Type[numColumns];
+        for (int col = 0; col < numColumns; col++) {
+            final Type chunkType = parseChunk(col, buffer);
+            Type type = types[col];
+            if (chunkType == null) {
+                // every value is null, so any type will do
+                buffer.types[col] = type == null ? TinyintType.TINYINT : type;
+                continue;
             }
 
-            for (int col = 0; col < numColumns; col++) {
-                if (isNull[row][col])
-                    continue;
+            if (type == null || type.equals(chunkType))
+                type = chunkType;
+            else if (isInteger(type) && isInteger(chunkType))
+                type = TypeSerializer.width(chunkType) > TypeSerializer.width(type) ? chunkType : type;
+            else
+                type = VarcharType.VARCHAR;
+            types[col] = type;
+
+            if (type.equals(VarcharType.VARCHAR)) {
+                buffer.types[col] = type;
+                continue;
+            }
 
-                if (useDict[col]) {
-                    dos.writeByte(uniqueNumerics[col].get(longs[row][col]));
+            // integer chunks keep their own, possibly narrower, type
+            buffer.types[col] = chunkType;
+            final boolean[] isNull = buffer.isNull[col];
+            final long[] longs = buffer.longs[col];
+            final boolean real = chunkType.equals(RealType.REAL);
+            for (int row = 0; row < rows; row++) {
+                if (isNull[row])
                     continue;
+                buffer.setLong(col, row, longs[row]);
+                if (real) {
+                    final float f = Float.intBitsToFloat((int) longs[row]);
+                    docStats.addFloat(col, f);
+                    buffer.stats.addFloat(col, f);
+                } else {
+                    docStats.addLong(col, longs[row]);
+                    buffer.stats.addLong(col, longs[row]);
                 }
-                Type type = types[col];
-
-                if (type.equals(VarcharType.VARCHAR)) {
-                    // either: enum (so write a short) or string (so write bytes)
-                    Map<String, Integer> enum2Id = (Map<String, Integer>) enum2Ids[col];
-                    if (enum2Id == null) {
-                        writeString(dos, strings[row][col]);
-                    } else {
-                        dos.writeShort((short) longs[row][col]);
+            }
+        }
+    }
+
+    /** Parses the non-null values of a text column into the buffer's longs,
+     *  as the type the first of them reads back as. Returns that type, null if
+     *  every value is null, or VARCHAR if some value doesn't read back. */
+    private Type parseChunk(int col, RowGroupBuffer buffer) {
+        final int rows = buffer.rows;
+        final boolean[] isNull = buffer.isNull[col];
+        final int[] offsets = buffer.stringOffsets[col];
+        final byte[] bytes = buffer.stringBytes[col];
+        final long[] longs = buffer.longs[col];
+        int kind = -1;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int row = 0; row < rows; row++) {
+            if (isNull[row])
+                continue;
+            final int offset = offsets[row];
+            final int length = offsets[row + 1] - offset;
+            if (kind == -1) {
+                // each type's text looks different, so the first value decides
+                for (int candidate : new int[]{BIGINT, REAL, BOOLEAN, DATE}) {
+                    if (parseCanonical(candidate, bytes, offset, length)) {
+                        kind = candidate;
+                        break;
                     }
-                } else if (type.equals(RealType.REAL)) {
-                    dos.writeFloat(Float.intBitsToFloat((int) longs[row][col]));
-                } else if (type.equals(BooleanType.BOOLEAN)) {
-                    dos.writeByte((byte) longs[row][col]);
-                } else if (type.equals(IntegerType.INTEGER)) {
-                    dos.writeInt((int) longs[row][col]);
-                } else if (type.equals(BigintType.BIGINT)) {
-                    dos.writeLong(longs[row][col]);
-                } else if (type.equals(DateType.DATE)) {
-                    dos.writeInt((int) longs[row][col]);
-                } else if (type.equals(TimestampType.TIMESTAMP)) {
-                    dos.writeLong(longs[row][col]);
-                } else if (type.equals(SmallintType.SMALLINT)) {
-                    dos.writeShort((short) longs[row][col]);
-                } else if (type.equals(TinyintType.TINYINT)) {
-                    dos.writeByte((byte) longs[row][col]);
-                } else {
-                    throw new IllegalArgumentException("unknown type: " + type);
                 }
+                if (kind == -1)
+                    return VarcharType.VARCHAR;
+            } else if (!parseCanonical(kind, bytes, offset, length)) {
+                return VarcharType.VARCHAR;
+            }
+            longs[row] = parser.value;
+            min = Math.min(min, parser.value);
+            max = Math.max(max, parser.value);
+        }
+
+        switch (kind) {
+            case -1:
+                return null;
+            case BIGINT:
+                if (min >= Byte.MIN_VALUE && max <= Byte.MAX_VALUE)
+                    return TinyintType.TINYINT;
+                if (min >= Short.MIN_VALUE && max <= Short.MAX_VALUE)
+                    return SmallintType.SMALLINT;
+                if (min >= Integer.MIN_VALUE && max <= Integer.MAX_VALUE)
+                    return IntegerType.INTEGER;
+                return BigintType.BIGINT;
+            case REAL:
+                return RealType.REAL;
+            case BOOLEAN:
+                return BooleanType.BOOLEAN;
+            default:
+                return DateType.DATE;
+        }
+    }
+
+    /** Parses the value into parser.value, if it's exactly how
+     *  TypeSerializer.toText would write it. */
+    private boolean parseCanonical(int kind, byte[] bytes, int offset, int length) {
+        final Type type;
+        switch (kind) {
+            case BIGINT:
+                if (!parser.parseLong(bytes, offset, length, Long.MIN_VALUE, Long.MAX_VALUE))
+                    return false;
+                type = BigintType.BIGINT;
+                break;
+            case REAL:
+                if (!parser.parseReal(bytes, offset, length))
+                    return false;
+                type = RealType.REAL;
+                break;
+            case BOOLEAN:
+                if (!parser.parseBoolean(bytes, offset, length))
+                    return false;
+                type = BooleanType.BOOLEAN;
+                break;
+            case DATE:
+                if (!parser.parseDate(bytes, offset, length))
+                    return false;
+                type = DateType.DATE;
+                break;
+            default:
+                throw new IllegalArgumentException("unexpected kind " + kind);
+        }
+
+        return readsBack(type, parser.value, bytes, offset, length);
+    }
+
+    /** Whether value was parsed from exactly the text TypeSerializer.toText writes for it. */
+    private static boolean readsBack(Type type, long value, byte[] bytes, int offset, int length) {
+        if (isInteger(type)) {
+            // the parser allows a '+', leading zeros and "-0", which toText doesn't write
+            final int digits = bytes[offset] == '-' ? offset + 1 : offset;
+            return bytes[offset] != '+' && (bytes[digits] != '0' || length == 1);
+        }
 
+        final String text = TypeSerializer.toText(type, value);
+        if (text.length() != length)
+            return false;
+        for (int i = 0; i < length; i++)
+            if (bytes[offset + i] != text.charAt(i))
+                return false;
+        return true;
+    }
+
+    private static boolean isInteger(Type type) {
+        return type.equals(TinyintType.TINYINT) || type.equals(SmallintType.SMALLINT) ||
+                type.equals(IntegerType.INTEGER) || type.equals(BigintType.BIGINT);
+    }
+
+    /** How col is encoded in a row group, which may differ from the column's kind
+     *  when the row group was typed on its own; see typeRowGroup. */
+    private int chunkKind(RowGroupBuffer buffer, int col) {
+        return kinds[col] == ENUM ? ENUM : kind(buffer.types[col], false);
+    }
+
+    /** Waits for the oldest pending row group to be encoded, then writes it. */
+    private void writeNextRowGroup() throws IOException {
+        byte[][] rowGroup;
+        try {
+            rowGroup = pendingRowGroups.removeFirst().get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ie);
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof IOException)
+                throw (IOException) ee.getCause();
+            throw new RuntimeException(ee.getCause());
+        }
+
+        rowGroupOffsets.add(position.getCount());
+        dos.write(rowGroup[0]);
+        filterOffsets.add(position.getCount());
+        dos.write(rowGroup[1]);
+    }
+
+    /** The encoded row group, and its bloom filters. */
+    private byte[][] encodeRowGroup(RowGroupBuffer buffer) throws IOException {
+        // Built first, since encoding overwrites nulls in the buffer's longs.
+        final byte[] filters = bloomFilters(buffer);
+
+        final int rows = buffer.rows;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        // Each column is compressed separately, so readers only decompress
+        // the columns they need.
+        byte[][] chunks = new byte[numColumns][];
+        int[] rawLengths = new int[numColumns];
+        int[] encodings = new int[numColumns];
+        for (int col = 0; col < numColumns; col++) {
+            StringDictionary dictionary = null;
+            if (chunkKind(buffer, col) == STRING) {
+                dictionary = stringDictionary(col, buffer);
+                encodings[col] = dictionary == null ? Encoding.PLAIN : Encoding.DICTIONARY;
+            } else {
+                encodings[col] = chooseEncoding(col, buffer);
             }
+            byte[] raw = columnChunk(baos, col, encodings[col], buffer, dictionary);
+
+            if (codecs[col] == Codec.AUTO)
+                codecs[col] = chooseCodec(raw);
+            chunks[col] = codecs[col].compress(raw);
+            rawLengths[col] = raw.length;
+        }
+
+        // # of rows, then the offset (relative to the start of the row group),
+        // uncompressed length, encoding, codec and type of each chunk
+        baos.reset();
+        DataOutputStream dos = new DataOutputStream(baos);
+        int offset = 4 + numColumns * 11;
+        dos.writeInt(rows);
+        for (int col = 0; col < numColumns; col++) {
+            dos.writeInt(offset);
+            dos.writeInt(rawLengths[col]);
+            dos.writeByte(encodings[col]);
+            dos.writeByte(codecs[col].getId());
+            dos.writeByte(TypeSerializer.typeToId(buffer.types[col]));
+            offset += chunks[col].length;
         }
 
+        for (byte[] chunk : chunks)
+            dos.write(chunk);
+
         dos.flush();
+        return new byte[][]{baos.toByteArray(), filters};
+    }
+
+    /** For each column, the length of its filter, 0 if it has none, then the
+     *  filters. Only integer and non-enum varchar chunks with many distinct
+     *  values get one; see BloomFilter. */
+    private byte[] bloomFilters(RowGroupBuffer buffer) throws IOException {
+        final int rows = buffer.rows;
+        byte[][] filters = new byte[numColumns][];
+        for (int col = 0; col < numColumns; col++) {
+            final int uniques = buffer.stats.getUnique(col);
+            if (uniques < MIN_BLOOM_FILTER_UNIQUES)
+                continue;
 
-        ByteArrayOutputStream baosMeta = new ByteArrayOutputStream();
-        DataOutputStream dosMeta = new DataOutputStream(baosMeta);
-        dosMeta.writeInt(stats.getRows());
-        for (int i = 0; i < rowOffsets.size(); i++) {
-            dosMeta.writeInt(rowOffsets.get(i));
+            final int kind = chunkKind(buffer, col);
+            final boolean[] isNull = buffer.isNull[col];
+            BloomFilter filter;
+            if (kind >= TINYINT && kind <= BIGINT) {
+                filter = new BloomFilter(BloomFilter.LONGS, uniques);
+                final long[] longs = buffer.longs[col];
+                for (int row = 0; row < rows; row++)
+                    if (!isNull[row])
+                        filter.addLong(longs[row]);
+            } else if (kind == STRING) {
+                filter = new BloomFilter(BloomFilter.STRINGS, uniques);
+                final int[] offsets = buffer.stringOffsets[col];
+                final byte[] bytes = buffer.stringBytes[col];
+                for (int row = 0; row < rows; row++)
+                    if (!isNull[row])
+                        filter.addString(bytes, offsets[row], offsets[row + 1] - offsets[row]);
+            } else {
+                continue;
+            }
+            filters[col] = filter.toBytes();
         }
-        for (int i = 0; i < columnOrder.length; i++) {
-            dosMeta.writeByte(columnOrder[i]);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (byte[] filter : filters)
+            dos.writeInt(filter == null ? 0 : filter.length);
+        for (byte[] filter : filters)
+            if (filter != null)
+                dos.write(filter);
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    /** Picks the codec with the least compressed length plus decompression
+     *  time, weighted by AUTO_BYTES_PER_MICROSECOND, for one chunk. */
+    private static Codec chooseCodec(byte[] raw) {
+        Codec best = null;
+        long bestCost = Long.MAX_VALUE;
+        for (Codec codec : Codec.values()) {
+            if (codec == Codec.AUTO)
+                continue;
+            final byte[] compressed = codec.compress(raw);
+            long nanos = Long.MAX_VALUE;
+            for (int i = 0; i < AUTO_TRIALS; i++) {
+                final long start = System.nanoTime();
+                codec.decompress(compressed, raw.length);
+                nanos = Math.min(nanos, System.nanoTime() - start);
+            }
+            final long cost = compressed.length + nanos * AUTO_BYTES_PER_MICROSECOND / 1000;
+            if (cost < bestCost) {
+                best = codec;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /** Picks the smallest encoding for a numeric or enum column. Nulls are
+     *  overwritten with the value before them, so they don't widen the range
+     *  or break up runs. */
+    private int chooseEncoding(int col, RowGroupBuffer buffer) {
+        final int rows = buffer.rows;
+        final long[] longs = buffer.longs[col];
+        final boolean[] isNull = buffer.isNull[col];
+        final Stats stats = buffer.stats;
+        // Long.MAX_VALUE => every row is null
+        final long min = stats.getMinLong(col) == Long.MAX_VALUE ? 0 : stats.getMinLong(col);
+
+        int first = 0;
+        while (first < rows && isNull[first])
+            first++;
+        final long leading = first < rows ? longs[first] : 0;
+
+        int runs = 0;
+        long maxDelta = 0;
+        for (int row = 0; row < rows; row++) {
+            if (isNull[row])
+                longs[row] = row == 0 ? leading : longs[row - 1];
+            if (row == 0 || longs[row] != longs[row - 1])
+                runs++;
+            if (row > 0)
+                maxDelta |= Encoding.zigZag(longs[row] - longs[row - 1]);
+        }
+
+        final int uniques = buffer.uniqueNumerics(col);
+        final int kind = chunkKind(buffer, col);
+        final long plain = (long) rows * (kind == ENUM ? 2 : TypeSerializer.width(buffer.types[col]));
+        final long dictionary = uniques > 0 ?
+                4 + 8L * uniques + 1 + Encoding.packedLength(rows, Encoding.bitWidth(uniques - 1)) :
+                Long.MAX_VALUE;
+        final long runLength = 4 + 12L * runs;
+        // REALs are stored as their bits, which don't subtract meaningfully
+        long frameOfReference = Long.MAX_VALUE;
+        long delta = Long.MAX_VALUE;
+        if (kind != REAL) {
+            final long max = Math.max(min, stats.getMaxLong(col));
+            frameOfReference = 9 + Encoding.packedLength(rows, Encoding.bitWidth(max - min));
+            delta = 9 + Encoding.packedLength(Math.max(rows - 1, 0), Encoding.bitWidth(maxDelta));
         }
 
-        for (int i = 0; i < uniqueNumerics.length; i++) {
-            if (useDict[i]) {
-                dosMeta.writeByte(uniqueNumerics[i].size());
-                // uniqueNumerics[i] is long -> int
+        // on a tie, prefer whichever is cheapest to decode
+        int encoding = Encoding.PLAIN;
+        long size = plain;
+        if (dictionary < size) {
+            encoding = Encoding.DICTIONARY;
+            size = dictionary;
+        }
+        if (runLength < size) {
+            encoding = Encoding.RUN_LENGTH;
+            size = runLength;
+        }
+        if (frameOfReference < size) {
+            encoding = Encoding.FRAME_OF_REFERENCE;
+            size = frameOfReference;
+        }
+        if (delta < size)
+            encoding = Encoding.DELTA;
+        return encoding;
+    }
+
+    /** A dictionary for a non-enum varchar column, or null if it would be
+     *  bigger than the plain strings. */
+    private StringDictionary stringDictionary(int col, RowGroupBuffer buffer) {
+        final int rows = buffer.rows;
+        // Not worth hashing every value if the estimate says most are distinct.
+        if (buffer.stats.getUnique(col) > rows / 2)
+            return null;
+
+        final int[] offsets = buffer.stringOffsets[col];
+        StringDictionary dictionary = new StringDictionary(buffer.stringBytes[col], offsets, rows);
+        final long plain = 4L * (rows + 1) + offsets[rows];
+        return dictionary.encodedLength() < plain ? dictionary : null;
+    }
+
+    private byte[] columnChunk(
+            ByteArrayOutputStream baos,
+            int col,
+            int encoding,
+            RowGroupBuffer buffer,
+            StringDictionary dictionary) throws IOException {
+        final int rows = buffer.rows;
+        final boolean hasNulls = buffer.hasNulls[col];
+        final boolean[] isNull = buffer.isNull[col];
+        baos.reset();
+        DataOutputStream dos = new DataOutputStream(baos);
+
+        dos.writeByte(hasNulls ? 1 : 0);
+        if (hasNulls) {
+            int numBytes = (rows + 7) / 8;
+            for (int i = 0; i < numBytes; i++) {
+                byte b = 0;
+                for (int row = i * 8; row < Math.min((i + 1) * 8, rows); row++) {
+                    if (isNull[row])
+                        b |= 1 << (row % 8);
+                }
+                dos.writeByte(b);
+            }
+        }
+
+        final int kind = chunkKind(buffer, col);
+        if (kind == STRING && encoding == Encoding.DICTIONARY) {
+            dictionary.write(dos);
+            dos.flush();
+            return baos.toByteArray();
+        }
+
+        if (kind == STRING) {
+            // R + 1 offsets into the string data, then the data
+            final int[] offsets = buffer.stringOffsets[col];
+            for (int row = 0; row <= rows; row++)
+                dos.writeInt(offsets[row]);
+            dos.write(buffer.stringBytes[col], 0, offsets[rows]);
+            dos.flush();
+            return baos.toByteArray();
+        }
+
+        final long[] longs = buffer.longs[col];
+        switch (encoding) {
+            case Encoding.PLAIN:
+                // fixed width, so rows can be found by index
+                for (int row = 0; row < rows; row++)
+                    writeValue(dos, buffer.types[col], longs[row]);
+                break;
+            case Encoding.DICTIONARY: {
+                final TLongIntHashMap uniqueNumerics = buffer.uniqueNumerics[col];
+                dos.writeInt(uniqueNumerics.size());
+                // uniqueNumerics is long -> int
                 // want int -> long, then sort by int
-                long[] vals = new long[uniqueNumerics[i].size()];
-                TLongIntIterator it = uniqueNumerics[i].iterator();
+                long[] vals = new long[uniqueNumerics.size()];
+                TLongIntIterator it = uniqueNumerics.iterator();
                 while (it.hasNext()) {
                     it.advance();
                     vals[it.value()] = it.key();
                 }
                 for (int j = 0; j < vals.length; j++) {
-                    dosMeta.writeLong(vals[j]);
+                    dos.writeLong(vals[j]);
                 }
-
-            } else {
-                dosMeta.writeByte(0);
+                // nulls have taken on a neighbour's value, so are in the dictionary
+                long[] ids = new long[rows];
+                for (int row = 0; row < rows; row++)
+                    ids[row] = uniqueNumerics.get(longs[row]);
+                final int width = Encoding.bitWidth(vals.length - 1);
+                dos.writeByte(width);
+                Encoding.pack(dos, ids, 0, rows, 0, width);
+                break;
             }
+            case Encoding.FRAME_OF_REFERENCE: {
+                final long min = buffer.stats.getMinLong(col) == Long.MAX_VALUE ? 0 : buffer.stats.getMinLong(col);
+                final long max = Math.max(min, buffer.stats.getMaxLong(col));
+                final int width = Encoding.bitWidth(max - min);
+                dos.writeLong(min);
+                dos.writeByte(width);
+                Encoding.pack(dos, longs, 0, rows, min, width);
+                break;
+            }
+            case Encoding.DELTA: {
+                long[] deltas = new long[rows];
+                long maxDelta = 0;
+                for (int row = 1; row < rows; row++) {
+                    deltas[row] = Encoding.zigZag(longs[row] - longs[row - 1]);
+                    maxDelta |= deltas[row];
+                }
+                final int width = Encoding.bitWidth(maxDelta);
+                dos.writeLong(longs[0]);
+                dos.writeByte(width);
+                Encoding.pack(dos, deltas, 1, rows - 1, 0, width);
+                break;
+            }
+            case Encoding.RUN_LENGTH: {
+                int runs = 0;
+                for (int row = 0; row < rows; row++)
+                    if (row == 0 || longs[row] != longs[row - 1])
+                        runs++;
+                dos.writeInt(runs);
+                int start = 0;
+                for (int row = 1; row <= rows; row++) {
+                    if (row == rows || longs[row] != longs[row - 1]) {
+                        dos.writeLong(longs[start]);
+                        dos.writeInt(row - start);
+                        start = row;
+                    }
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("unexpected encoding " + encoding);
         }
 
-        dosMeta.flush();
-
-        // compress row offsets, column orders
-        byte[] toCompress = new byte[dosMeta.size() + dos.size()];
-        byte[] baosMetaBytes = baosMeta.toByteArray();
-        System.arraycopy(baosMetaBytes, 0, toCompress, 0, baosMetaBytes.length);
-        byte[] baosBytes = baos.toByteArray();
-        System.arraycopy(baosBytes, 0, toCompress, baosMetaBytes.length, baosBytes.length);
-        int maxLength = lz4c.maxCompressedLength(toCompress.length);
-
-        // Compressing an lz4 stream twice actually produces noticeable compression (~40%)
-        // on the second run. See https://www.reddit.com/r/programming/comments/vyu7r/compressing_log_files_twice_improves_ratio/
-        byte[] once = lz4c.compress(toCompress);
-        byte[] twice = lz4c.compress(once);
-        rowGroupRawLength.add(toCompress.length);
-        rowGroupCompressedLength.add(once.length);
-        this.dos.write(twice);
+        dos.flush();
+        return baos.toByteArray();
     }
 
-    private boolean isFixedLength(CsvSchema schema, int i) {
-        return schema.getEnumValues()[i] != null ||
-                !schema.getFields().get(i).getType().equals(VarcharType.VARCHAR);
+    private void writeValue(DataOutputStream dos, Type type, long value) throws IOException {
+        if (type.equals(VarcharType.VARCHAR)) {
+            // an enum id
+            dos.writeShort((short) value);
+        } else if (type.equals(RealType.REAL)) {
+            dos.writeInt((int) value);
+        } else if (type.equals(BooleanType.BOOLEAN)) {
+            dos.writeByte((byte) value);
+        } else if (type.equals(IntegerType.INTEGER)) {
+            dos.writeInt((int) value);
+        } else if (type.equals(BigintType.BIGINT)) {
+            dos.writeLong(value);
+        } else if (type.equals(DateType.DATE)) {
+            dos.writeInt((int) value);
+        } else if (type.equals(TimestampType.TIMESTAMP)) {
+            dos.writeLong(value);
+        } else if (type.equals(SmallintType.SMALLINT)) {
+            dos.writeShort((short) value);
+        } else if (type.equals(TinyintType.TINYINT)) {
+            dos.writeByte((byte) value);
+        } else {
+            throw new IllegalArgumentException("unknown type: " + type);
+        }
     }
-
-
 }
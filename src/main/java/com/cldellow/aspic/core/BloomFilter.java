@@ -0,0 +1,144 @@
+package com.cldellow.aspic.core;
+
+import io.airlift.slice.Slice;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/** A split block bloom filter, as in Parquet: a value's hash picks one 32 byte
+ *  block, and sets one bit in each of its eight words, so a lookup only
+ *  touches one cache line of the mapped file.
+ *
+ *  Integer chunks hash their values as longs, and varchar chunks their UTF-8
+ *  bytes. A varchar column can have integer chunks, see AspicRowGroup, so
+ *  varchars are looked up in those by the integer they spell, if any.
+ */
+public final class BloomFilter {
+    static final byte LONGS = 0;
+    static final byte STRINGS = 1;
+    private static final int BLOCK_BYTES = 32;
+    // about a 1% false positive rate
+    private static final int BITS_PER_VALUE = 10;
+    private static final int MAX_BYTES = 1 << 23;
+    private static final int[] SALT = {
+            0x47b6137b, 0x44974d91, 0x8824ad5b, 0xa2b7289d,
+            0x705495c7, 0x2df1424b, 0x9efc4947, 0x5c6bfb31
+    };
+    private static final long PRIME = 0x9E3779B97F4A7C15L;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final byte kind;
+    private final ByteBuffer bits;
+    private final int numBlocks;
+
+    /** An empty filter with room for about numValues distinct values. */
+    BloomFilter(byte kind, int numValues) {
+        this.kind = kind;
+        final long bytes = Math.min(MAX_BYTES, Math.max(BLOCK_BYTES, (long) numValues * BITS_PER_VALUE / 8));
+        numBlocks = (int) ((bytes + BLOCK_BYTES - 1) / BLOCK_BYTES);
+        bits = ByteBuffer.allocate(numBlocks * BLOCK_BYTES);
+    }
+
+    /** Wraps the output of {@link #toBytes}, so lookups read straight out of the buffer. */
+    BloomFilter(ByteBuffer buffer) {
+        kind = buffer.get();
+        bits = buffer.slice();
+        numBlocks = bits.remaining() / BLOCK_BYTES;
+    }
+
+    void addLong(long value) {
+        add(hash(value));
+    }
+
+    void addString(byte[] bytes, int offset, int length) {
+        add(hash(bytes, offset, length));
+    }
+
+    /** False only if value can't be in the chunk. */
+    public boolean mightContain(long value) {
+        if (kind == LONGS)
+            return mightContainHash(hash(value));
+        byte[] bytes = Long.toString(value).getBytes(UTF8);
+        return mightContainHash(hash(bytes, 0, bytes.length));
+    }
+
+    /** False only if value can't be in the chunk. */
+    public boolean mightContain(Slice value) {
+        byte[] bytes = value.getBytes();
+        if (kind == STRINGS)
+            return mightContainHash(hash(bytes, 0, bytes.length));
+
+        // only the integer's canonical spelling can be in an integer chunk
+        final String s = value.toStringUtf8();
+        final long l;
+        try {
+            l = Long.parseLong(s);
+        } catch (NumberFormatException nfe) {
+            return false;
+        }
+        return Long.toString(l).equals(s) && mightContainHash(hash(l));
+    }
+
+    /** 1: kind, then the blocks. */
+    byte[] toBytes() {
+        byte[] rv = new byte[1 + bits.capacity()];
+        rv[0] = kind;
+        System.arraycopy(bits.array(), 0, rv, 1, bits.capacity());
+        return rv;
+    }
+
+    private void add(long hash) {
+        final int block = block(hash);
+        final int key = (int) hash;
+        for (int i = 0; i < 8; i++) {
+            final int index = block + i * 4;
+            bits.putInt(index, bits.getInt(index) | (1 << ((key * SALT[i]) >>> 27)));
+        }
+    }
+
+    private boolean mightContainHash(long hash) {
+        final int block = block(hash);
+        final int key = (int) hash;
+        for (int i = 0; i < 8; i++) {
+            final int mask = 1 << ((key * SALT[i]) >>> 27);
+            if ((bits.getInt(block + i * 4) & mask) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /** The offset of the hash's block, picked by its high 32 bits. */
+    private int block(long hash) {
+        return (int) (((hash >>> 32) * numBlocks) >>> 32) * BLOCK_BYTES;
+    }
+
+    static long hash(long value) {
+        return mix(value * PRIME);
+    }
+
+    static long hash(byte[] bytes, int offset, int length) {
+        long h = length * PRIME;
+        int i = offset;
+        final int end = offset + length;
+        for (; i + 8 <= end; i += 8) {
+            long word = 0;
+            for (int j = 7; j >= 0; j--)
+                word = (word << 8) | (bytes[i + j] & 0xFF);
+            h = (h ^ mix(word)) * PRIME;
+        }
+        long tail = 0;
+        for (int j = end - 1; j >= i; j--)
+            tail = (tail << 8) | (bytes[j] & 0xFF);
+        return mix(h ^ tail);
+    }
+
+    /** MurmurHash3's finalizer. */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
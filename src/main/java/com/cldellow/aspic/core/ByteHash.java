@@ -0,0 +1,31 @@
+package com.cldellow.aspic.core;
+
+/** Hashing and equality over ranges of UTF-8 bytes, for the open addressing
+ *  tables that look fields up without turning them into Strings.
+ */
+final class ByteHash {
+    private ByteHash() {
+    }
+
+    static int hash(byte[] bytes, int offset, int length) {
+        int h = 1;
+        for (int i = offset; i < offset + length; i++)
+            h = 31 * h + bytes[i];
+        // spread the high bits, since only the low ones pick a slot
+        return h ^ (h >>> 16);
+    }
+
+    /** Whether key is the same as the length bytes at offset. */
+    static boolean equals(byte[] key, byte[] bytes, int offset, int length) {
+        return equals(key, 0, key.length, bytes, offset, length);
+    }
+
+    static boolean equals(byte[] a, int aOffset, int aLength, byte[] b, int bOffset, int bLength) {
+        if (aLength != bLength)
+            return false;
+        for (int i = 0; i < aLength; i++)
+            if (a[aOffset + i] != b[bOffset + i])
+                return false;
+        return true;
+    }
+}
@@ -0,0 +1,102 @@
+package com.cldellow.aspic.core;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.weakref.jmx.Managed;
+
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/** Decompressed column chunks, shared by every row group of every file, so
+ *  queries that keep hitting the same tables don't decompress them each time.
+ *  Bounded by the total size of the chunks; the least recently used go first.
+ *
+ *  Chunks are keyed by the file's modification time as well as its name, so a
+ *  file that's been converted again is never served from stale chunks.
+ *
+ *  The counters are exported over JMX, so they can be watched while it runs.
+ */
+public class ChunkCache {
+    private final Cache<Key, byte[]> cache;
+
+    public ChunkCache(long maxBytes) {
+        checkArgument(maxBytes >= 0, "maxBytes must not be negative, was %s", maxBytes);
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((Key key, byte[] chunk) -> chunk.length)
+                .recordStats()
+                .build();
+    }
+
+    /** Returns the chunk, calling loader to decompress it if it isn't cached. */
+    byte[] get(String file, long lastModified, long rowGroupOffset, int column, Callable<byte[]> loader) {
+        try {
+            return cache.get(new Key(file, lastModified, rowGroupOffset, column), loader);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /** Hits, misses and evictions since the cache was created. */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    @Managed
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    @Managed
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    @Managed
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    /** The number of chunks cached. */
+    @Managed
+    public long getSize() {
+        return cache.size();
+    }
+
+    private static final class Key {
+        private final String file;
+        private final long lastModified;
+        private final long rowGroupOffset;
+        private final int column;
+
+        Key(String file, long lastModified, long rowGroupOffset, int column) {
+            this.file = file;
+            this.lastModified = lastModified;
+            this.rowGroupOffset = rowGroupOffset;
+            this.column = column;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (o == null || getClass() != o.getClass())
+                return false;
+            Key other = (Key) o;
+            return lastModified == other.lastModified &&
+                    rowGroupOffset == other.rowGroupOffset &&
+                    column == other.column &&
+                    file.equals(other.file);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(file, lastModified, rowGroupOffset, column);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.cldellow.aspic.core;
+
+import io.airlift.compress.Compressor;
+import io.airlift.compress.Decompressor;
+import io.airlift.compress.snappy.SnappyCompressor;
+import io.airlift.compress.snappy.SnappyDecompressor;
+import io.airlift.compress.zstd.ZstdCompressor;
+import io.airlift.compress.zstd.ZstdDecompressor;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/** How a column chunk is compressed. The writer picks one per column, and
+ *  records its id in each row group's header. Roughly from fastest to read to
+ *  smallest: NONE, LZ4, SNAPPY, LZ4_HC, LZ4_HC_TWICE, ZSTD.
+ */
+public enum Codec {
+    NONE(0) {
+        byte[] compress(byte[] raw) {
+            return raw;
+        }
+
+        byte[] decompress(byte[] compressed, int rawLength) {
+            return compressed;
+        }
+    },
+    LZ4(1) {
+        byte[] compress(byte[] raw) {
+            return FAST.compress(raw);
+        }
+
+        byte[] decompress(byte[] compressed, int rawLength) {
+            return lz4Decompress(compressed, 0, rawLength);
+        }
+    },
+    LZ4_HC(2) {
+        byte[] compress(byte[] raw) {
+            return HIGH.compress(raw);
+        }
+
+        byte[] decompress(byte[] compressed, int rawLength) {
+            return lz4Decompress(compressed, 0, rawLength);
+        }
+    },
+    /** LZ4_HC applied to its own output, which shrinks it by a further ~40%.
+     *  See https://www.reddit.com/r/programming/comments/vyu7r/compressing_log_files_twice_improves_ratio/
+     *  The chunk starts with the length after the first pass. */
+    LZ4_HC_TWICE(3) {
+        byte[] compress(byte[] raw) {
+            final byte[] once = HIGH.compress(raw);
+            final byte[] twice = HIGH.compress(once);
+            return ByteBuffer.allocate(4 + twice.length).putInt(once.length).put(twice).array();
+        }
+
+        byte[] decompress(byte[] compressed, int rawLength) {
+            final int onceLength = ByteBuffer.wrap(compressed).getInt();
+            return lz4Decompress(lz4Decompress(compressed, 4, onceLength), 0, rawLength);
+        }
+    },
+    ZSTD(4) {
+        byte[] compress(byte[] raw) {
+            return compressWith(new ZstdCompressor(), raw);
+        }
+
+        byte[] decompress(byte[] compressed, int rawLength) {
+            return decompressWith(new ZstdDecompressor(), compressed, rawLength);
+        }
+    },
+    SNAPPY(5) {
+        byte[] compress(byte[] raw) {
+            return compressWith(new SnappyCompressor(), raw);
+        }
+
+        byte[] decompress(byte[] compressed, int rawLength) {
+            return decompressWith(new SnappyDecompressor(), compressed, rawLength);
+        }
+    },
+    /** Not stored: tells the writer to try each codec on the first row group
+     *  and keep the one with the best mix of size and decompression speed. */
+    AUTO(-1) {
+        byte[] compress(byte[] raw) {
+            throw new UnsupportedOperationException();
+        }
+
+        byte[] decompress(byte[] compressed, int rawLength) {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    // LZ4 compressors and decompressors are thread safe
+    private static final LZ4Factory FACTORY = LZ4Factory.fastestInstance();
+    private static final LZ4Compressor FAST = FACTORY.fastCompressor();
+    private static final LZ4Compressor HIGH = FACTORY.highCompressor();
+    private static final LZ4FastDecompressor DECOMPRESSOR = FACTORY.fastDecompressor();
+
+    private final int id;
+
+    Codec(int id) {
+        this.id = id;
+    }
+
+    /** What's written in the row group header. */
+    int getId() {
+        return id;
+    }
+
+    abstract byte[] compress(byte[] raw);
+
+    /** May return compressed itself, so neither should be written to. */
+    abstract byte[] decompress(byte[] compressed, int rawLength);
+
+    static Codec fromId(int id) {
+        for (Codec codec : values())
+            if (codec.id == id && id >= 0)
+                return codec;
+        throw new IllegalArgumentException("unexpected codec " + id);
+    }
+
+    private static byte[] lz4Decompress(byte[] compressed, int offset, int rawLength) {
+        byte[] raw = new byte[rawLength];
+        DECOMPRESSOR.decompress(compressed, offset, raw, 0, rawLength);
+        return raw;
+    }
+
+    // aircompressor's compressors keep scratch space, so aren't shared
+    private static byte[] compressWith(Compressor compressor, byte[] raw) {
+        byte[] compressed = new byte[compressor.maxCompressedLength(raw.length)];
+        final int length = compressor.compress(raw, 0, raw.length, compressed, 0, compressed.length);
+        return Arrays.copyOf(compressed, length);
+    }
+
+    private static byte[] decompressWith(Decompressor decompressor, byte[] compressed, int rawLength) {
+        byte[] raw = new byte[rawLength];
+        decompressor.decompress(compressed, 0, compressed.length, raw, 0, rawLength);
+        return raw;
+    }
+}
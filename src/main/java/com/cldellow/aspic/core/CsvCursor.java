@@ -1,30 +1,117 @@
 package com.cldellow.aspic.core;
 
-import java.nio.ByteBuffer;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteOrder;
 
 /** Has no concept of types, for that, see {@link com.cldellow.aspic.spi.AspicRecordCursor}.
  *  Needs to be configured appropriately, for code to infer types, see {@link CsvSchemaInferer}.
+ *
+ *  Fields may be quoted, in which case they can contain separators, newlines and
+ *  doubled quotes; see {@link MmapRecord#quoted} and {@link MmapRecord#containsQuotes}.
+ *
+ *  Bytes that can't end a field are skipped 8 at a time: each word of the
+ *  buffer is checked for separators, newlines and quotes at once, with the
+ *  bit tricks from https://graphics.stanford.edu/~seander/bithacks.html#ValueInWord
  */
 public class CsvCursor {
-    private final ByteBuffer buffer;
-    private final int end;
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long NEWLINES = ONES * '\n';
+    private static final long QUOTES = ONES * '"';
+    // Slice reads words in the platform's order, and the scan below needs the
+    // first byte in the lowest bits.
+    private static final boolean BIG_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN;
+
+    // exactly one of these is null
+    private final MappedFile file;
+    private final InputStream in;
+    private final long end;
     private final boolean unixNewline;
+    private final byte separator;
     private final byte[] bytes;
+    // the same bytes, read a word at a time
+    private final Slice words;
+    // the separator in every byte
+    private final long separators;
     private final MmapRecord record;
-    private int pos;
+    // start of the next unparsed row
+    private long pos;
+    // next byte of the file to copy into bytes
+    private long readPos;
     private int bufferIndex;
     private int bufferLength;
 
-    public CsvCursor(ByteBuffer buffer,
+    public CsvCursor(MappedFile file,
                      MmapRecord record,
-                     int end,
+                     long start,
+                     long end,
                      boolean unixNewline) {
-        this.buffer = buffer;
+        this(file, record, start, end, unixNewline, ',');
+    }
+
+    public CsvCursor(MappedFile file,
+                     MmapRecord record,
+                     long start,
+                     long end,
+                     boolean unixNewline,
+                     char separator) {
+        this.file = file;
+        this.in = null;
         this.end = end;
         this.unixNewline = unixNewline;
+        this.separator = (byte) separator;
+        this.separators = ONES * (separator & 0xFF);
         this.record = record;
         this.bytes = record.bytes;
-        pos = buffer.position();
+        this.words = Slices.wrappedBuffer(bytes);
+        pos = start;
+        readPos = start;
+    }
+
+    /** Reads rows from the stream until it ends, so it can be a pipe. */
+    public CsvCursor(InputStream in,
+                     MmapRecord record,
+                     boolean unixNewline,
+                     char separator) {
+        this.file = null;
+        this.in = in;
+        this.end = Long.MAX_VALUE;
+        this.unixNewline = unixNewline;
+        this.separator = (byte) separator;
+        this.separators = ONES * (separator & 0xFF);
+        this.record = record;
+        this.bytes = record.bytes;
+        this.words = Slices.wrappedBuffer(bytes);
+    }
+
+    private int read(int offset, int length) {
+        if (in != null)
+            return readStream(offset, length);
+
+        final int toConsume = (int) Math.min(end - readPos, length);
+        file.get(readPos, bytes, offset, toConsume);
+        readPos += toConsume;
+        return toConsume;
+    }
+
+    private int readStream(int offset, int length) {
+        int total = 0;
+        try {
+            while (total < length) {
+                final int read = in.read(bytes, offset + total, length - total);
+                if (read == -1)
+                    break;
+                total += read;
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe);
+        }
+        readPos += total;
+        return total;
     }
 
     public boolean next() {
@@ -33,54 +120,114 @@ public class CsvCursor {
 
         record.reset();
 
-        // check if we need more data
-        if (bufferIndex == bufferLength) {
-            int toConsume = Math.min((int) (end - pos), bytes.length);
-            //System.out.println("toConsume 1: " + toConsume);
-            buffer.get(bytes, 0, toConsume);
-            bufferLength = toConsume;
-            bufferIndex = 0;
-        }
-
         int startBufferIndex = bufferIndex;
         record.offsets[0] = bufferIndex;
         int field = 1;
+        boolean fieldStart = true;
+        boolean inQuotes = false;
+        // a quote inside a quoted field: either the closing quote or the first of a pair
+        boolean pendingQuote = false;
 
-        while (bufferIndex < bufferLength && bytes[bufferIndex] != '\n') {
-            if (bytes[bufferIndex] == ',') {
-                record.offsets[field] = bufferIndex;
-                field++;
-            }
-
-            bufferIndex++;
-            pos++;
-
+        while (true) {
             if (bufferIndex == bufferLength) {
                 // Preserve the parts we've parsed from this row.
                 int preservedLength = bufferLength - startBufferIndex;
+                if (preservedLength == bytes.length)
+                    throw new IllegalArgumentException("row at " + (pos - preservedLength) + " is longer than " + bytes.length + " bytes");
 
                 System.arraycopy(bytes, startBufferIndex, bytes, 0, preservedLength);
 
-                int toConsume = Math.min((int) (end - pos), bytes.length - preservedLength);
-                buffer.get(bytes, preservedLength, toConsume);
-                bufferLength = preservedLength + toConsume;
+                final int read = read(preservedLength, bytes.length - preservedLength);
+                bufferLength = preservedLength + read;
                 bufferIndex = preservedLength;
 
                 for (int i = 0; i < field; i++)
                     record.offsets[i] -= startBufferIndex;
+                startBufferIndex = 0;
+
+                if (read == 0) {
+                    // a stream's end is only found here
+                    if (bufferIndex == startBufferIndex && in != null)
+                        return false;
+                    // the last row has no trailing newline
+                    record.offsets[field] = bufferIndex;
+                    return true;
+                }
+            }
+
+            // Inside quotes, only a quote matters; outside, a separator or newline
+            // too. A quote after a field's first byte is kept as it is.
+            if (!pendingQuote && bufferLength - bufferIndex >= 8) {
+                final long word = BIG_ENDIAN ? Long.reverseBytes(words.getLong(bufferIndex)) : words.getLong(bufferIndex);
+                final long found = inQuotes ?
+                        matches(word, QUOTES) :
+                        matches(word, separators) | matches(word, NEWLINES) | matches(word, QUOTES);
+                // the lowest match is the first byte that matters
+                final int skip = Long.numberOfTrailingZeros(found) >>> 3;
+                if (skip > 0) {
+                    if (!inQuotes)
+                        fieldStart = false;
+                    bufferIndex += skip;
+                    pos += skip;
+                    continue;
+                }
+            }
+
+            final byte b = bytes[bufferIndex];
+            if (inQuotes) {
+                if (!pendingQuote) {
+                    pendingQuote = b == '"';
+                    bufferIndex++;
+                    pos++;
+                    continue;
+                }
+
+                pendingQuote = false;
+                if (b == '"') {
+                    record.containsQuotes[field - 1] = true;
+                    bufferIndex++;
+                    pos++;
+                    continue;
+                }
+                inQuotes = false;
+            }
+
+            if (b == '\n') {
+                record.offsets[field] = bufferIndex;
+                if (!unixNewline)
+                    record.offsets[field]--;
+                pos++;
+                bufferIndex++;
+                return true;
+            }
+
+            if (b == separator) {
+                // leave room for the end of the last field and a terminating -1
+                if (field >= record.offsets.length - 2)
+                    throw new IllegalArgumentException("row at " + (pos - (bufferIndex - startBufferIndex)) + " has more than " + field + " fields");
+                record.offsets[field] = bufferIndex;
+                field++;
+                fieldStart = true;
+            } else if (b == '"' && fieldStart) {
+                record.quoted[field - 1] = true;
+                inQuotes = true;
+                fieldStart = false;
+            } else {
+                fieldStart = false;
             }
-        }
 
-        if (bufferIndex < bufferLength && bytes[bufferIndex] == '\n') {
-            record.offsets[field] = bufferIndex;
-            if (!unixNewline)
-                record.offsets[field]--;
-            pos++;
             bufferIndex++;
+            pos++;
         }
-
-        return true;
     }
 
-    public int getPos() { return pos; }
+    public long getPos() { return pos; }
+
+    /** The high bit of each byte of word that equals the byte repeated in
+     *  pattern. Bytes after the first match may be set spuriously, which
+     *  doesn't matter as only the first is used. */
+    private static long matches(long word, long pattern) {
+        final long x = word ^ pattern;
+        return (x - ONES) & ~x & HIGH_BITS;
+    }
 }
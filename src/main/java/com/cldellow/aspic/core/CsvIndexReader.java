@@ -0,0 +1,97 @@
+package com.cldellow.aspic.core;
+
+import com.facebook.presto.spi.type.RealType;
+import com.facebook.presto.spi.type.Type;
+import com.facebook.presto.spi.type.VarcharType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/** Reads an index written by {@link CsvIndexWriter}. It's small enough to be
+ *  read into memory in one go.
+ */
+public class CsvIndexReader {
+    private final Charset UTF8 = Charset.forName("UTF-8");
+    private final long csvLength;
+    private final Type[] types;
+    private final long[] chunkOffsets;
+    private final Stats[] chunkStats;
+
+    public CsvIndexReader(String file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(Paths.get(file)));
+        if (buffer.remaining() < 5 || buffer.get() != 'A' || buffer.get() != 'S' || buffer.get() != 'P' || buffer.get() != 'I')
+            throw new IllegalArgumentException(file + " is not a CSV index");
+        final int version = buffer.get();
+        if (version != CsvIndexWriter.VERSION)
+            throw new IllegalArgumentException(file + " has version " + version + ", expected " + CsvIndexWriter.VERSION + "; index it again");
+
+        csvLength = buffer.getLong();
+        types = new Type[buffer.get()];
+        for (int i = 0; i < types.length; i++)
+            types[i] = TypeSerializer.idToType(buffer.get());
+
+        chunkOffsets = new long[buffer.getInt()];
+        for (int i = 0; i < chunkOffsets.length; i++)
+            chunkOffsets[i] = buffer.getLong();
+
+        chunkStats = new Stats[chunkOffsets.length];
+        for (int i = 0; i < chunkStats.length; i++)
+            chunkStats[i] = readStats(buffer);
+    }
+
+    /** How long the CSV file was when it was indexed; the index is stale if it's changed. */
+    public long getCsvLength() { return csvLength; }
+    public Type[] getTypes() { return types; }
+    public int getNumChunks() { return chunkOffsets.length; }
+    /** Where the chunk's first row starts in the CSV file. */
+    public long getChunkOffset(int chunk) { return chunkOffsets[chunk]; }
+    public Stats getChunkStats(int chunk) { return chunkStats[chunk]; }
+
+    /** See AspicReader.readStats. */
+    private Stats readStats(ByteBuffer buffer) {
+        final int numColumns = types.length;
+        final int rows = buffer.getInt();
+        final int ignored = buffer.getShort();
+        final String[] strs = new String[buffer.getShort()];
+        for (int i = 0; i < strs.length; i++)
+            strs[i] = readString(buffer);
+
+        int[] nulls = new int[numColumns];
+        int[] uniques = new int[numColumns];
+        long[] minLong = new long[numColumns];
+        long[] maxLong = new long[numColumns];
+        float[] minFloat = new float[numColumns];
+        float[] maxFloat = new float[numColumns];
+        String[] minString = new String[numColumns];
+        String[] maxString = new String[numColumns];
+        for (int i = 0; i < numColumns; i++) {
+            nulls[i] = buffer.getInt();
+            uniques[i] = buffer.getInt();
+            long min = buffer.getLong();
+            long max = buffer.getLong();
+
+            if (types[i].equals(VarcharType.VARCHAR)) {
+                // -1 => the column was entirely null
+                minString[i] = min < 0 ? null : strs[(int) min];
+                maxString[i] = max < 0 ? null : strs[(int) max];
+            } else if (types[i].equals(RealType.REAL)) {
+                minFloat[i] = Float.intBitsToFloat((int) min);
+                maxFloat[i] = Float.intBitsToFloat((int) max);
+            } else {
+                minLong[i] = min;
+                maxLong[i] = max;
+            }
+        }
+        return new FixedStats(rows, nulls, uniques, minLong, maxLong, minFloat, maxFloat, minString, maxString);
+    }
+
+    private String readString(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
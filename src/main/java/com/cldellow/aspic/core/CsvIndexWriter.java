@@ -0,0 +1,177 @@
+package com.cldellow.aspic.core;
+
+import com.facebook.presto.spi.type.*;
+
+import java.io.*;
+import java.util.Arrays;
+
+/** Writes a sidecar index for a raw CSV file: where every Nth row starts, and
+ *  the stats of the rows from there to the next, so queries against the CSV
+ *  can be split on row boundaries and skip chunks that can't match, before the
+ *  file is converted.
+ *
+ *  Layout:
+ *    4: ASPI
+ *    1: version
+ *    8: length of the CSV file that was indexed
+ *    1: column count, then a type id per column
+ *    4: chunk count, then the offset of each chunk's first row
+ *    the stats of each chunk, laid out like a row group's in an .aspic file
+ *
+ *  Values that don't parse as their column's type, which a sampled schema can
+ *  miss, leave that column's min and max empty for the chunk, so it can't be
+ *  pruned on that column.
+ */
+public class CsvIndexWriter {
+    final static int VERSION = 1;
+    private static final int MAX_ROW_BYTES = 1 << 22;
+
+    private final Type[] types;
+    private final FieldParser parser = new FieldParser();
+
+    public CsvIndexWriter(String csvFile, CsvSchema schema, int rowsPerChunk, String indexFile) {
+        if (rowsPerChunk <= 0)
+            throw new IllegalArgumentException("rowsPerChunk must be positive, got " + rowsPerChunk);
+
+        final int numColumns = schema.getFields().size();
+        types = new Type[numColumns];
+        for (int i = 0; i < numColumns; i++)
+            types[i] = schema.getFields().get(i).getType();
+
+        try {
+            MappedFile csv = new MappedFile(csvFile);
+            MmapRecord record = new MmapRecord(new byte[MAX_ROW_BYTES], Math.max(MmapRecord.MAX_FIELDS, numColumns + 2));
+            byte[] scratch = new byte[MAX_ROW_BYTES];
+            CsvCursor cursor = new CsvCursor(
+                    csv,
+                    record,
+                    schema.getByteOrderMark() ? 3 : 0,
+                    csv.length(),
+                    !schema.getCrlf(),
+                    schema.getFieldSeparator());
+            // the header
+            cursor.next();
+
+            // the stats are serialized as each chunk ends, so only one chunk's are held at once
+            ByteArrayOutputStream stats = new ByteArrayOutputStream();
+            DataOutputStream statsOut = new DataOutputStream(stats);
+            long[] offsets = new long[16];
+            int numChunks = 0;
+            ChunkStats chunk = null;
+            while (true) {
+                final long rowStart = cursor.getPos();
+                if (!cursor.next())
+                    break;
+
+                if (chunk == null) {
+                    if (numChunks == offsets.length)
+                        offsets = Arrays.copyOf(offsets, numChunks * 2);
+                    offsets[numChunks++] = rowStart;
+                    chunk = new ChunkStats(numColumns);
+                }
+
+                chunk.addRow();
+                final int numFields = record.getNumFields();
+                for (int i = 0; i < numColumns; i++) {
+                    byte[] bytes = record.bytes;
+                    int offset = record.getStart(i);
+                    // missing fields, as in blank lines, are nulls
+                    int length = i < numFields ? record.getLength(i) : 0;
+                    if (i < numFields && record.containsQuotes[i]) {
+                        length = record.unescape(i, scratch, 0);
+                        bytes = scratch;
+                        offset = 0;
+                    }
+                    add(chunk, i, bytes, offset, length);
+                }
+
+                if (chunk.getRows() == rowsPerChunk) {
+                    AspicWriter.writeStats(statsOut, chunk, types);
+                    chunk = null;
+                }
+            }
+            if (chunk != null)
+                AspicWriter.writeStats(statsOut, chunk, types);
+
+            try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+                dos.write(new byte[]{'A', 'S', 'P', 'I', VERSION});
+                dos.writeLong(csv.length());
+                dos.writeByte(numColumns);
+                for (Type type : types)
+                    dos.writeByte(TypeSerializer.typeToId(type));
+                dos.writeInt(numChunks);
+                for (int i = 0; i < numChunks; i++)
+                    dos.writeLong(offsets[i]);
+                statsOut.flush();
+                stats.writeTo(dos);
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe);
+        }
+    }
+
+    private void add(ChunkStats chunk, int col, byte[] bytes, int offset, int length) {
+        chunk.countUnique(col, bytes, offset, length);
+        if (length == 0) {
+            chunk.addNull(col);
+            return;
+        }
+
+        final Type type = types[col];
+        final boolean valid;
+        if (type.equals(VarcharType.VARCHAR)) {
+            chunk.addString(col, bytes, offset, length);
+            return;
+        } else if (type.equals(BooleanType.BOOLEAN)) {
+            valid = parser.parseBoolean(bytes, offset, length);
+        } else if (type.equals(DateType.DATE)) {
+            valid = parser.parseDate(bytes, offset, length);
+        } else if (type.equals(TimestampType.TIMESTAMP)) {
+            valid = parser.parseTimestamp(bytes, offset, length);
+        } else if (type.equals(TinyintType.TINYINT)) {
+            valid = parser.parseLong(bytes, offset, length, Byte.MIN_VALUE, Byte.MAX_VALUE);
+        } else if (type.equals(SmallintType.SMALLINT)) {
+            valid = parser.parseLong(bytes, offset, length, Short.MIN_VALUE, Short.MAX_VALUE);
+        } else if (type.equals(IntegerType.INTEGER)) {
+            valid = parser.parseLong(bytes, offset, length, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        } else if (type.equals(BigintType.BIGINT)) {
+            valid = parser.parseLong(bytes, offset, length, Long.MIN_VALUE, Long.MAX_VALUE);
+        } else if (type.equals(RealType.REAL)) {
+            valid = parser.parseReal(bytes, offset, length);
+            if (valid)
+                chunk.addFloat(col, Float.intBitsToFloat((int) parser.value));
+            else
+                chunk.unknown[col] = true;
+            return;
+        } else {
+            throw new IllegalArgumentException("cannot index columns of type " + type);
+        }
+
+        if (valid)
+            chunk.addLong(col, parser.value);
+        else
+            chunk.unknown[col] = true;
+    }
+
+    /** A chunk's stats, without a min or max for columns with values that didn't parse. */
+    private static class ChunkStats extends RunningStats {
+        final boolean[] unknown;
+
+        ChunkStats(int numColumns) {
+            super(numColumns);
+            unknown = new boolean[numColumns];
+        }
+
+        @Override
+        public long getMinLong(int col) { return unknown[col] ? Long.MAX_VALUE : super.getMinLong(col); }
+
+        @Override
+        public long getMaxLong(int col) { return unknown[col] ? Long.MIN_VALUE : super.getMaxLong(col); }
+
+        @Override
+        public float getMinFloat(int col) { return unknown[col] ? Float.NaN : super.getMinFloat(col); }
+
+        @Override
+        public float getMaxFloat(int col) { return unknown[col] ? Float.NaN : super.getMaxFloat(col); }
+    }
+}
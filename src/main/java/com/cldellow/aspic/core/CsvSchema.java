@@ -25,6 +25,14 @@ public class CsvSchema {
     private final int rows;
     private final String[][] enumValues;
     private boolean byteOrderMark;
+    // inferred from a sample of the rows, so rows is an estimate, and the
+    // writer widens a column's type if a value doesn't fit it
+    private final boolean sampled;
+    // rows end in \r\n rather than \n
+    private final boolean crlf;
+    // no quoted field has a newline in it, so the file can be split at any
+    // newline; false unless the inferer read every row
+    private final boolean newlinesEndRows;
 
     public CsvSchema(
             boolean byteOrderMark,
@@ -32,16 +40,53 @@ public class CsvSchema {
             char fieldSeparator,
             int rows,
             String[][] enumValues) {
+        this(byteOrderMark, fields, fieldSeparator, rows, enumValues, false);
+    }
+
+    public CsvSchema(
+            boolean byteOrderMark,
+            List<Field> fields,
+            char fieldSeparator,
+            int rows,
+            String[][] enumValues,
+            boolean sampled) {
+        this(byteOrderMark, fields, fieldSeparator, rows, enumValues, sampled, false);
+    }
+
+    public CsvSchema(
+            boolean byteOrderMark,
+            List<Field> fields,
+            char fieldSeparator,
+            int rows,
+            String[][] enumValues,
+            boolean sampled,
+            boolean crlf) {
+        this(byteOrderMark, fields, fieldSeparator, rows, enumValues, sampled, crlf, false);
+    }
+
+    @JsonCreator
+    public CsvSchema(
+            @JsonProperty("byteOrderMark") boolean byteOrderMark,
+            @JsonProperty("fields") List<Field> fields,
+            @JsonProperty("fieldSeparator") char fieldSeparator,
+            @JsonProperty("rows") int rows,
+            @JsonProperty("enumValues") String[][] enumValues,
+            @JsonProperty("sampled") boolean sampled,
+            @JsonProperty("crlf") boolean crlf,
+            @JsonProperty("newlinesEndRows") boolean newlinesEndRows) {
         this.byteOrderMark = byteOrderMark;
         this.fields = fields;
         this.rows = rows;
         this.fieldSeparator = fieldSeparator;
         this.enumValues = enumValues;
+        this.sampled = sampled;
+        this.crlf = crlf;
+        this.newlinesEndRows = newlinesEndRows;
     }
 
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        sb.append(rows + " rows <");
+        sb.append((sampled ? "~" : "") + rows + " rows <");
         for(int i = 0; i < fields.size(); i++) {
             if(i > 0)
                 sb.append(",");
@@ -57,12 +102,30 @@ public class CsvSchema {
         return sb.toString();
     }
 
+    @JsonProperty
     public boolean getByteOrderMark() { return byteOrderMark; }
+
+    @JsonProperty
     public char getFieldSeparator() { return fieldSeparator; }
+
+    @JsonProperty
     public int getRows() { return rows; }
+
+    @JsonProperty
     public List<Field> getFields() { return fields; }
+
+    @JsonProperty
     public String[][] getEnumValues() { return enumValues; }
 
+    @JsonProperty
+    public boolean getSampled() { return sampled; }
+
+    @JsonProperty
+    public boolean getCrlf() { return crlf; }
+
+    @JsonProperty
+    public boolean getNewlinesEndRows() { return newlinesEndRows; }
+
     public CsvSchema withFieldType(int i, Type type) {
         String[][] newEnumValues = new String[enumValues.length][];
         for(int j = 0; j < enumValues.length; j++)
@@ -73,6 +136,6 @@ public class CsvSchema {
         Field[] newFields = fields.toArray(new Field[] {});
         newFields[i] = new Field(newFields[i].getName(), type);
 
-        return new CsvSchema(byteOrderMark, Arrays.asList(newFields), fieldSeparator, rows, newEnumValues);
+        return new CsvSchema(byteOrderMark, Arrays.asList(newFields), fieldSeparator, rows, newEnumValues, sampled, crlf, newlinesEndRows);
     }
 }
\ No newline at end of file
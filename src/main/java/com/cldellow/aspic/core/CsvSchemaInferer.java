@@ -13,264 +13,269 @@
  */
 package com.cldellow.aspic.core;
 
-import com.clearspring.analytics.stream.cardinality.HyperLogLogPlus;
 import com.facebook.presto.spi.type.*;
 import com.google.common.collect.ImmutableList;
-import de.siegmar.fastcsv.reader.CsvParser;
-import de.siegmar.fastcsv.reader.CsvReader;
-import de.siegmar.fastcsv.reader.CsvRow;
-import dk.brics.automaton.RegExp;
-import dk.brics.automaton.RunAutomaton;
-import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormatter;
-import org.joda.time.format.ISODateTimeFormat;
 
 import java.io.*;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
+/** Reads a CSV to work out its separator, header and the type of each column.
+ *  The mapped file is split at newlines, and each part is counted on its own
+ *  thread; see {@link TypeCounters}.
+ *
+ *  Given a sample size, only runs of rows spread evenly through the file are
+ *  read. The resulting schema is marked as sampled: its row count is an
+ *  estimate, it has no enums, since a sample can't promise to see every value,
+ *  and {@link AspicWriter} widens any column that a later value doesn't fit.
+ */
 public class CsvSchemaInferer {
     public static final int DEFAULT_ROW_GROUP_SIZE = 100000;
+    // Rows are parsed straight from the mapped CSV, so this bounds a row's length.
+    private static final int MAX_ROW_BYTES = 1 << 22;
+    // Parts smaller than this aren't worth a thread of their own.
+    static final long MIN_PART_BYTES = 1 << 22;
+    // When sampling, how many consecutive rows are read at each point.
+    private static final int SAMPLE_RUN_ROWS = 1000;
     public final CsvSchema schema;
     private final Charset UTF8 = Charset.forName("UTF-8");
 
-//    private static final Pattern longPattern = Pattern.compile("^-?[0-9]+$");
-    private static final RunAutomaton longPattern = re("-[0-9][0-9]*|[0-9][0-9]*");
-//    private static final Pattern doublePattern = Pattern.compile("^-?[0-9]+\\.[0-9]+$");
-    private static final RunAutomaton doublePattern = re("-[0-9][0-9]*\\.[0-9][0-9]*|[0-9][0-9]*\\.[0-9][0-9]*");
-
-//    private static final Pattern datePattern = Pattern.compile("^[0-9]{1,4}-[0-9]{1,2}-[0-9]{1,2}$");
-    private static final RunAutomaton datePattern = re("[0-9][0-9]*-[0-9][0-9]*-[0-9][0-9]*");
-    // basicDateTime     yyyyMMdd'T'HHmmss.SSSZ
-    // basicDateTimeNoMs yyyyMMdd'T'HHmmssZ
-    // dateTime          yyyy-MM-dd'T'HH:mm:ss.SSSZZ
-    // dateTimeNoMillis  yyyy-MM-dd'T'HH:mm:ssZZ
-//    private static final Pattern dateTimePattern = Pattern.compile(
-//            "^[0-9]{1,4}-?[0-9]{1,2}-?[0-9]{1,2}T[0-9]{2}:?[0-9]{2}:?[0-9]{2}.*$"
-//    );
-    private static final RunAutomaton dateTimePattern = re(
-    "[0-9][0-9]*-*[0-9][0-9]*-*[0-9][0-9]*T[0-9]*:*[0-9][0-9]*:*[0-9][0-9]*.*"
-            );
+    public CsvSchemaInferer(String fileName) {
+        this(fileName, Runtime.getRuntime().availableProcessors());
+    }
 
-    private static RunAutomaton re(String s) {
-        return new RunAutomaton(new RegExp(s).toAutomaton());
+    public CsvSchemaInferer(String fileName, int threads) {
+        this(fileName, threads, 0);
     }
 
-    CsvSchemaInferer(String fileName) {
-        final byte[] bytes = new byte[65536];
-        final ByteBuffer buffer;
-        final MmapRecord record = new MmapRecord(bytes);
+    /** Reads about sampleRows rows, or every row if sampleRows is 0. */
+    public CsvSchemaInferer(String fileName, int threads, int sampleRows) {
+        this(fileName, threads, sampleRows, MIN_PART_BYTES);
+    }
 
-        boolean unixNewline = true;
-        final CsvCursor cursor;
+    CsvSchemaInferer(String fileName, int threads, int sampleRows, long minPartBytes) {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be at least 1, was " + threads);
+        if (sampleRows < 0)
+            throw new IllegalArgumentException("sampleRows must not be negative, was " + sampleRows);
 
-        try (RandomAccessFile raf = new RandomAccessFile(fileName, "r");
-             FileChannel channel = raf.getChannel();
-        ) {
-            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
-            // Do a pass over the file, building:
-            //   offset of every Nth row start
-            //   # of columns per row
-            //   for each column, # of entries that can be interpreted as type X (will be used for inference)
-            //   for each column, # of NULL entries
-            //   for each group of N rows, stats
+        try {
+            final MappedFile file = new MappedFile(fileName);
 
             boolean byteOrderMark = false;
-            if (raf.length() >= 3 && buffer.get(0) == (byte) 0xEF && buffer.get(1) == (byte) 0xBB && buffer.get(2) == (byte) 0xBF) {
-                buffer.position(3);
+            long pos = 0;
+            if (file.length() >= 3 && file.get(0) == (byte) 0xEF && file.get(1) == (byte) 0xBB && file.get(2) == (byte) 0xBF) {
+                pos = 3;
                 byteOrderMark = true;
-            } else {
-                buffer.position(0);
             }
+            final long headerStart = pos;
 
             boolean foundPipe = false;
             boolean foundTab = false;
+            // an upper bound on the number of fields in the header
+            int separators = 0;
             byte b = -1;
-            while ((b = buffer.get()) != '\n') {
+            while (pos < file.length() && (b = file.get(pos++)) != '\n') {
                 if (b == '\t')
                     foundTab = true;
                 else if (b == '|')
                     foundPipe = true;
+                if (b == '\t' || b == '|' || b == ',')
+                    separators++;
             }
 
-            if (buffer.get(buffer.position() - 2) == '\r') {
-                unixNewline = false;
-            }
-
-            if (byteOrderMark)
-                buffer.position(3);
-            else
-                buffer.position(0);
+            final boolean unixNewline = !(b == '\n' && pos >= 2 && file.get(pos - 2) == '\r');
 
-            CsvReader reader = new CsvReader();
-            reader.setContainsHeader(true);
-            reader.setErrorOnDifferentFieldCount(true);
             char fieldSeparator = ',';
             if (foundTab)
                 fieldSeparator = '\t';
             else if (foundPipe)
                 fieldSeparator = '|';
 
-            reader.setFieldSeparator(fieldSeparator);
-
-            FileInputStream fis = new FileInputStream(fileName);
-            if (byteOrderMark)
-                fis.skip(3);
-
-            Reader r = new BufferedReader(new FileReader(fis.getFD()));
-            CsvParser parser = reader.parse(r);
-            CsvRow row = parser.nextRow();
-            List<String> header = parser.getHeader();
-            List<Long> rowGroupOffsets = new Vector<>();
-
-            final int numColumns = header.size();
-
-            DateTimeFormatter[] dateTimeFormatters = new DateTimeFormatter[] {
-                    ISODateTimeFormat.dateTimeNoMillis(),
-                    ISODateTimeFormat.dateTime(),
-                    ISODateTimeFormat.basicDateTime(),
-                    ISODateTimeFormat.basicDateTimeNoMillis()
-            };
-
-            // SimpleDateFormat inFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
-            SimpleDateFormat dateFormatter = new SimpleDateFormat("yyyy-MM-dd");
-//            DateTimeFormatter dateTimeFormatter = ISODateTimeFormat.dateTimeNoMillis();
-//            DateTime dt = formatter.parseDateTime(string);
-
-            int rows = 0;
-            int[] nulls = new int[numColumns];
-            int[] ints = new int[numColumns];
-            int[] floats = new int[numColumns];
-            int[] longs = new int[numColumns];
-            int[] dates = new int[numColumns];
-            int[] timestamps = new int[numColumns];
-            int[] bools = new int[numColumns];
-            int[] _bytes = new int[numColumns];
-            int[] shorts = new int[numColumns];
-            Object[] uniqueStrings = new Object[numColumns];
-            // The limit beyond which we don't track strings.
-            int UNIQUE_CUTOFF = 10000;
-            int[] uniqueStringCount = new int[numColumns];
-            for(int i = 0; i < numColumns; i++)
-                uniqueStrings[i] = new HashSet<String>();
-
-            while (row != null) {
-                for (int i = 0; i < numColumns; i++) {
-                    String value = row.getField(i);
-                    if(uniqueStringCount[i] <= UNIQUE_CUTOFF) {
-                        ((Set<String>)uniqueStrings[i]).add(value);
-                        uniqueStringCount[i] = ((Set<String>)uniqueStrings[i]).size();
-                    }
-                    boolean isLong = false;
-                    if (value.isEmpty()) {
-                        nulls[i]++;
-                    } else {
-
-                        if(longPattern.run(value)) {
-                            try {
-                                long l = Long.parseLong(value);
-                                isLong = true;
-
-                                longs[i]++;
-                                if (l >= Integer.MIN_VALUE && l <= Integer.MAX_VALUE)
-                                    ints[i]++;
-
-                                if(l >= Short.MIN_VALUE && l <= Short.MAX_VALUE)
-                                    shorts[i]++;
-
-                                if(l >= Byte.MIN_VALUE && l <= Byte.MAX_VALUE)
-                                    _bytes[i]++;
-                            } catch (NumberFormatException nfe) {
+            MmapRecord record = new MmapRecord(new byte[MAX_ROW_BYTES], separators + 3);
+            CsvCursor cursor = new CsvCursor(file, record, headerStart, file.length(), unixNewline, fieldSeparator);
+            if (!cursor.next())
+                throw new IllegalArgumentException(fileName + " has no header");
+            final List<String> header = new ArrayList<>();
+            final int numColumns = record.getNumFields();
+            for (int i = 0; i < numColumns; i++)
+                header.add(field(record, i));
+            final long bodyStart = cursor.getPos();
+
+            final long bodyBytes = file.length() - bodyStart;
+            TypeCounters counters = null;
+            boolean sampled = false;
+            if (sampleRows > 0) {
+                long[] runs = parts(file, bodyStart, (sampleRows + SAMPLE_RUN_ROWS - 1) / SAMPLE_RUN_ROWS, 1);
+                final int rowsPerRun = (sampleRows + runs.length - 2) / (runs.length - 1);
+                counters = countParts(file, runs, threads, rowsPerRun, unixNewline, fieldSeparator, numColumns);
+                // a sample that covers the whole file is as good as reading it
+                sampled = counters != null && counters.getBytes() < bodyBytes;
+            }
+            // Sampling and splitting the file both assume that a newline ends a row.
+            // When one is inside a quoted field, the whole file is read in order.
+            if (counters == null)
+                counters = countParts(file, parts(file, bodyStart, threads, minPartBytes), threads, Integer.MAX_VALUE, unixNewline, fieldSeparator, numColumns);
+            if (counters == null)
+                counters = count(file, bodyStart, file.length(), Integer.MAX_VALUE, unixNewline, fieldSeparator, numColumns, true);
 
-                            }
-                        }
+            int rows = counters.getRows();
+            if (sampled && counters.getBytes() > 0)
+                rows = (int) Math.min(Integer.MAX_VALUE, (long) ((double) rows * bodyBytes / counters.getBytes()));
 
-                        if(!isLong && doublePattern.run(value)) {
-                            try {
-                                float f = Float.parseFloat(value);
-                                floats[i]++;
-                            } catch (NumberFormatException nfe) {
+            List<Field> fields = new Vector<>();
+            String[][] enumValues = new String[numColumns][];
+            for (int i = 0; i < numColumns; i++) {
+                Type type = counters.type(i);
+                if (type == VarcharType.VARCHAR && !sampled)
+                    enumValues[i] = counters.enumValues(i);
 
-                            }
-                        }
+                fields.add(new Field(header.get(i), type));
+            }
 
-                        boolean isYes = isYes(value);
+            // only a read of the whole file can promise there's no newline inside quotes
+            final boolean newlinesEndRows = !sampled && !counters.getQuotedNewlines();
+            schema = new CsvSchema(byteOrderMark, ImmutableList.copyOf(fields), fieldSeparator, rows, enumValues, sampled, !unixNewline, newlinesEndRows);
+        } catch (FileNotFoundException fnfe) {
+            throw new RuntimeException(fnfe);
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe);
+        }
+    }
 
-                        boolean isNo = value.equals("0") || value.equals("F") || value.equals("f") ||
-                                value.equals("N") || value.equals("n") || value.equals("FALSE") || value.equals("false") ||
-                                value.equals("NO") || equals("no");
+    /** Where each part of the file after start begins; each part starts just after a newline. */
+    private static long[] parts(MappedFile file, long start, int maxParts, long minPartBytes) {
+        final long length = file.length() - start;
+        final int numParts = (int) Math.max(1, Math.min(maxParts, length / minPartBytes));
+        long[] rv = new long[numParts + 1];
+        rv[0] = start;
+        for (int i = 1; i < numParts; i++) {
+            long pos = Math.max(rv[i - 1], start + length / numParts * i);
+            while (pos < file.length() && file.get(pos++) != '\n') {
+            }
+            rv[i] = pos;
+        }
+        rv[numParts] = file.length();
+        return rv;
+    }
 
-                        if (isYes || isNo) {
-                            bools[i]++;
-                        }
+    /** Counts up to maxRows rows of each part on a pool of threads, then merges
+     *  the counts; null if a part didn't start at the beginning of a row. */
+    private TypeCounters countParts(
+            MappedFile file,
+            long[] parts,
+            int threads,
+            int maxRows,
+            boolean unixNewline,
+            char fieldSeparator,
+            int numColumns) throws IOException {
+        final boolean exact = parts.length == 2;
+        if (exact)
+            return count(file, parts[0], parts[1], maxRows, unixNewline, fieldSeparator, numColumns, true);
+
+        ForkJoinPool pool = new ForkJoinPool(Math.min(threads, parts.length - 1));
+        try {
+            List<Future<TypeCounters>> futures = new ArrayList<>();
+            for (int i = 0; i < parts.length - 1; i++) {
+                final long start = parts[i];
+                final long end = parts[i + 1];
+                futures.add(pool.submit(() -> count(file, start, end, maxRows, unixNewline, fieldSeparator, numColumns, false)));
+            }
 
-                        if(datePattern.run(value)) {
-                            try {
-                                dateFormatter.parse(value);
-                                dates[i]++;
-                            } catch (ParseException pe) {
-                            }
-                        }
+            TypeCounters rv = new TypeCounters(numColumns);
+            for (Future<TypeCounters> future : futures) {
+                TypeCounters counters = future.get();
+                if (counters == null)
+                    return null;
+                rv.merge(counters);
+            }
+            return rv;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ie);
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof IOException)
+                throw (IOException) ee.getCause();
+            throw new RuntimeException(ee.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
 
-                        if(dateTimePattern.run(value)) {
-                            for (int j = 0; j < dateTimeFormatters.length; j++) {
-                                try {
-                                    DateTime dateTime = dateTimeFormatters[j].parseDateTime(value);
-                                    timestamps[i]++;
-                                    break;
-                                } catch (IllegalArgumentException iae) {
+    /** Counts the first maxRows rows in [start, end). Unless exact, returns null
+     *  on anything that suggests start was inside a quoted field: a row with the
+     *  wrong number of fields, or a newline inside quotes. */
+    private TypeCounters count(
+            MappedFile file,
+            long start,
+            long end,
+            int maxRows,
+            boolean unixNewline,
+            char fieldSeparator,
+            int numColumns,
+            boolean exact) {
+        TypeCounters counters = new TypeCounters(numColumns);
+        MmapRecord record = new MmapRecord(new byte[MAX_ROW_BYTES], Math.max(MmapRecord.MAX_FIELDS, numColumns + 2));
+        CsvCursor cursor = new CsvCursor(file, record, start, end, unixNewline, fieldSeparator);
+        // fields with doubled quotes are unescaped into this
+        final byte[] scratch = new byte[MAX_ROW_BYTES];
+        int row = 0;
+        while (row < maxRows) {
+            try {
+                if (!cursor.next())
+                    break;
+            } catch (IllegalArgumentException iae) {
+                if (exact)
+                    throw iae;
+                return null;
+            }
 
-                                }
-                            }
-                        }
-                    }
-                }
-                rows++;
-                row = parser.nextRow();
+            final int numFields = record.getNumFields();
+            // blank lines are skipped, as the writer does
+            if (numFields == 1 && record.getLength(0) == 0)
+                continue;
+            row++;
+            if (numFields != numColumns) {
+                if (exact)
+                    throw new IllegalArgumentException("row " + row + " has " + numFields + " fields, expected " + numColumns);
+                return null;
             }
 
-            List<Field> fields = new Vector<>();
-            String[][] enumValues = new String[numColumns][];
             for (int i = 0; i < numColumns; i++) {
-                Type type = VarcharType.VARCHAR;
-
-                if(floats[i] > 0 && nulls[i] + floats[i] == rows) {
-                    type = RealType.REAL;
-                } else if(bools[i] > 0 && nulls[i] + bools[i] == rows) {
-                    type = BooleanType.BOOLEAN;
-                } else if(_bytes[i] > 0 && nulls[i] + _bytes[i] == rows) {
-                    type = TinyintType.TINYINT;
-                } else if(shorts[i] > 0 && nulls[i] + shorts[i] == rows) {
-                    type = SmallintType.SMALLINT;
-                } else if(ints[i] > 0 && nulls[i] + ints[i] == rows) {
-                    type = IntegerType.INTEGER;
-                } else if(longs[i] > 0 && nulls[i] + longs[i] == rows) {
-                    type = BigintType.BIGINT;
-                } else if(dates[i] > 0 && nulls[i] + dates[i] == rows) {
-                    type = DateType.DATE;
-                } else if(timestamps[i] > 0 && nulls[i] + timestamps[i] == rows) {
-                    type = TimestampType.TIMESTAMP;
+                if (record.quoted[i] && containsNewline(record, i)) {
+                    if (!exact)
+                        return null;
+                    counters.addQuotedNewline();
                 }
-                if(type == VarcharType.VARCHAR && ((Set<String>)uniqueStrings[i]).size() < UNIQUE_CUTOFF) {
-                    String[] values = ((Set<String>)uniqueStrings[i]).toArray(new String[] {});
-                    Arrays.sort(values);
-                    enumValues[i] = values;
-                }
-
-                fields.add(new Field(header.get(i), type));
+                if (record.containsQuotes[i])
+                    counters.add(i, scratch, 0, record.unescape(i, scratch, 0));
+                else
+                    counters.add(i, record.bytes, record.getStart(i), record.getLength(i));
             }
+            counters.addRow();
+        }
+        counters.addBytes(cursor.getPos() - start);
+        return counters;
+    }
 
-            schema = new CsvSchema(byteOrderMark, ImmutableList.copyOf(fields), fieldSeparator, rows, enumValues);
-        } catch (FileNotFoundException fnfe) {
-            throw new RuntimeException(fnfe);
-        } catch (IOException ioe) {
-            throw new RuntimeException(ioe);
+    private static boolean containsNewline(MmapRecord record, int field) {
+        final int start = record.getStart(field);
+        final int end = start + record.getLength(field);
+        for (int i = start; i < end; i++)
+            if (record.bytes[i] == '\n')
+                return true;
+        return false;
+    }
+
+    private String field(MmapRecord record, int field) {
+        if (record.containsQuotes[field]) {
+            byte[] unescaped = new byte[record.getLength(field)];
+            return new String(unescaped, 0, record.unescape(field, unescaped, 0), UTF8);
         }
+        return new String(record.bytes, record.getStart(field), record.getLength(field), UTF8);
     }
 
     public static boolean isYes(String value) {
@@ -0,0 +1,145 @@
+package com.cldellow.aspic.core;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/** How the values of a column chunk are laid out. The writer picks whichever
+ *  encoding is smallest for each column of each row group; varchars are only
+ *  ever PLAIN or DICTIONARY. Except for PLAIN and DICTIONARY, the reader
+ *  decodes a whole chunk at once, into a long per row.
+ *
+ *  Packed values are little-endian, least significant bit first, and followed
+ *  by PADDING zero bytes so any value can be read with a single 8-byte load.
+ */
+final class Encoding {
+    /** Fixed width values, or for varchars, offsets then string data. */
+    static final int PLAIN = 0;
+    /** The distinct values, longs or strings, then each row's id, bit-packed. */
+    static final int DICTIONARY = 1;
+    /** The minimum, then each value minus it, bit-packed. */
+    static final int FRAME_OF_REFERENCE = 2;
+    /** The first value, then the zig-zagged difference from the previous value, bit-packed. */
+    static final int DELTA = 3;
+    /** Runs of the same value, as (value, length) pairs. */
+    static final int RUN_LENGTH = 4;
+
+    static final int PADDING = 7;
+
+    private Encoding() {
+    }
+
+    /** Bits needed to hold v as an unsigned number. */
+    static int bitWidth(long v) {
+        return 64 - Long.numberOfLeadingZeros(v);
+    }
+
+    /** Interleaves negative and positive numbers so that small magnitudes have small widths. */
+    static long zigZag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    static long unZigZag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    static int packedLength(int count, int width) {
+        return (int) (((long) count * width + 7) / 8) + PADDING;
+    }
+
+    /** Writes the low width bits of each of values[offset, offset + count), minus reference. */
+    static void pack(DataOutputStream dos, long[] values, int offset, int count, long reference, int width) throws IOException {
+        byte[] packed = new byte[packedLength(count, width)];
+        long bitPos = 0;
+        for (int i = offset; i < offset + count; i++) {
+            final long v = values[i] - reference;
+            for (int bit = 0; bit < width; ) {
+                final int index = (int) (bitPos >>> 3);
+                final int shift = (int) (bitPos & 7);
+                final int n = Math.min(8 - shift, width - bit);
+                packed[index] |= (byte) (((v >>> bit) & ((1 << n) - 1)) << shift);
+                bit += n;
+                bitPos += n;
+            }
+        }
+        dos.write(packed);
+    }
+
+    /** Reads count values of width bits starting at position, adding reference to each. */
+    static void unpack(ByteBuffer buffer, int position, int count, int width, long reference, long[] dest, int destOffset) {
+        if (width == 0) {
+            Arrays.fill(dest, destOffset, destOffset + count, reference);
+            return;
+        }
+
+        final ByteBuffer le = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        final long mask = width == 64 ? -1L : (1L << width) - 1;
+        long bitPos = 0;
+        for (int i = 0; i < count; i++) {
+            final int index = position + (int) (bitPos >>> 3);
+            final int shift = (int) (bitPos & 7);
+            long v = le.getLong(index) >>> shift;
+            // a value of more than 57 bits can spill into a ninth byte
+            if (shift + width > 64)
+                v |= (le.get(index + 8) & 0xFFL) << (64 - shift);
+            dest[destOffset + i] = (v & mask) + reference;
+            bitPos += width;
+        }
+    }
+
+    /** Like unpack, for ids that fit in an int. */
+    static int[] unpackIds(ByteBuffer buffer, int position, int count, int width) {
+        int[] ids = new int[count];
+        if (width == 0)
+            return ids;
+
+        final ByteBuffer le = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        final long mask = (1L << width) - 1;
+        long bitPos = 0;
+        for (int i = 0; i < count; i++) {
+            ids[i] = (int) ((le.getLong(position + (int) (bitPos >>> 3)) >>> (bitPos & 7)) & mask);
+            bitPos += width;
+        }
+        return ids;
+    }
+
+    /** Reads R values encoded as FRAME_OF_REFERENCE, DELTA or RUN_LENGTH into a long per row. */
+    static long[] decode(int encoding, ByteBuffer buffer, int rows) {
+        long[] values = new long[rows];
+        if (rows == 0)
+            return values;
+
+        switch (encoding) {
+            case FRAME_OF_REFERENCE: {
+                final long reference = buffer.getLong();
+                final int width = buffer.get();
+                unpack(buffer, buffer.position(), rows, width, reference, values, 0);
+                break;
+            }
+            case DELTA: {
+                values[0] = buffer.getLong();
+                final int width = buffer.get();
+                unpack(buffer, buffer.position(), rows - 1, width, 0, values, 1);
+                for (int i = 1; i < rows; i++)
+                    values[i] = values[i - 1] + unZigZag(values[i]);
+                break;
+            }
+            case RUN_LENGTH: {
+                final int runs = buffer.getInt();
+                int row = 0;
+                for (int i = 0; i < runs; i++) {
+                    final long value = buffer.getLong();
+                    final int length = buffer.getInt();
+                    Arrays.fill(values, row, row + length, value);
+                    row += length;
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("unexpected encoding " + encoding);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,45 @@
+package com.cldellow.aspic.core;
+
+import java.nio.charset.Charset;
+
+/** Maps the UTF-8 bytes of a column's enum values to their ids, so a field can
+ *  be looked up without first being turned into a String.
+ */
+class EnumDictionary {
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+    // open addressing; a slot holds id + 1, 0 => empty
+    private final int[] slots;
+    private final byte[][] keys;
+    private final int mask;
+
+    EnumDictionary(String[] enumValues) {
+        int capacity = 16;
+        while (capacity < enumValues.length * 2)
+            capacity *= 2;
+        slots = new int[capacity];
+        keys = new byte[enumValues.length][];
+        mask = capacity - 1;
+
+        for (int id = 0; id < enumValues.length; id++) {
+            byte[] key = enumValues[id].getBytes(UTF8);
+            keys[id] = key;
+            int slot = ByteHash.hash(key, 0, key.length) & mask;
+            while (slots[slot] != 0 && !ByteHash.equals(keys[slots[slot] - 1], key, 0, key.length))
+                slot = (slot + 1) & mask;
+            // later duplicates win, like Map.put
+            slots[slot] = id + 1;
+        }
+    }
+
+    /** Returns the id of the value, or -1 if it isn't one of the enum's values. */
+    int get(byte[] bytes, int offset, int length) {
+        int slot = ByteHash.hash(bytes, offset, length) & mask;
+        while (slots[slot] != 0) {
+            final int id = slots[slot] - 1;
+            if (ByteHash.equals(keys[id], bytes, offset, length))
+                return id;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,266 @@
+package com.cldellow.aspic.core;
+
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+/** Parses CSV fields straight from their UTF-8 bytes, so ingest doesn't need a
+ *  String per field. The parse methods return false if the field isn't valid,
+ *  otherwise the result is left in {@link #value}.
+ *
+ *  Only the common spellings are handled here; anything else falls back to the
+ *  same JDK and Joda parsers the writer used to call, so results don't change.
+ *  Not thread safe.
+ */
+public class FieldParser {
+    private static final long MILLIS_PER_DAY = 86400000L;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    // Exactly representable as floats.
+    private static final float[] POWERS_OF_TEN = {
+            1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+    };
+    private static final int[] DAYS_IN_MONTH = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    // Same formats CsvSchemaInferer accepts.
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+    private final DateTimeFormatter[] timestampFormatters = new DateTimeFormatter[]{
+            ISODateTimeFormat.dateTimeNoMillis(),
+            ISODateTimeFormat.dateTime(),
+            ISODateTimeFormat.basicDateTime(),
+            ISODateTimeFormat.basicDateTimeNoMillis()
+    };
+
+    /** Longs as themselves, booleans as 0 or 1, dates as days since the epoch,
+     *  timestamps as millis since the epoch and reals as their raw int bits. */
+    public long value;
+
+    public FieldParser() {
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    public boolean parseBoolean(byte[] bytes, int offset, int length) {
+        value = isYes(bytes, offset, length) ? 1 : 0;
+        return true;
+    }
+
+    /** Same as {@link CsvSchemaInferer#isYes(String)}. */
+    public static boolean isYes(byte[] bytes, int offset, int length) {
+        if (length == 1) {
+            final byte b = bytes[offset];
+            return b == '1' || b == 'T' || b == 't' || b == 'Y' || b == 'y';
+        }
+        if (length == 3)
+            return matches(bytes, offset, "YES") || matches(bytes, offset, "yes");
+        if (length == 4)
+            return matches(bytes, offset, "TRUE") || matches(bytes, offset, "true");
+        return false;
+    }
+
+    private static boolean matches(byte[] bytes, int offset, String ascii) {
+        for (int i = 0; i < ascii.length(); i++)
+            if (bytes[offset + i] != ascii.charAt(i))
+                return false;
+        return true;
+    }
+
+    /** Accepts what Long.parseLong does for ASCII digits, then checks the value
+     *  is in [min, max] the way Byte.parseByte and friends do. */
+    public boolean parseLong(byte[] bytes, int offset, int length, long min, long max) {
+        if (length == 0)
+            return false;
+
+        int i = offset;
+        final int end = offset + length;
+        boolean negative = false;
+        if (bytes[i] == '-' || bytes[i] == '+') {
+            negative = bytes[i] == '-';
+            i++;
+            if (i == end)
+                return false;
+        }
+
+        // Accumulate negatively, like Long.parseLong, so Long.MIN_VALUE fits.
+        final long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        final long multmin = limit / 10;
+        long result = 0;
+        for (; i < end; i++) {
+            final int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9 || result < multmin)
+                return false;
+            result *= 10;
+            if (result < limit + digit)
+                return false;
+            result -= digit;
+        }
+
+        result = negative ? result : -result;
+        if (result < min || result > max)
+            return false;
+        value = result;
+        return true;
+    }
+
+    public boolean parseReal(byte[] bytes, int offset, int length) {
+        int i = offset;
+        final int end = offset + length;
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+
+        // [sign]digits[.digits] with at most 7 significant digits: both the mantissa
+        // and the power of ten are exact floats, so a single division rounds the
+        // same way Float.parseFloat does.
+        int mantissa = 0;
+        int significantDigits = 0;
+        int fractionDigits = -1;
+        boolean sawDigit = false;
+        for (; i < end; i++) {
+            final byte b = bytes[i];
+            if (b == '.') {
+                if (fractionDigits >= 0)
+                    return parseRealSlowly(bytes, offset, length);
+                fractionDigits = 0;
+                continue;
+            }
+            if (b < '0' || b > '9' || significantDigits == 7)
+                return parseRealSlowly(bytes, offset, length);
+
+            sawDigit = true;
+            if (fractionDigits >= 0)
+                fractionDigits++;
+            if (mantissa == 0 && b == '0')
+                continue;
+            mantissa = mantissa * 10 + (b - '0');
+            significantDigits++;
+        }
+
+        if (!sawDigit || fractionDigits >= POWERS_OF_TEN.length)
+            return parseRealSlowly(bytes, offset, length);
+
+        float f = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+        if (negative)
+            f = -f;
+        value = Float.floatToRawIntBits(f);
+        return true;
+    }
+
+    private boolean parseRealSlowly(byte[] bytes, int offset, int length) {
+        try {
+            value = Float.floatToRawIntBits(Float.parseFloat(new String(bytes, offset, length, UTF8)));
+            return true;
+        } catch (NumberFormatException nfe) {
+            return false;
+        }
+    }
+
+    public boolean parseDate(byte[] bytes, int offset, int length) {
+        // yyyy-MM-dd. SimpleDateFormat is lenient, so a day past the end of the
+        // month rolls over, which daysFromCivil does too. Earlier years are on
+        // the Julian calendar.
+        if (length == 10 && bytes[offset + 4] == '-' && bytes[offset + 7] == '-') {
+            final int year = digits(bytes, offset, 4);
+            final int month = digits(bytes, offset + 5, 2);
+            final int day = digits(bytes, offset + 8, 2);
+            if (year >= 1583 && month >= 1 && month <= 12 && day >= 0) {
+                value = daysFromCivil(year, month, day);
+                return true;
+            }
+        }
+
+        try {
+            value = dateFormat.parse(new String(bytes, offset, length, UTF8)).getTime() / MILLIS_PER_DAY;
+            return true;
+        } catch (ParseException pe) {
+            return false;
+        }
+    }
+
+    public boolean parseTimestamp(byte[] bytes, int offset, int length) {
+        // yyyy-MM-ddTHH:mm:ss[.S](Z|+HH:mm|-HH:mm), which Joda parses strictly
+        if (length >= 20 && bytes[offset + 4] == '-' && bytes[offset + 7] == '-' && bytes[offset + 10] == 'T' &&
+                bytes[offset + 13] == ':' && bytes[offset + 16] == ':') {
+            final int year = digits(bytes, offset, 4);
+            final int month = digits(bytes, offset + 5, 2);
+            final int day = digits(bytes, offset + 8, 2);
+            final int hour = digits(bytes, offset + 11, 2);
+            final int minute = digits(bytes, offset + 14, 2);
+            final int second = digits(bytes, offset + 17, 2);
+            int i = offset + 19;
+            final int end = offset + length;
+            int millis = 0;
+            if (bytes[i] == '.') {
+                // 1 to 9 digits, of which Joda keeps the millis
+                final int fractionStart = ++i;
+                while (i < end && i - fractionStart < 9 && bytes[i] >= '0' && bytes[i] <= '9')
+                    i++;
+                final int n = i - fractionStart;
+                millis = n == 0 ? -1 : digits(bytes, fractionStart, Math.min(n, 3));
+                for (int k = n; k < 3; k++)
+                    millis *= 10;
+            }
+
+            int offsetMinutes = -1;
+            if (end - i == 1 && bytes[i] == 'Z') {
+                offsetMinutes = 0;
+            } else if (end - i == 6 && (bytes[i] == '+' || bytes[i] == '-') && bytes[i + 3] == ':') {
+                final int hours = digits(bytes, i + 1, 2);
+                final int minutes = digits(bytes, i + 4, 2);
+                if (hours >= 0 && hours < 24 && minutes >= 0 && minutes < 60)
+                    offsetMinutes = (hours * 60 + minutes) * (bytes[i] == '-' ? -1 : 1);
+            }
+
+            if (year >= 0 && month >= 1 && month <= 12 && day >= 1 && day <= daysInMonth(year, month) &&
+                    hour >= 0 && hour < 24 && minute >= 0 && minute < 60 && second >= 0 && second < 60 &&
+                    millis >= 0 && offsetMinutes != -1) {
+                value = daysFromCivil(year, month, day) * MILLIS_PER_DAY +
+                        ((hour * 60L + minute - offsetMinutes) * 60 + second) * 1000 + millis;
+                return true;
+            }
+        }
+
+        final String s = new String(bytes, offset, length, UTF8);
+        for (int j = 0; j < timestampFormatters.length; j++) {
+            try {
+                value = timestampFormatters[j].parseMillis(s);
+                return true;
+            } catch (IllegalArgumentException iae) {
+            }
+        }
+        return false;
+    }
+
+    /** The value of n ASCII digits, or -1 if they aren't all digits. */
+    private static int digits(byte[] bytes, int offset, int n) {
+        int rv = 0;
+        for (int i = offset; i < offset + n; i++) {
+            final int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9)
+                return -1;
+            rv = rv * 10 + digit;
+        }
+        return rv;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        if (month == 2 && (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)))
+            return 29;
+        return DAYS_IN_MONTH[month - 1];
+    }
+
+    /** Days since 1970-01-01 in the proleptic Gregorian calendar; see
+     *  http://howardhinnant.github.io/date_algorithms.html#days_from_civil */
+    static long daysFromCivil(int year, int month, int day) {
+        final int y = month <= 2 ? year - 1 : year;
+        final int era = (y >= 0 ? y : y - 399) / 400;
+        final int yoe = y - era * 400;
+        final int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        final int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097L + doe - 719468;
+    }
+}
@@ -0,0 +1,75 @@
+package com.cldellow.aspic.core;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/** A read-only mapping of an entire file. A single MappedByteBuffer can't
+ *  address more than 2 GB, so the file is mapped as a series of regions.
+ */
+public class MappedFile {
+    static final int REGION_SIZE = 1 << 30;
+    private final int regionSize;
+    private final MappedByteBuffer[] regions;
+    private final long length;
+
+    public MappedFile(String file) throws FileNotFoundException, IOException {
+        this(file, REGION_SIZE);
+    }
+
+    MappedFile(String file, int regionSize) throws FileNotFoundException, IOException {
+        this.regionSize = regionSize;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            // the mappings stay valid after the channel is closed
+            length = raf.length();
+            regions = new MappedByteBuffer[(int) ((length + regionSize - 1) / regionSize)];
+            for (int i = 0; i < regions.length; i++) {
+                long start = (long) i * regionSize;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(regionSize, length - start));
+            }
+        }
+    }
+
+    public long length() { return length; }
+
+    public byte get(long pos) {
+        return regions[(int) (pos / regionSize)].get((int) (pos % regionSize));
+    }
+
+    /** Copies len bytes starting at pos into dst, crossing regions if needed. */
+    public void get(long pos, byte[] dst, int off, int len) {
+        while (len > 0) {
+            ByteBuffer region = regions[(int) (pos / regionSize)].duplicate();
+            region.position((int) (pos % regionSize));
+            int n = Math.min(len, region.remaining());
+            region.get(dst, off, n);
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /** Returns len bytes starting at pos. This is a view of the mapping unless
+     *  the bytes straddle two regions, in which case they're copied. */
+    public ByteBuffer slice(long pos, int len) {
+        if (len == 0)
+            return ByteBuffer.allocate(0);
+
+        final int region = (int) (pos / regionSize);
+        final int start = (int) (pos % regionSize);
+        if (start + len <= regions[region].capacity()) {
+            ByteBuffer rv = regions[region].duplicate();
+            rv.position(start);
+            rv.limit(start + len);
+            return rv.slice();
+        }
+
+        byte[] bytes = new byte[len];
+        get(pos, bytes, 0, len);
+        return ByteBuffer.wrap(bytes);
+    }
+}
@@ -15,17 +15,27 @@ package com.cldellow.aspic.core;
 
 public class MmapRecord {
     public static final int MAX_FIELDS = 128;
-    public final int[] offsets = new int[MAX_FIELDS];
-    private final int[] emptyOffsets = new int[MAX_FIELDS];
+    public final int[] offsets;
+    private final int[] emptyOffsets;
     public final byte[] bytes;
     /* if true, need to adjust start/end offset by +1/-1 */
-    public final boolean[] quoted = new boolean[MAX_FIELDS];
+    public final boolean[] quoted;
     /* if true, need to evaluate quoted characters inside the field; can't just hand
        to new String() */
-    public final boolean[] containsQuotes = new boolean[MAX_FIELDS];
+    public final boolean[] containsQuotes;
+    private final boolean[] emptyFlags;
 
     public MmapRecord(byte[] bytes) {
+        this(bytes, MAX_FIELDS);
+    }
+
+    public MmapRecord(byte[] bytes, int maxFields) {
         this.bytes = bytes;
+        offsets = new int[maxFields];
+        emptyOffsets = new int[maxFields];
+        quoted = new boolean[maxFields];
+        containsQuotes = new boolean[maxFields];
+        emptyFlags = new boolean[maxFields];
         for(int i = 0; i < emptyOffsets.length; i++)
             emptyOffsets[i] = -1;
 
@@ -36,14 +46,33 @@ public class MmapRecord {
         int rv = offsets[field];
         if(field != 0)
             rv++;
+        if(quoted[field])
+            rv++;
 
         return rv;
     }
 
     public int getLength(int field) {
-        final int end = offsets[field + 1];
+        int end = offsets[field + 1];
+        if(quoted[field])
+            end--;
         final int start = getStart(field);
-        return end - start;
+        // an unterminated quote at the end of the file
+        return Math.max(0, end - start);
+    }
+
+    /** Copies the field into dest with any doubled quotes collapsed, returning its length. */
+    public int unescape(int field, byte[] dest, int destOffset) {
+        final int start = getStart(field);
+        final int end = start + getLength(field);
+        int j = destOffset;
+        for(int i = start; i < end; i++) {
+            dest[j++] = bytes[i];
+            if(bytes[i] == '"' && i + 1 < end && bytes[i + 1] == '"')
+                i++;
+        }
+
+        return j - destOffset;
     }
 
     public int getNumFields() {
@@ -56,5 +85,7 @@ public class MmapRecord {
 
     public void reset() {
         System.arraycopy(emptyOffsets, 0, offsets, 0, offsets.length);
+        System.arraycopy(emptyFlags, 0, quoted, 0, quoted.length);
+        System.arraycopy(emptyFlags, 0, containsQuotes, 0, containsQuotes.length);
     }
-}
\ No newline at end of file
+}
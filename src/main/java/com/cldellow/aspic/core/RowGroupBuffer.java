@@ -0,0 +1,91 @@
+package com.cldellow.aspic.core;
+
+import com.facebook.presto.spi.type.Type;
+import gnu.trove.map.hash.TLongIntHashMap;
+
+import java.util.Arrays;
+
+/** The rows of a row group, parsed into primitive column vectors so the writer
+ *  can analyse a whole group before deciding how to encode it. Buffers are
+ *  reused from one row group to the next.
+ *
+ *  Note that `long` is sufficient to track longs, shorts, bytes, floats, etc.
+ */
+class RowGroupBuffer {
+    final long[][] longs;
+    final boolean[][] isNull;
+    final boolean[] hasNulls;
+    // For the columns whose text is kept, row i is stringBytes[col][stringOffsets[col][i]]
+    // up to stringOffsets[col][i + 1]. Nulls are empty.
+    final int[][] stringOffsets;
+    final byte[][] stringBytes;
+
+    // For numeric and enum columns, each distinct value in the row group,
+    // mapped to the order it was first seen in. AspicWriter.chooseEncoding
+    // sizes a DICTIONARY encoding from the count, and the map gives each
+    // row's id if it's picked.
+    final TLongIntHashMap[] uniqueNumerics;
+    RunningStats stats;
+    // what each column was parsed as; see AspicWriter.widen and typeRowGroup
+    Type[] types;
+    int rows;
+
+    RowGroupBuffer(boolean[] text, int rowGroupSize) {
+        this(text, rowGroupSize, false);
+    }
+
+    /** Keeps the text of the columns in text. With values, those columns have
+     *  room for values too: a schemaless file's text is typed once the row
+     *  group is full, and a sampled schema's typed columns keep their text in
+     *  case a later value makes them varchars. */
+    RowGroupBuffer(boolean[] text, int rowGroupSize, boolean values) {
+        final int numColumns = text.length;
+        longs = new long[numColumns][];
+        isNull = new boolean[numColumns][];
+        hasNulls = new boolean[numColumns];
+        stringOffsets = new int[numColumns][];
+        stringBytes = new byte[numColumns][];
+        uniqueNumerics = new TLongIntHashMap[numColumns];
+
+        for (int i = 0; i < numColumns; i++) {
+            isNull[i] = new boolean[rowGroupSize];
+            if (text[i]) {
+                stringOffsets[i] = new int[rowGroupSize + 1];
+                stringBytes[i] = new byte[1024];
+            }
+            if (!text[i] || values) {
+                longs[i] = new long[rowGroupSize];
+                uniqueNumerics[i] = new TLongIntHashMap();
+            }
+        }
+    }
+
+    void reset() {
+        rows = 0;
+        stats = new RunningStats(hasNulls.length);
+        Arrays.fill(hasNulls, false);
+        for (TLongIntHashMap map : uniqueNumerics)
+            if (map != null)
+                map.clear();
+    }
+
+    int uniqueNumerics(int col) {
+        return uniqueNumerics[col] == null ? 0 : uniqueNumerics[col].size();
+    }
+
+    /** Adds a value of a numeric column that isn't null. */
+    void setLong(int col, int row, long value) {
+        longs[col][row] = value;
+        if (!uniqueNumerics[col].contains(value))
+            uniqueNumerics[col].put(value, uniqueNumerics[col].size());
+    }
+
+    /** Adds the text of a value of a column whose text is kept; nulls should be empty. */
+    void addString(int col, int row, byte[] bytes, int offset, int length) {
+        final int start = stringOffsets[col][row];
+        if (start + length > stringBytes[col].length)
+            stringBytes[col] = Arrays.copyOf(stringBytes[col], Math.max(start + length, stringBytes[col].length * 2));
+        System.arraycopy(bytes, offset, stringBytes[col], start, length);
+        stringOffsets[col][row + 1] = start + length;
+    }
+}
@@ -1,5 +1,6 @@
 package com.cldellow.aspic.core;
 
+import com.clearspring.analytics.hash.MurmurHash;
 import com.clearspring.analytics.stream.cardinality.HyperLogLog;
 import com.clearspring.analytics.stream.cardinality.HyperLogLogPlus;
 import com.facebook.presto.spi.type.BooleanType;
@@ -9,6 +10,7 @@ import com.facebook.presto.spi.type.Type;
 import org.joda.time.DateTime;
 
 import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.List;
 
 public class RunningStats implements Stats {
@@ -17,8 +19,9 @@ public class RunningStats implements Stats {
     private final long[] maxLong;
     private final float[] minFloat;
     private final float[] maxFloat;
-    private final String[] minString;
-    private final String[] maxString;
+    // UTF-8 bytes, whose unsigned order is code point order
+    private final byte[][] minString;
+    private final byte[][] maxString;
     private final HyperLogLog[] uniques;
     private final Charset UTF8 = Charset.forName("UTF-8");
     private int rows = 0;
@@ -29,15 +32,15 @@ public class RunningStats implements Stats {
         maxLong = new long[numColumns];
         minFloat = new float[numColumns];
         maxFloat = new float[numColumns];
-        minString = new String[numColumns];
-        maxString = new String[numColumns];
+        minString = new byte[numColumns][];
+        maxString = new byte[numColumns][];
         uniques = new HyperLogLog[numColumns];
 
         for (int i = 0; i < numColumns; i++) {
             minLong[i] = Long.MAX_VALUE;
             maxLong[i] = Long.MIN_VALUE;
-            minFloat[i] = Float.MAX_VALUE;
-            maxFloat[i] = Float.MIN_VALUE;
+            minFloat[i] = Float.POSITIVE_INFINITY;
+            maxFloat[i] = Float.NEGATIVE_INFINITY;
             uniques[i] = new HyperLogLog(15);
         }
     }
@@ -54,22 +57,36 @@ public class RunningStats implements Stats {
         uniques[col].offer(s.getBytes(UTF8));
     }
 
+    /** Same as {@link #countUnique(int, String)} on the UTF-8 bytes, without copying them. */
+    public void countUnique(int col, byte[] bytes, int offset, int length) {
+        uniques[col].offerHashed(MurmurHash.hash(bytes, offset, length, -1));
+    }
+
     public void addString(int col, String s) {
-        if(minString[col] == null) {
-            minString[col] = s;
-        } else {
-            if(s.compareTo(minString[col]) < 0)
-                minString[col] = s;
-        }
+        byte[] bytes = s.getBytes(UTF8);
+        addString(col, bytes, 0, bytes.length);
+    }
 
-        if(maxString[col] == null) {
-            maxString[col] = s;
-        } else {
-            if(s.compareTo(maxString[col]) > 0)
-                maxString[col] = s;
-        }
+    /** Only copies the bytes when they're a new min or max. */
+    public void addString(int col, byte[] bytes, int offset, int length) {
+        if(minString[col] == null || compareBytes(bytes, offset, length, minString[col]) < 0)
+            minString[col] = Arrays.copyOfRange(bytes, offset, offset + length);
+
+        if(maxString[col] == null || compareBytes(bytes, offset, length, maxString[col]) > 0)
+            maxString[col] = Arrays.copyOfRange(bytes, offset, offset + length);
     }
 
+    private static int compareBytes(byte[] a, int offset, int length, byte[] b) {
+        final int n = Math.min(length, b.length);
+        for (int i = 0; i < n; i++) {
+            final int x = a[offset + i] & 0xFF;
+            final int y = b[i] & 0xFF;
+            if (x != y)
+                return x < y ? -1 : 1;
+        }
+
+        return length - b.length;
+    }
 
     public void addLong(int col, long l) {
         if(l > maxLong[col])
@@ -80,6 +97,13 @@ public class RunningStats implements Stats {
     }
 
     public void addFloat(int col, float f) {
+        // NaN isn't ordered, so widen the range to cover anything a predicate could ask for
+        if(Float.isNaN(f)) {
+            minFloat[col] = Float.NEGATIVE_INFINITY;
+            maxFloat[col] = Float.POSITIVE_INFINITY;
+            return;
+        }
+
         if(f > maxFloat[col])
             maxFloat[col] = f;
         if(f < minFloat[col])
@@ -105,11 +129,11 @@ public class RunningStats implements Stats {
     }
 
     public String getMinString(int col) {
-        return minString[col];
+        return minString[col] == null ? null : new String(minString[col], UTF8);
     }
 
     public String getMaxString(int col) {
-        return maxString[col];
+        return maxString[col] == null ? null : new String(maxString[col], UTF8);
     }
 
     public int getNulls(int col) {
@@ -0,0 +1,88 @@
+package com.cldellow.aspic.core;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/** Numbers the distinct values of a varchar column of a row group, in the
+ *  order they first appear. Nulls are empty strings, so get an id like any
+ *  other value.
+ */
+class StringDictionary {
+    private final byte[] data;
+    private final int[] offsets;
+    // id of each row's value
+    private final int[] ids;
+    // the first row with each id
+    private final int[] firstRows;
+    private final int size;
+    private final int uniqueBytes;
+
+    StringDictionary(byte[] data, int[] offsets, int rows) {
+        this.data = data;
+        this.offsets = offsets;
+        ids = new int[rows];
+
+        int capacity = 16;
+        while (capacity < rows * 2)
+            capacity *= 2;
+        final int mask = capacity - 1;
+        // open addressing; a slot holds id + 1, 0 => empty
+        final int[] slots = new int[capacity];
+        int[] firstRows = new int[rows];
+        int size = 0;
+        int uniqueBytes = 0;
+        for (int row = 0; row < rows; row++) {
+            final int start = offsets[row];
+            final int length = offsets[row + 1] - start;
+            int slot = ByteHash.hash(data, start, length) & mask;
+            while (slots[slot] != 0 && !equals(firstRows[slots[slot] - 1], start, length))
+                slot = (slot + 1) & mask;
+
+            if (slots[slot] == 0) {
+                firstRows[size] = row;
+                slots[slot] = ++size;
+                uniqueBytes += length;
+            }
+            ids[row] = slots[slot] - 1;
+        }
+
+        this.firstRows = firstRows;
+        this.size = size;
+        this.uniqueBytes = uniqueBytes;
+    }
+
+    int size() { return size; }
+
+    /** Bytes taken by the dictionary encoding; see write. */
+    long encodedLength() {
+        return 4 + 4L * (size + 1) + uniqueBytes + 1 + Encoding.packedLength(ids.length, Encoding.bitWidth(size - 1));
+    }
+
+    /** The number of values, their offsets and data, then each row's id, bit-packed. */
+    void write(DataOutputStream dos) throws IOException {
+        dos.writeInt(size);
+        int offset = 0;
+        dos.writeInt(offset);
+        for (int id = 0; id < size; id++) {
+            offset += length(firstRows[id]);
+            dos.writeInt(offset);
+        }
+        for (int id = 0; id < size; id++)
+            dos.write(data, offsets[firstRows[id]], length(firstRows[id]));
+
+        long[] codes = new long[ids.length];
+        for (int row = 0; row < ids.length; row++)
+            codes[row] = ids[row];
+        final int width = Encoding.bitWidth(size - 1);
+        dos.writeByte(width);
+        Encoding.pack(dos, codes, 0, codes.length, 0, width);
+    }
+
+    private int length(int row) {
+        return offsets[row + 1] - offsets[row];
+    }
+
+    private boolean equals(int row, int start, int length) {
+        return ByteHash.equals(data, offsets[row], length(row), data, start, length);
+    }
+}
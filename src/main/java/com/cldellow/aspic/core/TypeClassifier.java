@@ -0,0 +1,196 @@
+package com.cldellow.aspic.core;
+
+/** Works out which types a CSV field could be read as, straight from its UTF-8
+ *  bytes, in one pass and without allocating or throwing. The result is a mask
+ *  of the bits below.
+ *
+ *  Dates and timestamps are only recognised in their usual ISO spellings, all
+ *  of which {@link FieldParser} reads the same way the JDK and Joda do.
+ */
+final class TypeClassifier {
+    static final int TINYINT = 1;
+    static final int SMALLINT = 1 << 1;
+    static final int INTEGER = 1 << 2;
+    static final int BIGINT = 1 << 3;
+    static final int REAL = 1 << 4;
+    static final int BOOLEAN = 1 << 5;
+    static final int DATE = 1 << 6;
+    static final int TIMESTAMP = 1 << 7;
+
+    private static final int[] DAYS_IN_MONTH = {31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    private TypeClassifier() {
+    }
+
+    /** The types the value could be; 0 for an empty value, which is a null. */
+    static int classify(byte[] bytes, int offset, int length) {
+        if (length == 0)
+            return 0;
+
+        final int end = offset + length;
+        final byte first = bytes[offset];
+        int rv = isBoolean(bytes, offset, length) ? BOOLEAN : 0;
+        if (first == '-' || isDigit(first))
+            rv |= number(bytes, offset, end);
+        if (length >= 8 && isDigit(first)) {
+            if (isDate(bytes, offset, end))
+                rv |= DATE;
+            else if (isTimestamp(bytes, offset, end))
+                rv |= TIMESTAMP;
+        }
+        return rv;
+    }
+
+    /** -?[0-9]+ that fits in a long, or -?[0-9]+\.[0-9]+, which is a REAL. */
+    private static int number(byte[] bytes, int offset, int end) {
+        int i = offset;
+        final boolean negative = bytes[i] == '-';
+        if (negative)
+            i++;
+
+        // accumulate negatively, like Long.parseLong, so Long.MIN_VALUE fits
+        final long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        final long multmin = limit / 10;
+        long result = 0;
+        boolean fits = true;
+        final int digitsStart = i;
+        for (; i < end && isDigit(bytes[i]); i++) {
+            final int digit = bytes[i] - '0';
+            if (result < multmin || result * 10 < limit + digit)
+                fits = false;
+            else
+                result = result * 10 - digit;
+        }
+        if (i == digitsStart)
+            return 0;
+
+        if (i == end) {
+            if (!fits)
+                return 0;
+            final long v = negative ? result : -result;
+            int rv = BIGINT;
+            if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE)
+                rv |= INTEGER;
+            if (v >= Short.MIN_VALUE && v <= Short.MAX_VALUE)
+                rv |= SMALLINT;
+            if (v >= Byte.MIN_VALUE && v <= Byte.MAX_VALUE)
+                rv |= TINYINT;
+            return rv;
+        }
+
+        if (bytes[i] != '.' || i + 1 == end)
+            return 0;
+        for (i++; i < end; i++)
+            if (!isDigit(bytes[i]))
+                return 0;
+        return REAL;
+    }
+
+    /** What CsvSchemaInferer.isYes accepts, and its opposites. */
+    private static boolean isBoolean(byte[] bytes, int offset, int length) {
+        if (length == 1) {
+            final byte b = bytes[offset];
+            return b == '1' || b == 'T' || b == 't' || b == 'Y' || b == 'y' ||
+                    b == '0' || b == 'F' || b == 'f' || b == 'N' || b == 'n';
+        }
+        if (length == 2)
+            return matches(bytes, offset, "NO") || matches(bytes, offset, "no");
+        if (length == 3)
+            return matches(bytes, offset, "YES") || matches(bytes, offset, "yes");
+        if (length == 4)
+            return matches(bytes, offset, "TRUE") || matches(bytes, offset, "true");
+        if (length == 5)
+            return matches(bytes, offset, "FALSE") || matches(bytes, offset, "false");
+        return false;
+    }
+
+    /** yyyy-M-d, with one or two digit months and days. */
+    private static boolean isDate(byte[] bytes, int offset, int end) {
+        if (digits(bytes, offset, 4) < 0 || bytes[offset + 4] != '-')
+            return false;
+        int i = offset + 5;
+        final int monthStart = i;
+        while (i < end && i - monthStart < 3 && isDigit(bytes[i]))
+            i++;
+        final int month = digits(bytes, monthStart, i - monthStart);
+        if (i - monthStart > 2 || month < 1 || month > 12 || i == end || bytes[i] != '-')
+            return false;
+        final int dayStart = ++i;
+        final int day = digits(bytes, dayStart, end - dayStart);
+        return end - dayStart >= 1 && end - dayStart <= 2 && day >= 1 && day <= 31;
+    }
+
+    /** yyyy-MM-ddTHH:mm:ss[.S](Z|+HH:mm|-HH:mm), or the same without the
+     *  dashes and colons, as in yyyyMMddTHHmmss[.S](Z|+HHmm|-HHmm). The
+     *  fraction of a second has 1 to 9 digits, as Joda reads it. */
+    private static boolean isTimestamp(byte[] bytes, int offset, int end) {
+        final boolean basic = bytes[offset + 4] != '-';
+        final int dateLength = basic ? 8 : 10;
+        final int timeLength = basic ? 6 : 8;
+        // the shortest is 8 + T + 6 + Z
+        if (end - offset < dateLength + 1 + timeLength + 1 || bytes[offset + dateLength] != 'T')
+            return false;
+
+        final int year = digits(bytes, offset, 4);
+        final int month = basic ? digits(bytes, offset + 4, 2) : field(bytes, offset + 4, '-');
+        final int day = basic ? digits(bytes, offset + 6, 2) : field(bytes, offset + 7, '-');
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > DAYS_IN_MONTH[month - 1] ||
+                (month == 2 && day == 29 && !isLeapYear(year)))
+            return false;
+
+        int i = offset + dateLength + 1;
+        final int hour = digits(bytes, i, 2);
+        final int minute = basic ? digits(bytes, i + 2, 2) : field(bytes, i + 2, ':');
+        final int second = basic ? digits(bytes, i + 4, 2) : field(bytes, i + 5, ':');
+        if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59)
+            return false;
+
+        i += timeLength;
+        if (bytes[i] == '.') {
+            final int fractionStart = ++i;
+            while (i < end && isDigit(bytes[i]))
+                i++;
+            if (i == fractionStart || i - fractionStart > 9 || i == end)
+                return false;
+        }
+
+        if (bytes[i] == 'Z')
+            return i + 1 == end;
+        if (bytes[i] != '+' && bytes[i] != '-' || end - i != (basic ? 5 : 6))
+            return false;
+        final int hours = digits(bytes, i + 1, 2);
+        final int minutes = basic ? digits(bytes, i + 3, 2) : field(bytes, i + 3, ':');
+        return hours >= 0 && hours <= 23 && minutes >= 0 && minutes <= 59;
+    }
+
+    /** Two digits after the separator at offset, or -1. */
+    private static int field(byte[] bytes, int offset, char separator) {
+        return bytes[offset] == separator ? digits(bytes, offset + 1, 2) : -1;
+    }
+
+    private static boolean isLeapYear(int year) {
+        return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /** The value of n ASCII digits, or -1 if they aren't all digits. */
+    private static int digits(byte[] bytes, int offset, int n) {
+        int rv = 0;
+        for (int i = offset; i < offset + n; i++) {
+            if (!isDigit(bytes[i]))
+                return -1;
+            rv = rv * 10 + bytes[i] - '0';
+        }
+        return rv;
+    }
+
+    private static boolean matches(byte[] bytes, int offset, String ascii) {
+        for (int i = 0; i < ascii.length(); i++)
+            if (bytes[offset + i] != ascii.charAt(i))
+                return false;
+        return true;
+    }
+}
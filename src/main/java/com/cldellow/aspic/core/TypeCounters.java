@@ -0,0 +1,195 @@
+package com.cldellow.aspic.core;
+
+import com.facebook.presto.spi.type.*;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/** For each column of part of a CSV, how many of its values could be read
+ *  as each type; see {@link TypeClassifier}. Counters for different parts of
+ *  the file are merged to infer the type of the whole column. Not thread safe.
+ */
+class TypeCounters {
+    // The limit beyond which we don't track strings.
+    static final int UNIQUE_CUTOFF = 10000;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final int numColumns;
+    private int rows = 0;
+    // how much of the file was read
+    private long bytes = 0;
+    // whether a quoted field had a newline in it
+    private boolean quotedNewlines = false;
+    private final int[] nulls;
+    private final int[] ints;
+    private final int[] floats;
+    private final int[] longs;
+    private final int[] dates;
+    private final int[] timestamps;
+    private final int[] bools;
+    private final int[] tinyints;
+    private final int[] shorts;
+    // Stops growing once it has more than UNIQUE_CUTOFF values.
+    private final UniqueValues[] uniqueValues;
+
+    TypeCounters(int numColumns) {
+        this.numColumns = numColumns;
+        nulls = new int[numColumns];
+        ints = new int[numColumns];
+        floats = new int[numColumns];
+        longs = new int[numColumns];
+        dates = new int[numColumns];
+        timestamps = new int[numColumns];
+        bools = new int[numColumns];
+        tinyints = new int[numColumns];
+        shorts = new int[numColumns];
+        uniqueValues = new UniqueValues[numColumns];
+        for (int i = 0; i < numColumns; i++)
+            uniqueValues[i] = new UniqueValues();
+    }
+
+    int getRows() { return rows; }
+
+    void addRow() {
+        rows++;
+    }
+
+    long getBytes() { return bytes; }
+
+    void addBytes(long bytes) {
+        this.bytes += bytes;
+    }
+
+    boolean getQuotedNewlines() { return quotedNewlines; }
+
+    void addQuotedNewline() {
+        quotedNewlines = true;
+    }
+
+    /** Counts a value from its UTF-8 bytes, which aren't kept. */
+    void add(int col, byte[] bytes, int offset, int length) {
+        uniqueValues[col].add(bytes, offset, length);
+
+        if (length == 0) {
+            nulls[col]++;
+            return;
+        }
+
+        final int types = TypeClassifier.classify(bytes, offset, length);
+        if ((types & TypeClassifier.BIGINT) != 0)
+            longs[col]++;
+        if ((types & TypeClassifier.INTEGER) != 0)
+            ints[col]++;
+        if ((types & TypeClassifier.SMALLINT) != 0)
+            shorts[col]++;
+        if ((types & TypeClassifier.TINYINT) != 0)
+            tinyints[col]++;
+        if ((types & TypeClassifier.REAL) != 0)
+            floats[col]++;
+        if ((types & TypeClassifier.BOOLEAN) != 0)
+            bools[col]++;
+        if ((types & TypeClassifier.DATE) != 0)
+            dates[col]++;
+        if ((types & TypeClassifier.TIMESTAMP) != 0)
+            timestamps[col]++;
+    }
+
+    /** Adds other's counts to these. */
+    void merge(TypeCounters other) {
+        if (other.numColumns != numColumns)
+            throw new IllegalArgumentException("expected " + numColumns + " columns, got " + other.numColumns);
+
+        rows += other.rows;
+        bytes += other.bytes;
+        quotedNewlines |= other.quotedNewlines;
+        for (int i = 0; i < numColumns; i++) {
+            nulls[i] += other.nulls[i];
+            ints[i] += other.ints[i];
+            floats[i] += other.floats[i];
+            longs[i] += other.longs[i];
+            dates[i] += other.dates[i];
+            timestamps[i] += other.timestamps[i];
+            bools[i] += other.bools[i];
+            tinyints[i] += other.tinyints[i];
+            shorts[i] += other.shorts[i];
+            uniqueValues[i].addAll(other.uniqueValues[i]);
+        }
+    }
+
+    /** The narrowest type every non-null value of col fits, or VARCHAR. */
+    Type type(int col) {
+        final int n = rows - nulls[col];
+        if (floats[col] > 0 && floats[col] == n)
+            return RealType.REAL;
+        if (bools[col] > 0 && bools[col] == n)
+            return BooleanType.BOOLEAN;
+        if (tinyints[col] > 0 && tinyints[col] == n)
+            return TinyintType.TINYINT;
+        if (shorts[col] > 0 && shorts[col] == n)
+            return SmallintType.SMALLINT;
+        if (ints[col] > 0 && ints[col] == n)
+            return IntegerType.INTEGER;
+        if (longs[col] > 0 && longs[col] == n)
+            return BigintType.BIGINT;
+        if (dates[col] > 0 && dates[col] == n)
+            return DateType.DATE;
+        if (timestamps[col] > 0 && timestamps[col] == n)
+            return TimestampType.TIMESTAMP;
+        return VarcharType.VARCHAR;
+    }
+
+    /** The sorted distinct values of col, or null if there are too many to be an enum. */
+    String[] enumValues(int col) {
+        final UniqueValues unique = uniqueValues[col];
+        if (unique.size >= UNIQUE_CUTOFF)
+            return null;
+        String[] values = new String[unique.size];
+        for (int i = 0; i < values.length; i++)
+            values[i] = new String(unique.keys[i], UTF8);
+        Arrays.sort(values);
+        return values;
+    }
+
+    /** The distinct values of a column, as UTF-8 bytes, up to just past
+     *  UNIQUE_CUTOFF of them. Only a new value is copied. */
+    private static class UniqueValues {
+        private byte[][] keys = new byte[16][];
+        // open addressing; a slot holds index + 1, 0 => empty
+        private int[] slots = new int[32];
+        private int size = 0;
+
+        void add(byte[] bytes, int offset, int length) {
+            if (size > UNIQUE_CUTOFF)
+                return;
+
+            int slot = ByteHash.hash(bytes, offset, length) & (slots.length - 1);
+            while (slots[slot] != 0) {
+                if (ByteHash.equals(keys[slots[slot] - 1], bytes, offset, length))
+                    return;
+                slot = (slot + 1) & (slots.length - 1);
+            }
+
+            if (size == keys.length)
+                keys = Arrays.copyOf(keys, size * 2);
+            keys[size++] = Arrays.copyOfRange(bytes, offset, offset + length);
+            slots[slot] = size;
+            if (size * 2 > slots.length)
+                rehash();
+        }
+
+        void addAll(UniqueValues other) {
+            for (int i = 0; i < other.size; i++)
+                add(other.keys[i], 0, other.keys[i].length);
+        }
+
+        private void rehash() {
+            slots = new int[slots.length * 2];
+            for (int i = 0; i < size; i++) {
+                int slot = ByteHash.hash(keys[i], 0, keys[i].length) & (slots.length - 1);
+                while (slots[slot] != 0)
+                    slot = (slot + 1) & (slots.length - 1);
+                slots[slot] = i + 1;
+            }
+        }
+    }
+}
@@ -2,6 +2,9 @@ package com.cldellow.aspic.core;
 
 import com.facebook.presto.spi.type.*;
 
+import java.time.Instant;
+import java.time.LocalDate;
+
 public class TypeSerializer {
     private final static Type[] types = new Type[]{
             VarcharType.VARCHAR,
@@ -48,6 +51,25 @@ public class TypeSerializer {
         throw new IllegalArgumentException("unexpected type: " + type);
     }
 
+    /** The text that the writer reads as value, when it converts a CSV without a
+     *  schema: see AspicWriter.typeRowGroup. Also how a typed chunk of a column
+     *  that later became a varchar is read; timestamps are ISO-8601 in UTC. */
+    public static String toText(Type type, long value) {
+        if(type.equals(RealType.REAL))
+            return Float.toString(Float.intBitsToFloat((int) value));
+        if(type.equals(BooleanType.BOOLEAN))
+            return value != 0 ? "true" : "false";
+        if(type.equals(DateType.DATE))
+            return LocalDate.ofEpochDay(value).toString();
+        if(type.equals(TimestampType.TIMESTAMP))
+            return Instant.ofEpochMilli(value).toString();
+        if(type.equals(TinyintType.TINYINT) || type.equals(SmallintType.SMALLINT) ||
+                type.equals(IntegerType.INTEGER) || type.equals(BigintType.BIGINT))
+            return Long.toString(value);
+
+        throw new IllegalArgumentException("unexpected type: " + type);
+    }
+
     public static Type idToType(int id) {
         if(id >= 0 && id < types.length)
             return types[id];
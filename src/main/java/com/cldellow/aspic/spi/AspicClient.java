@@ -13,48 +13,232 @@
  */
 package com.cldellow.aspic.spi;
 
+import com.cldellow.aspic.core.AspicReader;
+import com.cldellow.aspic.core.CsvIndexReader;
 import com.cldellow.aspic.core.CsvSchema;
+import com.cldellow.aspic.core.Field;
 import com.cldellow.aspic.core.Json;
-import com.facebook.presto.spi.type.BigintType;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.Resources;
-import io.airlift.json.JsonCodec;
+import com.facebook.presto.spi.type.Type;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.airlift.log.Logger;
 
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
+import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
-import static com.google.common.collect.Maps.transformValues;
-import static com.google.common.collect.Maps.uniqueIndex;
 import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
+/** Each configured directory is a schema, and each .aspic file in it is a table.
+ *  A raw CSV file is also a table if it has a .csv.metadata sidecar and hasn't
+ *  been converted yet. If it also has a .csv.index, written by CsvIndexWriter,
+ *  its splits start on the indexed rows and can be pruned by their stats.
+ *
+ *  Only a table's header and footer are read, once, and are kept until the file's
+ *  mtime or size changes. The directories are rescanned in the background, so
+ *  looking up a table never touches the filesystem.
+ */
 public class AspicClient {
+    private static final Logger log = Logger.get(AspicClient.class);
+    private static final String ASPIC_SUFFIX = ".aspic";
+    private static final String CSV_SUFFIX = ".csv";
+    private static final String METADATA_SUFFIX = ".csv.metadata";
+    private static final String INDEX_SUFFIX = ".csv.index";
+
+    private final List<File> directories;
+    private final long csvSplitSize;
+    private final ScheduledExecutorService refresher;
+
+    // Only touched by refresh(): the file a table was loaded from -> what it looked like then
+    private final Map<File, CachedTable> cachedTables = new HashMap<>();
+
     /**
-     * SchemaName -> (TableName -> TableMetadata)
+     * SchemaName -> (TableName -> TableMetadata). Replaced wholesale by each refresh.
      */
-    private final Map<String, Map<String, AspicTable>> schemas;
+    private volatile Map<String, Map<String, AspicTable>> schemas = ImmutableMap.of();
 
     @Inject
-    public AspicClient(AspicConfig config, JsonCodec<Map<String, List<AspicTable>>> catalogCodec) {
+    public AspicClient(AspicConfig config) {
+        this(config, true);
+    }
+
+    AspicClient(AspicConfig config, boolean refreshInBackground) {
         requireNonNull(config, "config is null");
-        requireNonNull(catalogCodec, "catalogCodec is null");
-
-        schemas = new HashMap<>();
-        Vector<AspicColumn> columns = new Vector<>();
-        columns.add(new AspicColumn("year", BigintType.BIGINT));
-
-        HashMap<String, AspicTable> deflt = new HashMap<>();
-        CsvSchema fs = fileStats("/tmp/tmphive/rent/big.csv.metadata");
-         deflt.put("rent",
-                new AspicTable(
-                        "rent",
-                        fs.getFields(),
-                        null,
-                        new Vector<Long>()));
-        schemas.put("default", deflt);
-        //Suppliers.memoize(schemasSupplier(catalogCodec, config.getMetadata()));
+        requireNonNull(config.getDirectories(), "directories is null");
+
+        ImmutableList.Builder<File> directories = ImmutableList.builder();
+        Set<String> schemaNames = new HashSet<>();
+        for (String directory : Splitter.on(',').trimResults().omitEmptyStrings().split(config.getDirectories())) {
+            File dir = new File(directory).getAbsoluteFile();
+            if (!schemaNames.add(schemaName(dir)))
+                throw new IllegalArgumentException("more than one directory is named " + dir.getName());
+            directories.add(dir);
+        }
+        this.directories = directories.build();
+        this.csvSplitSize = config.getCsvSplitSize().toBytes();
+
+        refresh();
+        if (refreshInBackground) {
+            refresher = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("aspic-catalog-%d").setDaemon(true).build());
+            final long interval = config.getRefreshInterval().toMillis();
+            refresher.scheduleWithFixedDelay(this::refreshQuietly, interval, interval, MILLISECONDS);
+        } else {
+            refresher = null;
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (refresher != null)
+            refresher.shutdownNow();
+    }
+
+    private static String schemaName(File directory) {
+        return directory.getName().toLowerCase(Locale.ENGLISH);
+    }
+
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (RuntimeException re) {
+            // don't let one bad scan cancel the ones after it
+            log.error(re, "Error refreshing tables");
+        }
+    }
+
+    /** Picks up tables that were added, changed or removed since the last call.
+     *  Files that haven't changed aren't reopened. */
+    synchronized void refresh() {
+        ImmutableMap.Builder<String, Map<String, AspicTable>> schemas = ImmutableMap.builder();
+        Set<File> seen = new HashSet<>();
+        for (File directory : directories) {
+            File[] files = directory.listFiles();
+            if (files == null) {
+                log.warn("Cannot list %s", directory);
+                files = new File[0];
+            }
+            // so which of two clashing tables wins doesn't depend on the filesystem
+            Arrays.sort(files);
+
+            Set<String> names = new HashSet<>();
+            for (File file : files)
+                names.add(file.getName());
+
+            Map<String, AspicTable> tables = new TreeMap<>();
+            for (File file : files) {
+                final String name = file.getName();
+                final String tableName;
+                if (name.endsWith(ASPIC_SUFFIX)) {
+                    tableName = name.substring(0, name.length() - ASPIC_SUFFIX.length());
+                } else if (name.endsWith(METADATA_SUFFIX)) {
+                    tableName = name.substring(0, name.length() - METADATA_SUFFIX.length());
+                    // prefer the converted file if there is one
+                    if (!names.contains(tableName + CSV_SUFFIX) || names.contains(tableName + ASPIC_SUFFIX))
+                        continue;
+                } else {
+                    continue;
+                }
+
+                seen.add(file);
+                AspicTable table = table(file, tableName.toLowerCase(Locale.ENGLISH));
+                if (table == null)
+                    continue;
+                if (tables.containsKey(table.getName())) {
+                    log.warn("Ignoring %s, %s.%s is already defined", file, schemaName(directory), table.getName());
+                    continue;
+                }
+                tables.put(table.getName(), table);
+            }
+            schemas.put(schemaName(directory), ImmutableMap.copyOf(tables));
+        }
+
+        cachedTables.keySet().retainAll(seen);
+        this.schemas = schemas.build();
+    }
+
+    /** The table in file, reusing what was read last time if the file hasn't
+     *  changed. Returns null if it can't be read, e.g. because it's half written. */
+    private AspicTable table(File file, String tableName) {
+        final boolean isAspic = file.getName().endsWith(ASPIC_SUFFIX);
+        final String base = file.getPath().substring(0, file.getPath().length() - (isAspic ? ASPIC_SUFFIX : METADATA_SUFFIX).length());
+        // a raw CSV table also changes when its index is written
+        final File index = new File(base + INDEX_SUFFIX);
+        final long lastModified = isAspic ? file.lastModified() : Math.max(file.lastModified(), index.lastModified());
+        final long length = isAspic ? file.length() : file.length() + index.length();
+        CachedTable cached = cachedTables.get(file);
+        if (cached != null && cached.lastModified == lastModified && cached.length == length)
+            return cached.table;
+
+        AspicTable table = null;
+        try {
+            if (isAspic) {
+                table = new AspicTable(tableName, new AspicReader(file.getPath()));
+            } else {
+                String csv = base + CSV_SUFFIX;
+                CsvSchema schema = fileStats(file.getPath());
+                CsvIndexReader csvIndex = index(index, new File(csv), schema);
+                table = new AspicTable(tableName, schema, csv, splitOffsets(new File(csv).length(), schema.getNewlinesEndRows(), csvIndex), csvIndex);
+            }
+        } catch (IOException | RuntimeException e) {
+            // remembered, so an unreadable file isn't retried until it changes
+            log.warn(e, "Cannot read %s", file);
+        }
+        cachedTables.put(file, new CachedTable(lastModified, length, table));
+        return table;
+    }
+
+    /** The CSV's index, or null if there isn't one that describes it as it is now. */
+    private static CsvIndexReader index(File index, File csv, CsvSchema schema) {
+        if (!index.exists())
+            return null;
+
+        try {
+            CsvIndexReader reader = new CsvIndexReader(index.getPath());
+            List<Type> types = new ArrayList<>();
+            for (Field field : schema.getFields())
+                types.add(field.getType());
+            if (reader.getCsvLength() != csv.length() || !types.equals(Arrays.asList(reader.getTypes()))) {
+                log.warn("Ignoring %s, it's out of date", index);
+                return null;
+            }
+            return reader;
+        } catch (IOException | RuntimeException e) {
+            log.warn(e, "Cannot read %s", index);
+            return null;
+        }
+    }
+
+    /** Where each split of a raw CSV file starts: the indexed rows, if there's an
+     *  index, otherwise every csv-split-size bytes, with the cursor moving on to
+     *  the next row. That needs every newline to end a row; a split that began
+     *  inside a quoted field would read the rest of it as rows, so otherwise the
+     *  file is read as one split. */
+    List<Long> splitOffsets(long length, boolean newlinesEndRows, CsvIndexReader index) {
+        ImmutableList.Builder<Long> offsets = ImmutableList.builder();
+        if (index != null) {
+            for (int i = 0; i < index.getNumChunks(); i++)
+                offsets.add(index.getChunkOffset(i));
+            return offsets.build();
+        }
+
+        offsets.add(0L);
+        if (!newlinesEndRows)
+            return offsets.build();
+        for (long offset = csvSplitSize; offset < length; offset += csvSplitSize)
+            offsets.add(offset);
+        return offsets.build();
     }
 
     CsvSchema fileStats(String s) {
@@ -68,7 +252,7 @@ public class AspicClient {
             throw new RuntimeException(ioe);
         }
     }
-    
+
     public Set<String> getSchemaNames() {
         return schemas.keySet();
     }
@@ -91,4 +275,17 @@ public class AspicClient {
         }
         return tables.get(tableName);
     }
-}
\ No newline at end of file
+
+    private static class CachedTable {
+        final long lastModified;
+        final long length;
+        // null => the file couldn't be read
+        final AspicTable table;
+
+        CachedTable(long lastModified, long length, AspicTable table) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.table = table;
+        }
+    }
+}
@@ -14,25 +14,79 @@
 package com.cldellow.aspic.spi;
 
 import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+import io.airlift.units.MinDataSize;
+import io.airlift.units.MinDuration;
 
 import javax.validation.constraints.NotNull;
 
-import java.net.URI;
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class AspicConfig
 {
-    private URI metadata;
+    private String directories;
+    private Duration refreshInterval = new Duration(10, SECONDS);
+    private DataSize cacheSize = new DataSize(512, MEGABYTE);
+    private DataSize csvSplitSize = new DataSize(64, MEGABYTE);
 
     @NotNull
-    public URI getMetadata()
+    public String getDirectories()
     {
-        return metadata;
+        return directories;
     }
 
-    @Config("metadata-uri")
-    public AspicConfig setMetadata(URI metadata)
+    @Config("directories")
+    @ConfigDescription("Comma-separated directories to look for tables in; each one is a schema")
+    public AspicConfig setDirectories(String directories)
     {
-        this.metadata = metadata;
+        this.directories = directories;
+        return this;
+    }
+
+    @NotNull
+    @MinDuration("1ms")
+    public Duration getRefreshInterval()
+    {
+        return refreshInterval;
+    }
+
+    @Config("refresh-interval")
+    @ConfigDescription("How often to look for tables that were added, changed or removed")
+    public AspicConfig setRefreshInterval(Duration refreshInterval)
+    {
+        this.refreshInterval = refreshInterval;
+        return this;
+    }
+
+    @NotNull
+    public DataSize getCacheSize()
+    {
+        return cacheSize;
+    }
+
+    @Config("cache-size")
+    @ConfigDescription("Maximum size of the decompressed column chunks shared by all queries")
+    public AspicConfig setCacheSize(DataSize cacheSize)
+    {
+        this.cacheSize = cacheSize;
+        return this;
+    }
+
+    @NotNull
+    @MinDataSize("1kB")
+    public DataSize getCsvSplitSize()
+    {
+        return csvSplitSize;
+    }
+
+    @Config("csv-split-size")
+    @ConfigDescription("How many bytes of a raw CSV file each split reads")
+    public AspicConfig setCsvSplitSize(DataSize csvSplitSize)
+    {
+        this.csvSplitSize = csvSplitSize;
         return this;
     }
 }
\ No newline at end of file
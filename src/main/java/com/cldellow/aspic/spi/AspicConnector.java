@@ -13,9 +13,10 @@
  */
 package com.cldellow.aspic.spi;
 
+import com.cldellow.aspic.core.ChunkCache;
 import com.facebook.presto.spi.connector.Connector;
 import com.facebook.presto.spi.connector.ConnectorMetadata;
-import com.facebook.presto.spi.connector.ConnectorRecordSetProvider;
+import com.facebook.presto.spi.connector.ConnectorPageSourceProvider;
 import com.facebook.presto.spi.connector.ConnectorSplitManager;
 import com.facebook.presto.spi.connector.ConnectorTransactionHandle;
 import com.facebook.presto.spi.transaction.IsolationLevel;
@@ -35,19 +36,22 @@ public class AspicConnector
     private final LifeCycleManager lifeCycleManager;
     private final AspicMetadata metadata;
     private final AspicSplitManager splitManager;
-    private final AspicRecordSetProvider recordSetProvider;
+    private final AspicPageSourceProvider pageSourceProvider;
+    private final ChunkCache cache;
 
     @Inject
     public AspicConnector(
             LifeCycleManager lifeCycleManager,
             AspicMetadata metadata,
             AspicSplitManager splitManager,
-            AspicRecordSetProvider recordSetProvider)
+            AspicPageSourceProvider pageSourceProvider,
+            ChunkCache cache)
     {
         this.lifeCycleManager = requireNonNull(lifeCycleManager, "lifeCycleManager is null");
         this.metadata = requireNonNull(metadata, "metadata is null");
         this.splitManager = requireNonNull(splitManager, "splitManager is null");
-        this.recordSetProvider = requireNonNull(recordSetProvider, "recordSetProvider is null");
+        this.pageSourceProvider = requireNonNull(pageSourceProvider, "pageSourceProvider is null");
+        this.cache = requireNonNull(cache, "cache is null");
     }
 
     @Override
@@ -69,14 +73,15 @@ public class AspicConnector
     }
 
     @Override
-    public ConnectorRecordSetProvider getRecordSetProvider()
+    public ConnectorPageSourceProvider getPageSourceProvider()
     {
-        return recordSetProvider;
+        return pageSourceProvider;
     }
 
     @Override
     public final void shutdown()
     {
+        log.info("Chunk cache: %s", cache.getStats());
         try {
             lifeCycleManager.stop();
         }
@@ -21,9 +21,14 @@ import com.google.common.base.Throwables;
 import com.google.inject.Injector;
 import io.airlift.bootstrap.Bootstrap;
 import io.airlift.json.JsonModule;
+import org.weakref.jmx.guice.MBeanModule;
+
+import javax.management.MBeanServer;
 
 import java.util.Map;
 
+import static java.lang.management.ManagementFactory.getPlatformMBeanServer;
+
 import static java.util.Objects.requireNonNull;
 
 public class AspicConnectorFactory
@@ -49,6 +54,8 @@ public class AspicConnectorFactory
             // A plugin is not required to use Guice; it is just very convenient
             Bootstrap app = new Bootstrap(
                     new JsonModule(),
+                    new MBeanModule(),
+                    binder -> binder.bind(MBeanServer.class).toInstance(getPlatformMBeanServer()),
                     new AspicModule(connectorId, context.getTypeManager()));
 
             Injector injector = app
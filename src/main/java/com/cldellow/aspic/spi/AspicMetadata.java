@@ -27,6 +27,7 @@ import com.facebook.presto.spi.SchemaTablePrefix;
 import com.facebook.presto.spi.TableNotFoundException;
 import com.facebook.presto.spi.connector.ConnectorMetadata;
 import com.facebook.presto.spi.predicate.*;
+import com.facebook.presto.spi.statistics.TableStatistics;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -63,8 +64,7 @@ public class AspicMetadata
 
     public List<String> listSchemaNames()
     {
-        // TODO: figure out if we want multiple schemas, or just default?
-        return ImmutableList.copyOf(new String[] { "default"});
+        return ImmutableList.copyOf(exampleClient.getSchemaNames());
     }
 
     @Override
@@ -86,7 +86,8 @@ public class AspicMetadata
     public List<ConnectorTableLayoutResult> getTableLayouts(ConnectorSession session, ConnectorTableHandle table, Constraint<ColumnHandle> constraint, Optional<Set<ColumnHandle>> desiredColumns)
     {
         AspicTableHandle tableHandle = (AspicTableHandle) table;
-        ConnectorTableLayout layout = new ConnectorTableLayout(new AspicTableLayoutHandle(tableHandle));
+        // The constraint is only used to prune row groups, so Presto still has to apply all of it.
+        ConnectorTableLayout layout = new ConnectorTableLayout(new AspicTableLayoutHandle(tableHandle, constraint.getSummary()));
         return ImmutableList.of(new ConnectorTableLayoutResult(layout, constraint.getSummary()));
     }
 
@@ -183,6 +184,19 @@ public class AspicMetadata
         return ImmutableList.of(new SchemaTableName(prefix.getSchemaName(), prefix.getTableName()));
     }
 
+    @Override
+    public TableStatistics getTableStatistics(ConnectorSession session, ConnectorTableHandle tableHandle, Constraint<ColumnHandle> constraint)
+    {
+        AspicTableHandle aspicTableHandle = (AspicTableHandle) tableHandle;
+        AspicTable table = exampleClient.getTable(aspicTableHandle.getSchemaName(), aspicTableHandle.getTableName());
+        // this can happen if table is removed during a query
+        if (table == null) {
+            return TableStatistics.EMPTY_STATISTICS;
+        }
+
+        return AspicTableStatistics.of(table, getColumnHandles(session, tableHandle).values(), constraint.getSummary());
+    }
+
     @Override
     public ColumnMetadata getColumnMetadata(ConnectorSession session, ConnectorTableHandle tableHandle, ColumnHandle columnHandle)
     {
@@ -13,22 +13,25 @@
  */
 package com.cldellow.aspic.spi;
 
+import com.cldellow.aspic.core.ChunkCache;
 import com.facebook.presto.spi.type.Type;
 import com.facebook.presto.spi.type.TypeManager;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.deser.std.FromStringDeserializer;
 import com.google.inject.Binder;
 import com.google.inject.Module;
+import com.google.inject.Provides;
 import com.google.inject.Scopes;
 
 import javax.inject.Inject;
+import javax.inject.Singleton;
 
 import static com.facebook.presto.spi.type.TypeSignature.parseTypeSignature;
 import static com.google.common.base.Preconditions.checkArgument;
 import static io.airlift.configuration.ConfigBinder.configBinder;
 import static io.airlift.json.JsonBinder.jsonBinder;
-import static io.airlift.json.JsonCodec.listJsonCodec;
-import static io.airlift.json.JsonCodecBinder.jsonCodecBinder;
+import static org.weakref.jmx.ObjectNames.generatedNameOf;
+import static org.weakref.jmx.guice.ExportBinder.newExporter;
 import static java.util.Objects.requireNonNull;
 
 public class AspicModule
@@ -54,10 +57,19 @@ public class AspicModule
         binder.bind(AspicClient.class).in(Scopes.SINGLETON);
         binder.bind(AspicSplitManager.class).in(Scopes.SINGLETON);
         binder.bind(AspicRecordSetProvider.class).in(Scopes.SINGLETON);
+        binder.bind(AspicPageSourceProvider.class).in(Scopes.SINGLETON);
         configBinder(binder).bindConfig(AspicConfig.class);
+        // every catalog has its own cache, registered in the one platform MBeanServer
+        newExporter(binder).export(ChunkCache.class).as(generatedNameOf(ChunkCache.class, connectorId));
 
         jsonBinder(binder).addDeserializerBinding(Type.class).to(TypeDeserializer.class);
-        jsonCodecBinder(binder).bindMapJsonCodec(String.class, listJsonCodec(AspicTable.class));
+    }
+
+    @Provides
+    @Singleton
+    public ChunkCache createChunkCache(AspicConfig config)
+    {
+        return new ChunkCache(config.getCacheSize().toBytes());
     }
 
     public static final class TypeDeserializer
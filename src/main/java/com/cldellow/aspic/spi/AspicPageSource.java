@@ -0,0 +1,488 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cldellow.aspic.spi;
+
+import com.cldellow.aspic.core.AspicReader;
+import com.cldellow.aspic.core.AspicRowGroup;
+import com.cldellow.aspic.core.ChunkCache;
+import com.cldellow.aspic.core.Stats;
+import com.facebook.presto.spi.ConnectorPageSource;
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.block.Block;
+import com.facebook.presto.spi.block.ByteArrayBlock;
+import com.facebook.presto.spi.block.DictionaryBlock;
+import com.facebook.presto.spi.block.IntArrayBlock;
+import com.facebook.presto.spi.block.LongArrayBlock;
+import com.facebook.presto.spi.block.RunLengthEncodedBlock;
+import com.facebook.presto.spi.block.ShortArrayBlock;
+import com.facebook.presto.spi.block.VariableWidthBlock;
+import com.facebook.presto.spi.type.Type;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+
+import java.util.List;
+
+import static com.facebook.presto.spi.type.BigintType.BIGINT;
+import static com.facebook.presto.spi.type.BooleanType.BOOLEAN;
+import static com.facebook.presto.spi.type.DateType.DATE;
+import static com.facebook.presto.spi.type.IntegerType.INTEGER;
+import static com.facebook.presto.spi.type.RealType.REAL;
+import static com.facebook.presto.spi.type.SmallintType.SMALLINT;
+import static com.facebook.presto.spi.type.TimestampType.TIMESTAMP;
+import static com.facebook.presto.spi.type.TinyintType.TINYINT;
+import static com.facebook.presto.spi.type.VarcharType.VARCHAR;
+
+/** Decodes a row group of a binary .aspic file into pages of primitive blocks,
+ *  a column at a time, avoiding the per-value virtual calls of
+ *  {@link AspicRowGroupRecordCursor}.
+ *
+ *  Columns that the footer's stats show have one value in the row group, or
+ *  are all null, become run-length encoded blocks without being read. If no
+ *  column needs reading, as for count(*), the row group isn't touched at all,
+ *  and its rows are a single page.
+ */
+public class AspicPageSource
+        implements ConnectorPageSource {
+    static final int MAX_BATCH_SIZE = 4096;
+
+    // null if every column's value comes from the stats
+    private final AspicRowGroup rowGroup;
+    private final ColumnDecoder[] decoders;
+    private final long length;
+    private final int numRows;
+    private final int batchSize;
+    private int row = 0;
+    private long readTimeNanos;
+
+    public AspicPageSource(AspicReader reader, int rowGroupIndex, List<AspicColumnHandle> columnHandles) {
+        this(reader, rowGroupIndex, columnHandles, null);
+    }
+
+    /** Decompressed chunks are shared through cache, unless it's null. */
+    public AspicPageSource(AspicReader reader, int rowGroupIndex, List<AspicColumnHandle> columnHandles, ChunkCache cache) {
+        length = reader.getRowGroupLength(rowGroupIndex);
+        final Stats stats = reader.getRowGroupStats(rowGroupIndex);
+        numRows = stats.getRows();
+
+        AspicRowGroup rowGroup = null;
+        decoders = new ColumnDecoder[columnHandles.size()];
+        for (int i = 0; i < decoders.length; i++) {
+            AspicColumnHandle handle = columnHandles.get(i);
+            int col = handle.getOrdinalPosition();
+            Block constant = constant(handle.getColumnType(), col, stats);
+            if (constant != null) {
+                decoders[i] = new ConstantDecoder(col, constant);
+                continue;
+            }
+            if (rowGroup == null)
+                rowGroup = new AspicRowGroup(reader, rowGroupIndex, cache);
+            decoders[i] = decoder(handle.getColumnType(), col, reader.getEnumBlock(col), rowGroup.isDictionaryEncoded(col));
+        }
+        this.rowGroup = rowGroup;
+        batchSize = rowGroup == null ? Math.max(numRows, 1) : MAX_BATCH_SIZE;
+    }
+
+    /** A block of the one value, or null, that col has in every row, or null if
+     *  the stats don't show that it has only one. */
+    private static Block constant(Type type, int col, Stats stats) {
+        final int numNulls = stats.getNulls(col);
+        final boolean[] nulls = {numNulls == stats.getRows()};
+        if (numNulls != 0 && !nulls[0])
+            return null;
+
+        if (type.equals(VARCHAR)) {
+            final String min = stats.getMinString(col);
+            if (nulls[0])
+                return new VariableWidthBlock(1, Slices.EMPTY_SLICE, new int[2], nulls);
+            if (min == null || !min.equals(stats.getMaxString(col)))
+                return null;
+            Slice value = Slices.utf8Slice(min);
+            return new VariableWidthBlock(1, value, new int[]{0, value.length()}, nulls);
+        }
+
+        long value = 0;
+        if (type.equals(REAL)) {
+            // by their bits, since -0.0 == 0.0
+            final int min = Float.floatToRawIntBits(stats.getMinFloat(col));
+            if (!nulls[0] && min != Float.floatToRawIntBits(stats.getMaxFloat(col)))
+                return null;
+            value = min;
+        } else if (!nulls[0]) {
+            value = stats.getMinLong(col);
+            if (value != stats.getMaxLong(col))
+                return null;
+        }
+
+        if (type.equals(BIGINT) || type.equals(TIMESTAMP))
+            return new LongArrayBlock(1, nulls, new long[]{value});
+        if (type.equals(INTEGER) || type.equals(DATE) || type.equals(REAL))
+            return new IntArrayBlock(1, nulls, new int[]{(int) value});
+        if (type.equals(SMALLINT))
+            return new ShortArrayBlock(1, nulls, new short[]{(short) value});
+        if (type.equals(TINYINT) || type.equals(BOOLEAN))
+            return new ByteArrayBlock(1, nulls, new byte[]{(byte) value});
+        return null;
+    }
+
+    private static ColumnDecoder decoder(Type type, int col, Block enumBlock, boolean dictionaryEncoded) {
+        // enum ids are better than the row group's ids, since they're the same
+        // in every row group
+        if (dictionaryEncoded && enumBlock == null)
+            return new DictionaryDecoder(col, type);
+        if (type.equals(BIGINT) || type.equals(TIMESTAMP))
+            return new LongDecoder(col);
+        // REAL is stored as the raw int bits of the float, which is what Presto wants
+        if (type.equals(INTEGER) || type.equals(DATE) || type.equals(REAL))
+            return new IntDecoder(col);
+        if (type.equals(SMALLINT))
+            return new ShortDecoder(col);
+        if (type.equals(TINYINT) || type.equals(BOOLEAN))
+            return new ByteDecoder(col);
+        if (type.equals(VARCHAR)) {
+            if (enumBlock != null)
+                return new EnumDecoder(col, enumBlock);
+            return new StringDecoder(col);
+        }
+
+        throw new IllegalArgumentException("unexpected type: " + type);
+    }
+
+    @Override
+    public long getCompletedBytes() {
+        if (row >= numRows)
+            return length;
+        return length * row / numRows;
+    }
+
+    @Override
+    public long getReadTimeNanos() {
+        return readTimeNanos;
+    }
+
+    @Override
+    public boolean isFinished() {
+        return row >= numRows;
+    }
+
+    @Override
+    public Page getNextPage() {
+        if (isFinished())
+            return null;
+
+        long start = System.nanoTime();
+        final int count = Math.min(batchSize, numRows - row);
+        for (ColumnDecoder decoder : decoders)
+            decoder.reset(count);
+
+        // Only the projected columns' chunks ever get decompressed.
+        for (ColumnDecoder decoder : decoders)
+            decoder.read(rowGroup, row, count);
+
+        Block[] blocks = new Block[decoders.length];
+        for (int i = 0; i < blocks.length; i++)
+            blocks[i] = decoders[i].build(count);
+
+        row += count;
+        readTimeNanos += System.nanoTime() - start;
+        return new Page(count, blocks);
+    }
+
+    @Override
+    public long getSystemMemoryUsage() {
+        return rowGroup == null ? 0 : rowGroup.getRetainedSize();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private static abstract class ColumnDecoder {
+        final int col;
+        boolean[] nulls;
+
+        ColumnDecoder(int col) {
+            this.col = col;
+        }
+
+        // Blocks keep a reference to our arrays, so every page gets new ones.
+        void reset(int count) {
+            nulls = new boolean[count];
+        }
+
+        /** Reads rows [row, row + count) into positions [0, count). */
+        void read(AspicRowGroup rowGroup, int row, int count) {
+            for (int i = 0; i < count; i++)
+                readOne(rowGroup, row + i, i);
+        }
+
+        abstract void readOne(AspicRowGroup rowGroup, int row, int position);
+
+        abstract Block build(int count);
+    }
+
+    /** The same value in every position, which nothing has to be read for. */
+    private static class ConstantDecoder extends ColumnDecoder {
+        private final Block value;
+
+        ConstantDecoder(int col, Block value) {
+            super(col);
+            this.value = value;
+        }
+
+        void read(AspicRowGroup rowGroup, int row, int count) {
+        }
+
+        void readOne(AspicRowGroup rowGroup, int row, int position) {
+            throw new UnsupportedOperationException();
+        }
+
+        Block build(int count) {
+            return new RunLengthEncodedBlock(value, count);
+        }
+    }
+
+    private static class LongDecoder extends ColumnDecoder {
+        long[] values;
+
+        LongDecoder(int col) {
+            super(col);
+        }
+
+        void reset(int count) {
+            super.reset(count);
+            values = new long[count];
+        }
+
+        void readOne(AspicRowGroup rowGroup, int row, int position) {
+            if (rowGroup.isNull(col, row))
+                nulls[position] = true;
+            else
+                values[position] = rowGroup.getLong(col, row);
+        }
+
+        Block build(int count) {
+            return new LongArrayBlock(count, nulls, values);
+        }
+    }
+
+    private static class IntDecoder extends ColumnDecoder {
+        int[] values;
+
+        IntDecoder(int col) {
+            super(col);
+        }
+
+        void reset(int count) {
+            super.reset(count);
+            values = new int[count];
+        }
+
+        void readOne(AspicRowGroup rowGroup, int row, int position) {
+            if (rowGroup.isNull(col, row))
+                nulls[position] = true;
+            else
+                values[position] = (int) rowGroup.getLong(col, row);
+        }
+
+        Block build(int count) {
+            return new IntArrayBlock(count, nulls, values);
+        }
+    }
+
+    private static class ShortDecoder extends ColumnDecoder {
+        short[] values;
+
+        ShortDecoder(int col) {
+            super(col);
+        }
+
+        void reset(int count) {
+            super.reset(count);
+            values = new short[count];
+        }
+
+        void readOne(AspicRowGroup rowGroup, int row, int position) {
+            if (rowGroup.isNull(col, row))
+                nulls[position] = true;
+            else
+                values[position] = (short) rowGroup.getLong(col, row);
+        }
+
+        Block build(int count) {
+            return new ShortArrayBlock(count, nulls, values);
+        }
+    }
+
+    private static class ByteDecoder extends ColumnDecoder {
+        byte[] values;
+
+        ByteDecoder(int col) {
+            super(col);
+        }
+
+        void reset(int count) {
+            super.reset(count);
+            values = new byte[count];
+        }
+
+        void readOne(AspicRowGroup rowGroup, int row, int position) {
+            if (rowGroup.isNull(col, row))
+                nulls[position] = true;
+            else
+                values[position] = (byte) rowGroup.getLong(col, row);
+        }
+
+        Block build(int count) {
+            return new ByteArrayBlock(count, nulls, values);
+        }
+    }
+
+    /** Enums become ids into the file's block of enum values, the last
+     *  entry of which is null. */
+    private static class EnumDecoder extends ColumnDecoder {
+        private final Block dictionary;
+        private final int nullId;
+        int[] ids;
+
+        EnumDecoder(int col, Block dictionary) {
+            super(col);
+            this.dictionary = dictionary;
+            nullId = dictionary.getPositionCount() - 1;
+        }
+
+        void reset(int count) {
+            super.reset(count);
+            ids = new int[count];
+        }
+
+        void readOne(AspicRowGroup rowGroup, int row, int position) {
+            if (rowGroup.isNull(col, row))
+                ids[position] = nullId;
+            else
+                ids[position] = rowGroup.getEnumId(col, row);
+        }
+
+        Block build(int count) {
+            return new DictionaryBlock(count, dictionary, ids);
+        }
+    }
+
+    /** Dictionary encoded columns become the row group's ids into a block of
+     *  its dictionary, the last entry of which is null, so the engine can
+     *  work with the ids rather than the values. */
+    private static class DictionaryDecoder extends ColumnDecoder {
+        private final Type type;
+        private Block dictionary;
+        private int nullId;
+        int[] ids;
+
+        DictionaryDecoder(int col, Type type) {
+            super(col);
+            this.type = type;
+        }
+
+        void reset(int count) {
+            super.reset(count);
+            ids = new int[count];
+        }
+
+        void read(AspicRowGroup rowGroup, int row, int count) {
+            if (dictionary == null) {
+                dictionary = dictionaryBlock(rowGroup, col, type);
+                nullId = dictionary.getPositionCount() - 1;
+            }
+            super.read(rowGroup, row, count);
+        }
+
+        void readOne(AspicRowGroup rowGroup, int row, int position) {
+            if (rowGroup.isNull(col, row))
+                ids[position] = nullId;
+            else
+                ids[position] = rowGroup.getDictionaryId(col, row);
+        }
+
+        Block build(int count) {
+            return new DictionaryBlock(count, dictionary, ids);
+        }
+    }
+
+    private static Block dictionaryBlock(AspicRowGroup rowGroup, int col, Type type) {
+        final int size = rowGroup.getDictionarySize(col);
+        boolean[] nulls = new boolean[size + 1];
+        nulls[size] = true;
+
+        if (type.equals(VARCHAR)) {
+            int[] offsets = new int[size + 2];
+            Slice data = rowGroup.getDictionaryStrings(col, offsets);
+            offsets[size + 1] = offsets[size];
+            return new VariableWidthBlock(size + 1, data, offsets, nulls);
+        }
+        if (type.equals(BIGINT) || type.equals(TIMESTAMP)) {
+            long[] values = new long[size + 1];
+            for (int i = 0; i < size; i++)
+                values[i] = rowGroup.getDictionaryLong(col, i);
+            return new LongArrayBlock(size + 1, nulls, values);
+        }
+        if (type.equals(INTEGER) || type.equals(DATE) || type.equals(REAL)) {
+            int[] values = new int[size + 1];
+            for (int i = 0; i < size; i++)
+                values[i] = (int) rowGroup.getDictionaryLong(col, i);
+            return new IntArrayBlock(size + 1, nulls, values);
+        }
+        if (type.equals(SMALLINT)) {
+            short[] values = new short[size + 1];
+            for (int i = 0; i < size; i++)
+                values[i] = (short) rowGroup.getDictionaryLong(col, i);
+            return new ShortArrayBlock(size + 1, nulls, values);
+        }
+        if (type.equals(TINYINT) || type.equals(BOOLEAN)) {
+            byte[] values = new byte[size + 1];
+            for (int i = 0; i < size; i++)
+                values[i] = (byte) rowGroup.getDictionaryLong(col, i);
+            return new ByteArrayBlock(size + 1, nulls, values);
+        }
+
+        throw new IllegalArgumentException("unexpected type: " + type);
+    }
+
+    /** Strings are stored back to back, so a page's worth are a single view of
+     *  the decompressed chunk; only the offsets are copied. */
+    private static class StringDecoder extends ColumnDecoder {
+        int[] offsets;
+        Slice data;
+
+        StringDecoder(int col) {
+            super(col);
+        }
+
+        void reset(int count) {
+            super.reset(count);
+            offsets = new int[count + 1];
+        }
+
+        void read(AspicRowGroup rowGroup, int row, int count) {
+            data = rowGroup.getStrings(col, row, count, offsets);
+            for (int i = 0; i < count; i++)
+                nulls[i] = rowGroup.isNull(col, row + i);
+        }
+
+        void readOne(AspicRowGroup rowGroup, int row, int position) {
+            throw new UnsupportedOperationException();
+        }
+
+        Block build(int count) {
+            return new VariableWidthBlock(count, data, offsets, nulls);
+        }
+    }
+}
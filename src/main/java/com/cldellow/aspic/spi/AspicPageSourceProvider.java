@@ -0,0 +1,71 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cldellow.aspic.spi;
+
+import com.cldellow.aspic.core.AspicReader;
+import com.cldellow.aspic.core.ChunkCache;
+import com.facebook.presto.spi.ColumnHandle;
+import com.facebook.presto.spi.ConnectorPageSource;
+import com.facebook.presto.spi.ConnectorSession;
+import com.facebook.presto.spi.ConnectorSplit;
+import com.facebook.presto.spi.RecordPageSource;
+import com.facebook.presto.spi.connector.ConnectorPageSourceProvider;
+import com.facebook.presto.spi.connector.ConnectorTransactionHandle;
+import com.google.common.collect.ImmutableList;
+
+import javax.inject.Inject;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/** Row groups of .aspic files are decoded straight into blocks; raw CSVs
+ *  still go through {@link AspicRecordSetProvider}.
+ */
+public class AspicPageSourceProvider
+        implements ConnectorPageSourceProvider
+{
+    private final String connectorId;
+    private final AspicRecordSetProvider recordSetProvider;
+    private final ChunkCache cache;
+
+    @Inject
+    public AspicPageSourceProvider(AspicConnectorId connectorId, AspicRecordSetProvider recordSetProvider, ChunkCache cache)
+    {
+        this.connectorId = requireNonNull(connectorId, "connectorId is null").toString();
+        this.recordSetProvider = requireNonNull(recordSetProvider, "recordSetProvider is null");
+        this.cache = requireNonNull(cache, "cache is null");
+    }
+
+    @Override
+    public ConnectorPageSource createPageSource(ConnectorTransactionHandle transactionHandle, ConnectorSession session, ConnectorSplit split, List<ColumnHandle> columns)
+    {
+        requireNonNull(split, "split is null");
+        AspicSplit aspicSplit = (AspicSplit) split;
+        checkArgument(aspicSplit.getConnectorId().equals(connectorId), "split is not for this connector");
+
+        if (aspicSplit.getRowGroup() < 0)
+            return new RecordPageSource(recordSetProvider.getRecordSet(transactionHandle, session, split, columns));
+
+        AspicReader reader = recordSetProvider.getReader(aspicSplit);
+
+        ImmutableList.Builder<AspicColumnHandle> handles = ImmutableList.builder();
+        for (ColumnHandle handle : columns) {
+            handles.add((AspicColumnHandle) handle);
+        }
+
+        return new AspicPageSource(reader, aspicSplit.getRowGroup(), handles.build(), cache);
+    }
+}
@@ -14,9 +14,10 @@
 package com.cldellow.aspic.spi;
 
 import com.cldellow.aspic.core.CsvCursor;
+import com.cldellow.aspic.core.FieldParser;
+import com.cldellow.aspic.core.MappedFile;
 import com.cldellow.aspic.core.MmapRecord;
 import com.facebook.presto.spi.RecordCursor;
-import com.facebook.presto.spi.type.BigintType;
 import com.facebook.presto.spi.type.Type;
 import com.google.common.base.Splitter;
 import io.airlift.slice.Slice;
@@ -24,20 +25,25 @@ import io.airlift.slice.Slices;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.List;
 
 import static com.facebook.presto.spi.type.BigintType.BIGINT;
 import static com.facebook.presto.spi.type.BooleanType.BOOLEAN;
+import static com.facebook.presto.spi.type.DateType.DATE;
 import static com.facebook.presto.spi.type.DoubleType.DOUBLE;
+import static com.facebook.presto.spi.type.IntegerType.INTEGER;
+import static com.facebook.presto.spi.type.RealType.REAL;
+import static com.facebook.presto.spi.type.SmallintType.SMALLINT;
+import static com.facebook.presto.spi.type.TimestampType.TIMESTAMP;
+import static com.facebook.presto.spi.type.TinyintType.TINYINT;
 import static com.facebook.presto.spi.type.VarcharType.createUnboundedVarcharType;
 import static com.google.common.base.Preconditions.checkArgument;
 
 public class AspicRecordCursor
         implements RecordCursor {
     private static final Splitter LINE_SPLITTER = Splitter.on(",").trimResults();
+    private static final Charset UTF8 = Charset.forName("UTF-8");
 
     private final List<AspicColumnHandle> columnHandles;
     private final int[] fieldToColumnIndex;
@@ -45,22 +51,55 @@ public class AspicRecordCursor
     private final long start;
     private final long end;
     private final String file;
-    private final RandomAccessFile raf;
-    private final FileChannel channel;
     private final byte[] bytes = new byte[65536];
     private final MmapRecord record = new MmapRecord(bytes);
-    private final ByteBuffer buffer;
-    private long pos;
+    // fields with doubled quotes are unescaped into this before they're parsed
+    private final byte[] scratch = new byte[bytes.length];
+    private final FieldParser parser = new FieldParser();
+    // Each field is parsed at most once a row: the row it was last parsed in,
+    // whether it parsed, and its value.
+    private final long[] parsedRow;
+    private final boolean[] parsed;
+    private final long[] values;
+    private long row = 0;
 
     private final CsvCursor cursor;
 
+    /** Reads the comma-separated rows that start between start and end, as they are. */
     public AspicRecordCursor(List<AspicColumnHandle> columnHandles,
                              String file,
                              long start,
                              long end) {
+        this(columnHandles, file, start, end, ',', false, false, false);
+    }
+
+    /** Reads the rows of a CSV file that start between start and end, skipping
+     *  the byte order mark and header if start is 0, and the tail of a row that
+     *  began before start otherwise. The row that crosses end is read to its end. */
+    public AspicRecordCursor(List<AspicColumnHandle> columnHandles,
+                             String file,
+                             long start,
+                             long end,
+                             char fieldSeparator,
+                             boolean byteOrderMark,
+                             boolean crlf) {
+        this(columnHandles, file, start, end, fieldSeparator, byteOrderMark, crlf, true);
+    }
+
+    private AspicRecordCursor(List<AspicColumnHandle> columnHandles,
+                              String file,
+                              long start,
+                              long end,
+                              char fieldSeparator,
+                              boolean byteOrderMark,
+                              boolean crlf,
+                              boolean align) {
         try {
             this.columnHandles = columnHandles;
 
+            parsedRow = new long[columnHandles.size()];
+            parsed = new boolean[columnHandles.size()];
+            values = new long[columnHandles.size()];
             fieldToColumnIndex = new int[columnHandles.size()];
             for (int i = 0; i < columnHandles.size(); i++) {
                 AspicColumnHandle columnHandle = columnHandles.get(i);
@@ -69,14 +108,13 @@ public class AspicRecordCursor
 
             this.file = file;
             this.start = start;
-            pos = start;
             this.end = end;
-            this.raf = new RandomAccessFile(file, "r");
-            this.channel = raf.getChannel();
-            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, end);
-            buffer.position((int) start);
-            cursor = new CsvCursor(buffer, record, (int)end, true);
-//            System.out.println("AspicRecordCursor start=" + start + ", end=" + end);
+            MappedFile mappedFile = new MappedFile(file);
+            long rowStart = align ? rowStart(mappedFile, start, byteOrderMark) : start;
+            // the last row may run past end, so the cursor may read to the end of the file
+            cursor = new CsvCursor(mappedFile, record, rowStart, align ? mappedFile.length() : end, !crlf, fieldSeparator);
+            if (align && start == 0)
+                cursor.next();
         } catch (FileNotFoundException fnfe) {
             throw new RuntimeException(fnfe);
         } catch (IOException ioe) {
@@ -84,10 +122,24 @@ public class AspicRecordCursor
         }
     }
 
+    /** Where the first row that starts at or after start begins; the previous
+     *  split reads the row that start falls in. Assumes start isn't inside a
+     *  quoted field, which {@link AspicClient#splitOffsets} makes sure of. */
+    private static long rowStart(MappedFile file, long start, boolean byteOrderMark) {
+        if (start == 0)
+            return byteOrderMark ? 3 : 0;
+
+        long pos = start;
+        if (file.get(pos - 1) == '\n')
+            return pos;
+        while (pos < file.length() && file.get(pos) != '\n')
+            pos++;
+        return pos + 1;
+    }
+
     @Override
     public long getCompletedBytes() {
-        // TODO: confirm if pos is relative to start
-        return pos - start;
+        return cursor.getPos() - start;
     }
 
     @Override
@@ -106,49 +158,98 @@ public class AspicRecordCursor
         if(cursor.getPos() >= end)
             return false;
 
-        cursor.next();
-        return true;
+        row++;
+        return cursor.next();
     }
 
-    private String getFieldValue(int index) {
-        int field = fieldToColumnIndex[index];
-        String rv = new String(record.bytes, record.getStart(field), record.getLength(field));
-        return rv;
+    /** Parses the field as its column's type, the way the writer and
+     *  CsvIndexWriter do. Returns false if it's empty or doesn't parse. */
+    private boolean parse(int field) {
+        if (parsedRow[field] == row)
+            return parsed[field];
+
+        final int column = fieldToColumnIndex[field];
+        byte[] bytes = record.bytes;
+        int offset = record.getStart(column);
+        int length = record.getLength(column);
+        if (record.containsQuotes[column]) {
+            length = record.unescape(column, scratch, 0);
+            bytes = scratch;
+            offset = 0;
+        }
+
+        final Type type = getType(field);
+        boolean valid = true;
+        if (length == 0) {
+            valid = false;
+        } else if (type.equals(BOOLEAN)) {
+            valid = parser.parseBoolean(bytes, offset, length);
+        } else if (type.equals(DATE)) {
+            valid = parser.parseDate(bytes, offset, length);
+        } else if (type.equals(TIMESTAMP)) {
+            valid = parser.parseTimestamp(bytes, offset, length);
+        } else if (type.equals(TINYINT)) {
+            valid = parser.parseLong(bytes, offset, length, Byte.MIN_VALUE, Byte.MAX_VALUE);
+        } else if (type.equals(SMALLINT)) {
+            valid = parser.parseLong(bytes, offset, length, Short.MIN_VALUE, Short.MAX_VALUE);
+        } else if (type.equals(INTEGER)) {
+            valid = parser.parseLong(bytes, offset, length, Integer.MIN_VALUE, Integer.MAX_VALUE);
+        } else if (type.equals(BIGINT)) {
+            valid = parser.parseLong(bytes, offset, length, Long.MIN_VALUE, Long.MAX_VALUE);
+        } else if (type.equals(REAL)) {
+            // Presto represents REAL as the raw int bits of the float
+            valid = parser.parseReal(bytes, offset, length);
+        } else if (type.equals(DOUBLE)) {
+            try {
+                parser.value = Double.doubleToRawLongBits(Double.parseDouble(new String(bytes, offset, length, UTF8)));
+            } catch (NumberFormatException nfe) {
+                valid = false;
+            }
+        }
+
+        parsedRow[field] = row;
+        parsed[field] = valid;
+        values[field] = parser.value;
+        return valid;
+    }
+
+    private long parsedValue(int field) {
+        checkArgument(parse(field), "field %s is null", field);
+        return values[field];
     }
 
     @Override
     public boolean getBoolean(int field) {
         checkFieldType(field, BOOLEAN);
-        return Boolean.parseBoolean(getFieldValue(field));
+        return parsedValue(field) != 0;
     }
 
     @Override
     public long getLong(int field) {
-        checkFieldType(field, BIGINT);
-        int start = record.getStart(field);
-        int len = record.getLength(field);
-        int scale = 1;
-        int rv = 0;
-        for (int i = start; i < start + len; i++) {
-            if (i == start && record.bytes[i] == '-') {
-                scale = -1;
-            } else {
-                rv = 10 * rv + record.bytes[i] - '0';
-            }
-        }
-        return scale * rv;
+        Type type = getType(field);
+        checkArgument(type.equals(TINYINT) || type.equals(SMALLINT) || type.equals(INTEGER) || type.equals(BIGINT) ||
+                type.equals(REAL) || type.equals(DATE) || type.equals(TIMESTAMP),
+                "Expected field %s to be a type read as a long but is %s", field, type);
+        return parsedValue(field);
     }
 
     @Override
     public double getDouble(int field) {
         checkFieldType(field, DOUBLE);
-        return Double.parseDouble(getFieldValue(field));
+        return Double.longBitsToDouble(parsedValue(field));
     }
 
     @Override
     public Slice getSlice(int field) {
         checkFieldType(field, createUnboundedVarcharType());
-        return Slices.utf8Slice(getFieldValue(field));
+        // a view of the row's bytes, which Presto copies before we move on
+        int column = fieldToColumnIndex[field];
+        if (record.containsQuotes[column]) {
+            // only fields with doubled quotes need copying, and only when they're read
+            byte[] unescaped = new byte[record.getLength(column)];
+            return Slices.wrappedBuffer(unescaped, 0, record.unescape(column, unescaped, 0));
+        }
+        return Slices.wrappedBuffer(record.bytes, record.getStart(column), record.getLength(column));
     }
 
     @Override
@@ -160,24 +261,12 @@ public class AspicRecordCursor
     public boolean isNull(int field) {
         checkArgument(field < columnHandles.size(), "Invalid field index");
 
-        int len = record.getLength(field);
-        if (len == 0)
+        int column = fieldToColumnIndex[field];
+        if (record.getLength(column) == 0)
             return true;
 
-        if (getType(field) == BigintType.BIGINT) {
-            int start = record.getStart(field);
-            for(int i = start; i < start + len; i++) {
-                if(i == start && record.bytes[i] == '-')
-                    continue;
-
-                if(record.bytes[i] >= '0'  && record.bytes[i] <= '9')
-                    continue;
-
-                return true;
-            }
-        }
-
-        return false;
+        // values that don't parse as the column's type are nulls, as when it's converted
+        return !getType(field).equals(createUnboundedVarcharType()) && !parse(field);
     }
 
     private void checkFieldType(int field, Type expected) {
@@ -187,12 +276,5 @@ public class AspicRecordCursor
 
     @Override
     public void close() {
-        try {
-            channel.close();
-            raf.close();
-        } catch (IOException ioe) {
-            throw new RuntimeException(ioe);
-        }
-
     }
 }
\ No newline at end of file
@@ -13,6 +13,8 @@
  */
 package com.cldellow.aspic.spi;
 
+import com.cldellow.aspic.core.AspicReader;
+import com.cldellow.aspic.core.ChunkCache;
 import com.facebook.presto.spi.RecordCursor;
 import com.facebook.presto.spi.RecordSet;
 import com.facebook.presto.spi.type.Type;
@@ -27,8 +29,10 @@ public class AspicRecordSet
     private final List<AspicColumnHandle> columnHandles;
     private final List<Type> columnTypes;
     private final AspicSplit split;
+    private final AspicReader reader;
+    private final ChunkCache cache;
 
-    public AspicRecordSet(AspicSplit split, List<AspicColumnHandle> columnHandles) {
+    public AspicRecordSet(AspicSplit split, AspicReader reader, List<AspicColumnHandle> columnHandles, ChunkCache cache) {
         requireNonNull(split, "split is null");
 
         this.columnHandles = requireNonNull(columnHandles, "column handles is null");
@@ -38,6 +42,8 @@ public class AspicRecordSet
         }
         this.columnTypes = types.build();
         this.split = split;
+        this.reader = reader;
+        this.cache = cache;
     }
 
     @Override
@@ -47,11 +53,22 @@ public class AspicRecordSet
 
     @Override
     public RecordCursor cursor() {
+        if (split.getRowGroup() >= 0) {
+            return new AspicRowGroupRecordCursor(
+                    columnHandles,
+                    reader,
+                    split.getRowGroup(),
+                    cache);
+        }
+
         return new AspicRecordCursor(
                 columnHandles,
                 split.getFile(),
                 split.getStart(),
-                split.getEnd()
+                split.getEnd(),
+                split.getFieldSeparator(),
+                split.getByteOrderMark(),
+                split.getCrlf()
         );
     }
 }
\ No newline at end of file
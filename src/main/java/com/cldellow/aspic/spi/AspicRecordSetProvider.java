@@ -13,6 +13,8 @@
  */
 package com.cldellow.aspic.spi;
 
+import com.cldellow.aspic.core.AspicReader;
+import com.cldellow.aspic.core.ChunkCache;
 import com.facebook.presto.spi.ColumnHandle;
 import com.facebook.presto.spi.ConnectorSession;
 import com.facebook.presto.spi.ConnectorSplit;
@@ -26,17 +28,22 @@ import javax.inject.Inject;
 import java.util.List;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 import static java.util.Objects.requireNonNull;
 
 public class AspicRecordSetProvider
         implements ConnectorRecordSetProvider
 {
     private final String connectorId;
+    private final AspicClient exampleClient;
+    private final ChunkCache cache;
 
     @Inject
-    public AspicRecordSetProvider(AspicConnectorId connectorId)
+    public AspicRecordSetProvider(AspicConnectorId connectorId, AspicClient exampleClient, ChunkCache cache)
     {
         this.connectorId = requireNonNull(connectorId, "connectorId is null").toString();
+        this.exampleClient = requireNonNull(exampleClient, "client is null");
+        this.cache = requireNonNull(cache, "cache is null");
     }
 
     @Override
@@ -51,6 +58,27 @@ public class AspicRecordSetProvider
             handles.add((AspicColumnHandle) handle);
         }
 
-        return new AspicRecordSet(exampleSplit, handles.build());
+        AspicReader reader = null;
+        if (exampleSplit.getRowGroup() >= 0)
+            reader = getReader(exampleSplit);
+
+        return new AspicRecordSet(exampleSplit, reader, handles.build(), cache);
+    }
+
+    /** The reader for a row group split, as long as it's still the file the split was planned against. */
+    AspicReader getReader(AspicSplit split)
+    {
+        AspicTable table = exampleClient.getTable(split.getSchemaName(), split.getTableName());
+        // this can happen if table is removed during a query
+        checkState(table != null, "Table %s.%s no longer exists", split.getSchemaName(), split.getTableName());
+
+        // a refresh may have replaced the file, or switched the table to raw CSV, since the split was planned
+        AspicReader reader = table.getReader();
+        checkState(reader != null &&
+                        reader.getFile().equals(split.getFile()) &&
+                        reader.getLastModified() == split.getLastModified() &&
+                        split.getRowGroup() < reader.getNumRowGroups(),
+                "Table %s.%s changed during query", split.getSchemaName(), split.getTableName());
+        return reader;
     }
 }
\ No newline at end of file
@@ -0,0 +1,137 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cldellow.aspic.spi;
+
+import com.cldellow.aspic.core.AspicReader;
+import com.cldellow.aspic.core.AspicRowGroup;
+import com.cldellow.aspic.core.ChunkCache;
+import com.facebook.presto.spi.RecordCursor;
+import com.facebook.presto.spi.type.Type;
+import io.airlift.slice.Slice;
+
+import java.util.List;
+
+import static com.facebook.presto.spi.type.BooleanType.BOOLEAN;
+import static com.facebook.presto.spi.type.RealType.REAL;
+import static com.facebook.presto.spi.type.VarcharType.createUnboundedVarcharType;
+import static com.google.common.base.Preconditions.checkArgument;
+
+/** Reads a single row group of a binary .aspic file. Only the columns that
+ *  were asked for are ever decoded. For raw CSVs, see {@link AspicRecordCursor}.
+ */
+public class AspicRowGroupRecordCursor
+        implements RecordCursor {
+    private final List<AspicColumnHandle> columnHandles;
+    private final int[] fieldToColumnIndex;
+    private final AspicRowGroup rowGroup;
+    private final long length;
+    private final int numRows;
+    private int row = -1;
+
+    public AspicRowGroupRecordCursor(List<AspicColumnHandle> columnHandles,
+                                     AspicReader reader,
+                                     int rowGroupIndex,
+                                     ChunkCache cache) {
+        this.columnHandles = columnHandles;
+
+        fieldToColumnIndex = new int[columnHandles.size()];
+        for (int i = 0; i < columnHandles.size(); i++) {
+            AspicColumnHandle columnHandle = columnHandles.get(i);
+            fieldToColumnIndex[i] = columnHandle.getOrdinalPosition();
+        }
+
+        length = reader.getRowGroupLength(rowGroupIndex);
+        rowGroup = new AspicRowGroup(reader, rowGroupIndex, cache);
+        numRows = rowGroup.getNumRows();
+    }
+
+    @Override
+    public long getCompletedBytes() {
+        if (row <= 0)
+            return 0;
+        if (row >= numRows)
+            return length;
+        return length * row / numRows;
+    }
+
+    @Override
+    public long getReadTimeNanos() {
+        return 0;
+    }
+
+    @Override
+    public Type getType(int field) {
+        checkArgument(field < columnHandles.size(), "Invalid field index");
+        return columnHandles.get(field).getColumnType();
+    }
+
+    @Override
+    public boolean advanceNextPosition() {
+        if (row + 1 >= numRows) {
+            row = numRows;
+            return false;
+        }
+
+        row++;
+        rowGroup.setRow(row);
+        return true;
+    }
+
+    @Override
+    public boolean getBoolean(int field) {
+        checkFieldType(field, BOOLEAN);
+        return rowGroup.getLong(fieldToColumnIndex[field]) != 0;
+    }
+
+    @Override
+    public long getLong(int field) {
+        // Presto represents REAL as the raw int bits of the float
+        if (getType(field).equals(REAL))
+            return Float.floatToRawIntBits(rowGroup.getFloat(fieldToColumnIndex[field]));
+
+        return rowGroup.getLong(fieldToColumnIndex[field]);
+    }
+
+    @Override
+    public double getDouble(int field) {
+        // aspic files never contain DOUBLE columns, REAL is read via getLong
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Slice getSlice(int field) {
+        checkFieldType(field, createUnboundedVarcharType());
+        return rowGroup.getSlice(fieldToColumnIndex[field]);
+    }
+
+    @Override
+    public Object getObject(int field) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isNull(int field) {
+        checkArgument(field < columnHandles.size(), "Invalid field index");
+        return rowGroup.isNull(fieldToColumnIndex[field]);
+    }
+
+    private void checkFieldType(int field, Type expected) {
+        Type actual = getType(field);
+        checkArgument(actual.equals(expected), "Expected field %s to be type %s but is %s", field, expected, actual);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -32,9 +32,43 @@ public class AspicSplit
     private final String file;
     private final long start;
     private final long end;
+    // -1 for raw CSV splits
+    private final int rowGroup;
+    // when the .aspic file was modified as of planning; 0 for raw CSV splits
+    private final long lastModified;
+    // how raw CSV splits are laid out
+    private final char fieldSeparator;
+    private final boolean byteOrderMark;
+    private final boolean crlf;
     private final boolean remotelyAccessible;
     private final List<HostAddress> addresses;
 
+    public AspicSplit(
+            String connectorId,
+            String schemaName,
+            String tableName,
+            String file,
+            long start,
+            long end,
+            int rowGroup,
+            long lastModified) {
+        this(connectorId, schemaName, tableName, file, start, end, rowGroup, lastModified, ',', false, false);
+    }
+
+    public AspicSplit(
+            String connectorId,
+            String schemaName,
+            String tableName,
+            String file,
+            long start,
+            long end,
+            int rowGroup,
+            char fieldSeparator,
+            boolean byteOrderMark,
+            boolean crlf) {
+        this(connectorId, schemaName, tableName, file, start, end, rowGroup, 0, fieldSeparator, byteOrderMark, crlf);
+    }
+
     @JsonCreator
     public AspicSplit(
             @JsonProperty("connectorId") String connectorId,
@@ -42,13 +76,23 @@ public class AspicSplit
             @JsonProperty("tableName") String tableName,
             @JsonProperty("file") String file,
             @JsonProperty("start") long start,
-            @JsonProperty("end") long end) {
+            @JsonProperty("end") long end,
+            @JsonProperty("rowGroup") int rowGroup,
+            @JsonProperty("lastModified") long lastModified,
+            @JsonProperty("fieldSeparator") char fieldSeparator,
+            @JsonProperty("byteOrderMark") boolean byteOrderMark,
+            @JsonProperty("crlf") boolean crlf) {
         this.schemaName = requireNonNull(schemaName, "schema name is null");
         this.connectorId = requireNonNull(connectorId, "connector id is null");
         this.tableName = requireNonNull(tableName, "table name is null");
         this.file = requireNonNull(file, "file is null");
         this.start = start;
         this.end = end;
+        this.rowGroup = rowGroup;
+        this.lastModified = lastModified;
+        this.fieldSeparator = fieldSeparator;
+        this.byteOrderMark = byteOrderMark;
+        this.crlf = crlf;
 
 //        if ("http".equalsIgnoreCase(uri.getScheme()) || "https".equalsIgnoreCase(uri.getScheme())) {
         remotelyAccessible = true;
@@ -82,6 +126,21 @@ public class AspicSplit
     @JsonProperty
     public long getEnd() { return end; }
 
+    @JsonProperty
+    public int getRowGroup() { return rowGroup; }
+
+    @JsonProperty
+    public long getLastModified() { return lastModified; }
+
+    @JsonProperty
+    public char getFieldSeparator() { return fieldSeparator; }
+
+    @JsonProperty
+    public boolean getByteOrderMark() { return byteOrderMark; }
+
+    @JsonProperty
+    public boolean getCrlf() { return crlf; }
+
     @Override
     public boolean isRemotelyAccessible() {
         // only http or https is remotely accessible
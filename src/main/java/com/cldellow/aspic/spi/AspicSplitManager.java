@@ -13,6 +13,9 @@
  */
 package com.cldellow.aspic.spi;
 
+import com.cldellow.aspic.core.AspicReader;
+import com.cldellow.aspic.core.CsvIndexReader;
+import com.cldellow.aspic.core.CsvSchema;
 import com.facebook.presto.spi.*;
 import com.facebook.presto.spi.connector.ConnectorSplitManager;
 import com.facebook.presto.spi.connector.ConnectorTransactionHandle;
@@ -46,23 +49,54 @@ public class AspicSplitManager
 
         List<ConnectorSplit> splits = new ArrayList<>();
 
-        for (int i = 0; i < table.getRowGroupOffsets().size(); i++) {
-            long start = table.getRowGroupOffsets().get(i);
+        AspicReader reader = table.getReader();
+        if (reader != null) {
+            // one split per row group, skipping any whose stats or bloom filters rule out the constraint
+            for (int i = 0; i < reader.getNumRowGroups(); i++) {
+                if (!AspicStatsPredicate.matches(layoutHandle.getConstraint(), reader.getRowGroupStats(i)) ||
+                        !AspicStatsPredicate.matchesBloomFilters(layoutHandle.getConstraint(), reader, i))
+                    continue;
 
-            long end = start;
+                long start = reader.getRowGroupOffset(i);
+                splits.add(new AspicSplit(
+                        connectorId,
+                        tableHandle.getSchemaName(),
+                        tableHandle.getTableName(),
+                        table.getFile(),
+                        start,
+                        start + reader.getRowGroupLength(i),
+                        i,
+                        reader.getLastModified()));
+            }
+        } else {
+            CsvSchema schema = table.getSchema();
+            CsvIndexReader index = table.getIndex();
+            for (int i = 0; i < table.getRowGroupOffsets().size(); i++) {
+                // an index's chunks line up with the offsets
+                if (index != null && !AspicStatsPredicate.matches(layoutHandle.getConstraint(), index.getChunkStats(i)))
+                    continue;
+
+                long start = table.getRowGroupOffsets().get(i);
+
+                long end = start;
 
-            if (i != table.getRowGroupOffsets().size() - 1) {
-                end = table.getRowGroupOffsets().get(i+1);
-            } else {
-                end = table.getLength();
+                if (i != table.getRowGroupOffsets().size() - 1) {
+                    end = table.getRowGroupOffsets().get(i+1);
+                } else {
+                    end = table.getLength();
+                }
+                splits.add(new AspicSplit(
+                        connectorId,
+                        tableHandle.getSchemaName(),
+                        tableHandle.getTableName(),
+                        table.getFile(),
+                        start,
+                        end,
+                        -1,
+                        schema.getFieldSeparator(),
+                        schema.getByteOrderMark(),
+                        schema.getCrlf()));
             }
-            splits.add(new AspicSplit(
-                    connectorId,
-                    tableHandle.getSchemaName(),
-                    tableHandle.getTableName(),
-                    table.getFile(),
-                    start,
-                    end));
         }
         Collections.shuffle(splits);
 
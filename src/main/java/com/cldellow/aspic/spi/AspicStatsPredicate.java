@@ -0,0 +1,152 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cldellow.aspic.spi;
+
+import com.cldellow.aspic.core.AspicReader;
+import com.cldellow.aspic.core.BloomFilter;
+import com.cldellow.aspic.core.Stats;
+import com.facebook.presto.spi.ColumnHandle;
+import com.facebook.presto.spi.predicate.Domain;
+import com.facebook.presto.spi.predicate.Range;
+import com.facebook.presto.spi.predicate.TupleDomain;
+import com.facebook.presto.spi.predicate.ValueSet;
+import com.facebook.presto.spi.type.Type;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+
+import java.util.List;
+import java.util.Map;
+
+import static com.facebook.presto.spi.type.BigintType.BIGINT;
+import static com.facebook.presto.spi.type.BooleanType.BOOLEAN;
+import static com.facebook.presto.spi.type.IntegerType.INTEGER;
+import static com.facebook.presto.spi.type.RealType.REAL;
+import static com.facebook.presto.spi.type.SmallintType.SMALLINT;
+import static com.facebook.presto.spi.type.TinyintType.TINYINT;
+import static com.facebook.presto.spi.type.VarcharType.VARCHAR;
+
+/** Decides from the min/max/null stats of a row group whether it could
+ *  contain any rows matching a predicate.
+ */
+public class AspicStatsPredicate
+{
+    // Bigger IN lists are likely to hit every row group's filter anyway.
+    private static final int MAX_BLOOM_FILTER_VALUES = 64;
+
+    private AspicStatsPredicate()
+    {
+    }
+
+    /** Returns false only if no row described by stats can satisfy constraint. */
+    public static boolean matches(TupleDomain<ColumnHandle> constraint, Stats stats)
+    {
+        if (constraint.isNone())
+            return false;
+
+        for (Map.Entry<ColumnHandle, Domain> entry : constraint.getDomains().get().entrySet()) {
+            AspicColumnHandle column = (AspicColumnHandle) entry.getKey();
+            Domain statsDomain = statsDomain(column.getColumnType(), column.getOrdinalPosition(), stats);
+            if (!entry.getValue().overlaps(statsDomain))
+                return false;
+        }
+
+        return true;
+    }
+
+    /** Returns false only if, for some column constrained to a few values,
+     *  the row group's bloom filter has none of them. Call it after matches,
+     *  which is cheaper. */
+    public static boolean matchesBloomFilters(TupleDomain<ColumnHandle> constraint, AspicReader reader, int rowGroup)
+    {
+        if (constraint.isNone())
+            return false;
+
+        for (Map.Entry<ColumnHandle, Domain> entry : constraint.getDomains().get().entrySet()) {
+            final Domain domain = entry.getValue();
+            if (domain.isNullAllowed() || !domain.getValues().isDiscreteSet())
+                continue;
+            final List<Object> values = domain.getValues().getDiscreteSet();
+            if (values.size() > MAX_BLOOM_FILTER_VALUES)
+                continue;
+
+            AspicColumnHandle column = (AspicColumnHandle) entry.getKey();
+            final Type type = column.getColumnType();
+            if (!type.equals(VARCHAR) && !isInteger(type))
+                continue;
+            BloomFilter filter = reader.getBloomFilter(rowGroup, column.getOrdinalPosition());
+            if (filter == null)
+                continue;
+
+            boolean found = false;
+            for (Object value : values) {
+                if (value instanceof Slice ? filter.mightContain((Slice) value) : filter.mightContain((Long) value)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found)
+                return false;
+        }
+
+        return true;
+    }
+
+    private static boolean isInteger(Type type)
+    {
+        return type.equals(TINYINT) || type.equals(SMALLINT) || type.equals(INTEGER) || type.equals(BIGINT);
+    }
+
+    private static Domain statsDomain(Type type, int col, Stats stats)
+    {
+        final int nulls = stats.getNulls(col);
+        if (nulls == stats.getRows())
+            return Domain.onlyNull(type);
+
+        final boolean hasNulls = nulls > 0;
+        if (type.equals(VARCHAR)) {
+            return range(type,
+                    Slices.utf8Slice(stats.getMinString(col)),
+                    Slices.utf8Slice(stats.getMaxString(col)),
+                    hasNulls);
+        }
+
+        if (type.equals(REAL)) {
+            final float min = stats.getMinFloat(col);
+            final float max = stats.getMaxFloat(col);
+            // only possible if a row failed to parse without being counted as a null
+            if (!(min <= max))
+                return Domain.all(type);
+            // Presto represents REAL as the raw int bits of the float
+            return range(type,
+                    (long) Float.floatToRawIntBits(min),
+                    (long) Float.floatToRawIntBits(max),
+                    hasNulls);
+        }
+
+        final long min = stats.getMinLong(col);
+        final long max = stats.getMaxLong(col);
+        if (min > max)
+            return Domain.all(type);
+
+        if (type.equals(BOOLEAN))
+            return range(type, min != 0, max != 0, hasNulls);
+
+        return range(type, min, max, hasNulls);
+    }
+
+    private static Domain range(Type type, Object min, Object max, boolean hasNulls)
+    {
+        return Domain.create(ValueSet.ofRanges(Range.range(type, min, true, max, true)), hasNulls);
+    }
+}
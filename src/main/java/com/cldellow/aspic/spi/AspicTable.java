@@ -13,6 +13,9 @@
  */
 package com.cldellow.aspic.spi;
 
+import com.cldellow.aspic.core.AspicReader;
+import com.cldellow.aspic.core.CsvIndexReader;
+import com.cldellow.aspic.core.CsvSchema;
 import com.cldellow.aspic.core.Field;
 import com.facebook.presto.spi.ColumnMetadata;
 import com.google.common.collect.ImmutableList;
@@ -29,12 +32,43 @@ public class AspicTable {
     private final List<ColumnMetadata> columnsMetadata;
     private final String file;
     private final List<Long> rowGroupOffsets;
+    // null for raw CSV tables
+    private final AspicReader reader;
+    // null for .aspic tables
+    private final CsvSchema schema;
+    // null unless the raw CSV file has been indexed
+    private final CsvIndexReader index;
 
     public AspicTable(
             String name,
             List<Field> fields,
             String file,
             List<Long> rowGroupOffsets) {
+        this(name, fields, file, rowGroupOffsets, null, null, null);
+    }
+
+    /** A raw CSV table; if it has an index, rowGroupOffsets are its chunks' offsets. */
+    public AspicTable(
+            String name,
+            CsvSchema schema,
+            String file,
+            List<Long> rowGroupOffsets,
+            CsvIndexReader index) {
+        this(name, schema.getFields(), file, rowGroupOffsets, null, schema, index);
+    }
+
+    public AspicTable(String name, AspicReader reader) {
+        this(name, reader.getFields(), reader.getFile(), rowGroupOffsets(reader), reader, null, null);
+    }
+
+    private AspicTable(
+            String name,
+            List<Field> fields,
+            String file,
+            List<Long> rowGroupOffsets,
+            AspicReader reader,
+            CsvSchema schema,
+            CsvIndexReader index) {
         checkArgument(!isNullOrEmpty(name), "name is null or is empty");
         this.name = requireNonNull(name, "name is null");
         this.file = requireNonNull(file, "file is null");
@@ -44,6 +78,16 @@ public class AspicTable {
         }
         this.columnsMetadata = columnsMetadata.build();
         this.rowGroupOffsets = rowGroupOffsets;
+        this.reader = reader;
+        this.schema = schema;
+        this.index = index;
+    }
+
+    private static List<Long> rowGroupOffsets(AspicReader reader) {
+        ImmutableList.Builder<Long> offsets = ImmutableList.builder();
+        for (int i = 0; i < reader.getNumRowGroups(); i++)
+            offsets.add(reader.getRowGroupOffset(i));
+        return offsets.build();
     }
 
     public long getLength() {
@@ -61,6 +105,15 @@ public class AspicTable {
 
     public List<Long> getRowGroupOffsets() { return rowGroupOffsets; }
 
+    /** The binary .aspic file backing this table, or null if it's served from raw CSV. */
+    public AspicReader getReader() { return reader; }
+
+    /** How the raw CSV file backing this table is laid out, or null if it has a reader. */
+    public CsvSchema getSchema() { return schema; }
+
+    /** The raw CSV file's index, or null if it hasn't been indexed. */
+    public CsvIndexReader getIndex() { return index; }
+
     public List<ColumnMetadata> getColumnsMetadata() {
         return columnsMetadata;
     }
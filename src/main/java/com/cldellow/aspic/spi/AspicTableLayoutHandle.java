@@ -13,21 +13,29 @@
  */
 package com.cldellow.aspic.spi;
 
+import com.facebook.presto.spi.ColumnHandle;
 import com.facebook.presto.spi.ConnectorTableLayoutHandle;
+import com.facebook.presto.spi.predicate.TupleDomain;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.util.Objects;
 
+import static java.util.Objects.requireNonNull;
+
 public class AspicTableLayoutHandle
         implements ConnectorTableLayoutHandle
 {
     private final AspicTableHandle table;
+    private final TupleDomain<ColumnHandle> constraint;
 
     @JsonCreator
-    public AspicTableLayoutHandle(@JsonProperty("table") AspicTableHandle table)
+    public AspicTableLayoutHandle(
+            @JsonProperty("table") AspicTableHandle table,
+            @JsonProperty("constraint") TupleDomain<ColumnHandle> constraint)
     {
         this.table = table;
+        this.constraint = requireNonNull(constraint, "constraint is null");
     }
 
     @JsonProperty
@@ -36,6 +44,13 @@ public class AspicTableLayoutHandle
         return table;
     }
 
+    /** Used to skip row groups whose stats can't match. */
+    @JsonProperty
+    public TupleDomain<ColumnHandle> getConstraint()
+    {
+        return constraint;
+    }
+
     @Override
     public boolean equals(Object o)
     {
@@ -46,13 +61,14 @@ public class AspicTableLayoutHandle
             return false;
         }
         AspicTableLayoutHandle that = (AspicTableLayoutHandle) o;
-        return Objects.equals(table, that.table);
+        return Objects.equals(table, that.table) &&
+                Objects.equals(constraint, that.constraint);
     }
 
     @Override
     public int hashCode()
     {
-        return Objects.hash(table);
+        return Objects.hash(table, constraint);
     }
 
     @Override
@@ -0,0 +1,156 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.cldellow.aspic.spi;
+
+import com.cldellow.aspic.core.AspicReader;
+import com.cldellow.aspic.core.CsvIndexReader;
+import com.cldellow.aspic.core.Stats;
+import com.facebook.presto.spi.ColumnHandle;
+import com.facebook.presto.spi.predicate.TupleDomain;
+import com.facebook.presto.spi.statistics.ColumnStatistics;
+import com.facebook.presto.spi.statistics.Estimate;
+import com.facebook.presto.spi.statistics.RangeColumnStatistics;
+import com.facebook.presto.spi.statistics.TableStatistics;
+import com.facebook.presto.spi.type.Type;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import static com.facebook.presto.spi.type.BigintType.BIGINT;
+import static com.facebook.presto.spi.type.DateType.DATE;
+import static com.facebook.presto.spi.type.IntegerType.INTEGER;
+import static com.facebook.presto.spi.type.RealType.REAL;
+import static com.facebook.presto.spi.type.SmallintType.SMALLINT;
+import static com.facebook.presto.spi.type.TimestampType.TIMESTAMP;
+import static com.facebook.presto.spi.type.TinyintType.TINYINT;
+
+/** Estimates for Presto's cost-based optimizer, added up from the stats of
+ *  the row groups in an .aspic file's footer, or of the chunks in a raw CSV
+ *  file's index. Row groups the constraint rules out aren't counted.
+ *
+ *  Distinct counts come from the whole file's HyperLogLogs, which can't be
+ *  split by row group, so they're capped at the rows that are counted. A raw
+ *  CSV file has no file-wide HyperLogLogs, and without an index only its
+ *  estimated row count is known.
+ */
+public class AspicTableStatistics
+{
+    private AspicTableStatistics()
+    {
+    }
+
+    public static TableStatistics of(AspicTable table, Collection<ColumnHandle> columns, TupleDomain<ColumnHandle> constraint)
+    {
+        final AspicReader reader = table.getReader();
+        final CsvIndexReader index = table.getIndex();
+        final List<Stats> stats = new ArrayList<>();
+        final Stats docStats;
+        if (reader != null) {
+            for (int i = 0; i < reader.getNumRowGroups(); i++)
+                stats.add(reader.getRowGroupStats(i));
+            docStats = reader.getDocStats();
+        }
+        else if (index != null) {
+            for (int i = 0; i < index.getNumChunks(); i++)
+                stats.add(index.getChunkStats(i));
+            docStats = null;
+        }
+        else {
+            return TableStatistics.builder()
+                    .setRowCount(new Estimate(table.getSchema().getRows()))
+                    .build();
+        }
+        stats.removeIf(s -> !AspicStatsPredicate.matches(constraint, s));
+
+        long rows = 0;
+        for (Stats s : stats)
+            rows += s.getRows();
+
+        TableStatistics.Builder builder = TableStatistics.builder().setRowCount(new Estimate(rows));
+        if (rows == 0)
+            return builder.build();
+
+        for (ColumnHandle handle : columns) {
+            AspicColumnHandle column = (AspicColumnHandle) handle;
+            builder.setColumnStatistics(handle, columnStatistics(column.getColumnType(), column.getOrdinalPosition(), stats, rows, docStats));
+        }
+        return builder.build();
+    }
+
+    private static ColumnStatistics columnStatistics(Type type, int col, List<Stats> stats, long rows, Stats docStats)
+    {
+        long nulls = 0;
+        for (Stats s : stats)
+            nulls += s.getNulls(col);
+        final long values = rows - nulls;
+
+        RangeColumnStatistics.Builder range = RangeColumnStatistics.builder()
+                .setFraction(new Estimate((double) values / rows));
+        if (docStats != null)
+            range.setDistinctValuesCount(new Estimate(Math.min(docStats.getUnique(col), values)));
+        if (values > 0 && isOrdered(type)) {
+            Optional<Object[]> lowHigh = type.equals(REAL) ? floatRange(col, stats) : longRange(col, stats);
+            if (lowHigh.isPresent()) {
+                range.setLowValue(Optional.of(lowHigh.get()[0]));
+                range.setHighValue(Optional.of(lowHigh.get()[1]));
+            }
+        }
+
+        return ColumnStatistics.builder()
+                .setNullsFraction(new Estimate((double) nulls / rows))
+                .addRange(range.build())
+                .build();
+    }
+
+    /** Types whose min and max are stored as numbers. */
+    private static boolean isOrdered(Type type)
+    {
+        return type.equals(TINYINT) || type.equals(SMALLINT) || type.equals(INTEGER) || type.equals(BIGINT) ||
+                type.equals(REAL) || type.equals(DATE) || type.equals(TIMESTAMP);
+    }
+
+    /** Empty if a row group has values but no min or max, e.g. because they didn't parse. */
+    private static Optional<Object[]> longRange(int col, List<Stats> stats)
+    {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (Stats s : stats) {
+            if (s.getNulls(col) == s.getRows())
+                continue;
+            if (s.getMinLong(col) > s.getMaxLong(col))
+                return Optional.empty();
+            min = Math.min(min, s.getMinLong(col));
+            max = Math.max(max, s.getMaxLong(col));
+        }
+        return Optional.of(new Object[]{min, max});
+    }
+
+    private static Optional<Object[]> floatRange(int col, List<Stats> stats)
+    {
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for (Stats s : stats) {
+            if (s.getNulls(col) == s.getRows())
+                continue;
+            if (!(s.getMinFloat(col) <= s.getMaxFloat(col)))
+                return Optional.empty();
+            min = Math.min(min, s.getMinFloat(col));
+            max = Math.max(max, s.getMaxFloat(col));
+        }
+        // Presto represents REAL as the raw int bits of the float
+        return Optional.of(new Object[]{(long) Float.floatToRawIntBits(min), (long) Float.floatToRawIntBits(max)});
+    }
+}
@@ -0,0 +1,118 @@
+package com.cldellow.aspic.core;
+
+import com.facebook.presto.spi.type.VarcharType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class AspicRowGroupTest {
+    File f;
+
+    @Before
+    public void setUp() throws IOException {
+        f = File.createTempFile("aspic-row-group", ".aspic");
+    }
+
+    @After
+    public void tearDown() {
+        f.delete();
+    }
+
+    public String path(String p) {
+        String rv = getClass().getResource(p).toString();
+        if (rv.startsWith("file:"))
+            rv = rv.substring("file:".length());
+        return rv;
+    }
+
+    private AspicRowGroup write(CsvSchema schema, String csv, int rowGroupSize, int rowGroup) throws IOException {
+        new AspicWriter(path(csv), schema, rowGroupSize, f.getAbsolutePath());
+        AspicReader r = new AspicReader(f.getAbsolutePath());
+        return new AspicRowGroup(
+                r.getFile(),
+                r.getEnumValues(),
+                r.getTypes(),
+                r.getRowGroupOffset(rowGroup),
+                r.getRowGroupLength(rowGroup));
+    }
+
+    @Test
+    public void nulls() throws IOException {
+        CsvSchema schema = new CsvSchemaInferer(path("/nulls-1.csv")).schema;
+        AspicRowGroup arg = write(schema, "/nulls-1.csv", 100, 0);
+
+        assertEquals(2, arg.getNumRows());
+        arg.setRow(0);
+        for (int i = 0; i < 9; i++)
+            assertTrue("column " + i, arg.isNull(i));
+
+        arg.setRow(1);
+        for (int i = 0; i < 9; i++)
+            assertFalse("column " + i, arg.isNull(i));
+        assertEquals(123, arg.getLong(0));
+        assertEquals(456.789f, arg.getFloat(1), 0.0001);
+        assertEquals("str1", arg.getString(2));
+        assertEquals(17167, arg.getLong(3));
+        assertEquals(1, arg.getLong(4));
+        assertEquals(1519352304000L, arg.getLong(5));
+        assertEquals(17179869184L, arg.getLong(6));
+        assertEquals(20000, arg.getLong(7));
+        assertEquals(40000, arg.getLong(8));
+    }
+
+    @Test
+    public void columnsAfterVarchar() throws IOException {
+        CsvSchema schema = new CsvSchemaInferer(path("/nulls-2.csv")).schema
+                .withFieldType(2, VarcharType.VARCHAR);
+        AspicRowGroup arg = write(schema, "/nulls-2.csv", 1, 0);
+
+        assertEquals(1, arg.getNumRows());
+        arg.setRow(0);
+        // read out of order to make sure offsets don't depend on access order
+        assertEquals(40000, arg.getLong(8));
+        assertEquals("str1", arg.getString(2));
+        assertEquals(123, arg.getLong(0));
+        assertEquals(17179869184L, arg.getLong(6));
+    }
+
+    @Test
+    public void decompressesColumnsLazily() throws IOException {
+        CsvSchema schema = new CsvSchemaInferer(path("/nulls-1.csv")).schema;
+        AspicRowGroup arg = write(schema, "/nulls-1.csv", 100, 0);
+
+        assertEquals(0, arg.getRetainedSize());
+        assertEquals(123, arg.getLong(0, 1));
+        long oneColumn = arg.getRetainedSize();
+        assertTrue(oneColumn > 0);
+
+        // reading the same column again doesn't decompress anything else
+        assertTrue(arg.isNull(0, 0));
+        assertEquals(oneColumn, arg.getRetainedSize());
+
+        assertEquals("str1", arg.getString(2, 1));
+        assertTrue(arg.getRetainedSize() > oneColumn);
+    }
+
+    @Test
+    public void slicesMatchStrings() throws IOException {
+        String csv = path("/varchars.csv");
+        CsvSchema schema = new CsvSchemaInferer(csv).schema;
+        new AspicWriter(csv, schema, 100, f.getAbsolutePath());
+        AspicReader r = new AspicReader(f.getAbsolutePath());
+        AspicRowGroup arg = new AspicRowGroup(r, 0, null);
+
+        for (int col = 0; col < r.getTypes().length; col++) {
+            for (int row = 0; row < arg.getNumRows(); row++) {
+                assertEquals(arg.getString(col, row), arg.getSlice(col, row).toStringUtf8());
+                // enums share one slice per value rather than making new ones
+                if (r.getEnumValues()[col] != null)
+                    assertSame(r.getEnumSlices(col)[arg.getEnumId(col, row)], arg.getSlice(col, row));
+            }
+        }
+    }
+}
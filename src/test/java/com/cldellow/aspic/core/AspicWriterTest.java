@@ -1,14 +1,378 @@
 package com.cldellow.aspic.core;
 
+import com.facebook.presto.spi.type.BigintType;
+import com.facebook.presto.spi.type.BooleanType;
+import com.facebook.presto.spi.type.DateType;
 import com.facebook.presto.spi.type.IntegerType;
 import com.facebook.presto.spi.type.RealType;
+import com.facebook.presto.spi.type.SmallintType;
+import com.facebook.presto.spi.type.TinyintType;
+import com.facebook.presto.spi.type.Type;
+import com.facebook.presto.spi.type.VarcharType;
+import com.google.common.collect.ImmutableList;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class AspicWriterTest {
+    public String path(String p) {
+        String rv = getClass().getResource(p).toString();
+        if (rv.startsWith("file:"))
+            rv = rv.substring("file:".length());
+        return rv;
+    }
+
+    @Test
+    public void threadsDontChangeOutput() throws IOException {
+        String csvFile = path("/varchars.csv");
+        CsvSchema schema = new CsvSchemaInferer(csvFile).schema;
+        File serial = File.createTempFile("aspic-serial", ".aspic");
+        File parallel = File.createTempFile("aspic-parallel", ".aspic");
+        try {
+            // one row per row group, so several are in flight at once
+            new AspicWriter(csvFile, schema, 1, serial.getAbsolutePath(), 1);
+            new AspicWriter(csvFile, schema, 1, parallel.getAbsolutePath(), 4);
+            assertArrayEquals(Files.readAllBytes(serial.toPath()), Files.readAllBytes(parallel.toPath()));
+        } finally {
+            serial.delete();
+            parallel.delete();
+        }
+    }
+
+    @Test
+    public void quotedFields() throws IOException {
+        File csv = File.createTempFile("aspic-quoted", ".csv");
+        File aspic = File.createTempFile("aspic-quoted", ".aspic");
+        try {
+            try (FileOutputStream fos = new FileOutputStream(csv)) {
+                fos.write("id;name;colour\r\n1;\"a;b\";red\r\n\"2\";\"say \"\"hi\"\"\";\"blue\"\r\n;;\r\n".getBytes(Charset.forName("UTF-8")));
+            }
+            CsvSchema schema = new CsvSchema(
+                    false,
+                    ImmutableList.of(
+                            new Field("id", BigintType.BIGINT),
+                            new Field("name", VarcharType.VARCHAR),
+                            new Field("colour", VarcharType.VARCHAR)),
+                    ';',
+                    3,
+                    new String[][]{null, null, {"blue", "red"}});
+            new AspicWriter(csv.getAbsolutePath(), schema, 2, aspic.getAbsolutePath(), 1);
+
+            AspicReader r = new AspicReader(aspic.getAbsolutePath());
+            AspicRowGroup first = new AspicRowGroup(r.getFile(), r.getEnumValues(), r.getTypes(), r.getRowGroupOffset(0), r.getRowGroupLength(0));
+            assertEquals(1, first.getLong(0, 0));
+            assertEquals("a;b", first.getString(1, 0));
+            assertEquals("red", first.getString(2, 0));
+            assertEquals(2, first.getLong(0, 1));
+            assertEquals("say \"hi\"", first.getString(1, 1));
+            assertEquals("blue", first.getString(2, 1));
+
+            AspicRowGroup second = new AspicRowGroup(r.getFile(), r.getEnumValues(), r.getTypes(), r.getRowGroupOffset(1), r.getRowGroupLength(1));
+            for (int col = 0; col < 3; col++)
+                assertTrue(second.isNull(col, 0));
+        } finally {
+            csv.delete();
+            aspic.delete();
+        }
+    }
+
+    @Test
+    public void picksSmallestEncoding() throws IOException {
+        File csv = File.createTempFile("aspic-encodings", ".csv");
+        File aspic = File.createTempFile("aspic-encodings", ".aspic");
+        try {
+            StringBuilder sb = new StringBuilder("id,status,offset,noise,when\n");
+            Random random = new Random(0);
+            long[] noise = new long[1000];
+            for (int i = 0; i < 1000; i++) {
+                noise[i] = random.nextLong();
+                sb.append(1000000 + i * 3).append(',')
+                        .append(i < 600 ? 1 : 2).append(',')
+                        .append(i % 3 == 0 ? "" : String.valueOf(5000 + random.nextInt(1000))).append(',')
+                        .append(noise[i]).append(',')
+                        .append(i % 7 == 0 ? "" : String.valueOf(1519352304000L + i * 1000)).append('\n');
+            }
+            try (FileOutputStream fos = new FileOutputStream(csv)) {
+                fos.write(sb.toString().getBytes(Charset.forName("UTF-8")));
+            }
+            CsvSchema schema = new CsvSchema(
+                    false,
+                    ImmutableList.of(
+                            new Field("id", BigintType.BIGINT),
+                            new Field("status", IntegerType.INTEGER),
+                            new Field("offset", IntegerType.INTEGER),
+                            new Field("noise", BigintType.BIGINT),
+                            new Field("when", BigintType.BIGINT)),
+                    ',',
+                    1000,
+                    new String[5][]);
+            new AspicWriter(csv.getAbsolutePath(), schema, 1000, aspic.getAbsolutePath(), 1);
+
+            AspicReader r = new AspicReader(aspic.getAbsolutePath());
+            AspicRowGroup rg = new AspicRowGroup(r, 0, null);
+            assertEquals(Encoding.DELTA, rg.getEncoding(0));
+            assertEquals(Encoding.RUN_LENGTH, rg.getEncoding(1));
+            assertEquals(Encoding.FRAME_OF_REFERENCE, rg.getEncoding(2));
+            assertEquals(Encoding.PLAIN, rg.getEncoding(3));
+            assertEquals(Encoding.DELTA, rg.getEncoding(4));
+
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(1000000 + i * 3, rg.getLong(0, i));
+                assertEquals(i < 600 ? 1 : 2, rg.getLong(1, i));
+                assertEquals(i % 3 == 0, rg.isNull(2, i));
+                if (i % 3 != 0)
+                    assertTrue(rg.getLong(2, i) >= 5000 && rg.getLong(2, i) < 6000);
+                assertEquals(noise[i], rg.getLong(3, i));
+                assertEquals(i % 7 == 0, rg.isNull(4, i));
+                if (i % 7 != 0)
+                    assertEquals(1519352304000L + i * 1000, rg.getLong(4, i));
+            }
+        } finally {
+            csv.delete();
+            aspic.delete();
+        }
+    }
+
+    @Test
+    public void codecsPerColumn() throws IOException {
+        File csv = File.createTempFile("aspic-codecs", ".csv");
+        File aspic = File.createTempFile("aspic-codecs", ".aspic");
+        try {
+            StringBuilder sb = new StringBuilder("a,b,c,d,e,f\n");
+            for (int i = 0; i < 500; i++)
+                for (int col = 0; col < 6; col++)
+                    sb.append(i * (col + 1)).append(col == 5 ? '\n' : ',');
+            try (FileOutputStream fos = new FileOutputStream(csv)) {
+                fos.write(sb.toString().getBytes(Charset.forName("UTF-8")));
+            }
+            CsvSchema schema = new CsvSchemaInferer(csv.getAbsolutePath()).schema;
+            Codec[] codecs = {Codec.NONE, Codec.LZ4, Codec.LZ4_HC, Codec.ZSTD, Codec.SNAPPY, Codec.AUTO};
+            new AspicWriter(csv.getAbsolutePath(), schema, 100, aspic.getAbsolutePath(), 2, codecs);
+
+            AspicReader r = new AspicReader(aspic.getAbsolutePath());
+            Codec chosen = null;
+            for (int rowGroup = 0; rowGroup < 5; rowGroup++) {
+                AspicRowGroup rg = new AspicRowGroup(r, rowGroup, null);
+                for (int col = 0; col < 5; col++)
+                    assertEquals(codecs[col], rg.getCodec(col));
+                // AUTO picks once, then sticks with it
+                if (chosen == null)
+                    chosen = rg.getCodec(5);
+                assertEquals(chosen, rg.getCodec(5));
+                for (int col = 0; col < 6; col++)
+                    for (int row = 0; row < 100; row++)
+                        assertEquals((rowGroup * 100 + row) * (col + 1), rg.getLong(col, row));
+            }
+            assertTrue(chosen != Codec.AUTO);
+        } finally {
+            csv.delete();
+            aspic.delete();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void oneCodecPerColumn() throws IOException {
+        String csvFile = path("/varchars.csv");
+        CsvSchema schema = new CsvSchemaInferer(csvFile).schema;
+        new AspicWriter(csvFile, schema, 100, "/dev/null", 1, new Codec[]{Codec.NONE});
+    }
+
+    @Test
+    public void widensSampledTypes() throws IOException {
+        File csv = File.createTempFile("aspic-widen", ".csv");
+        File aspic = File.createTempFile("aspic-widen", ".aspic");
+        try {
+            StringBuilder sb = new StringBuilder("small,code\n");
+            for (int i = 0; i < 300; i++)
+                sb.append(i < 200 ? i % 100 : i * 1000).append(',').append(i == 50 ? "n/a" : String.valueOf(i % 10)).append('\n');
+            try (FileOutputStream fos = new FileOutputStream(csv)) {
+                fos.write(sb.toString().getBytes(Charset.forName("UTF-8")));
+            }
+            // as if the sample only saw the first 200 rows
+            CsvSchema schema = new CsvSchema(
+                    false,
+                    ImmutableList.of(new Field("small", TinyintType.TINYINT), new Field("code", TinyintType.TINYINT)),
+                    ',',
+                    200,
+                    new String[2][],
+                    true);
+            new AspicWriter(csv.getAbsolutePath(), schema, 100, aspic.getAbsolutePath(), 2);
+
+            AspicReader r = new AspicReader(aspic.getAbsolutePath());
+            assertEquals(IntegerType.INTEGER, r.getTypes()[0]);
+            assertEquals(VarcharType.VARCHAR, r.getTypes()[1]);
+            for (int rowGroup = 0; rowGroup < 3; rowGroup++) {
+                AspicRowGroup rg = new AspicRowGroup(r, rowGroup, null);
+                // row groups written before the column was widened keep their type
+                assertEquals(rowGroup < 2 ? TinyintType.TINYINT : IntegerType.INTEGER, rg.getChunkType(0));
+                for (int row = 0; row < 100; row++) {
+                    final int i = rowGroup * 100 + row;
+                    assertEquals(i < 200 ? i % 100 : i * 1000, rg.getLong(0, row));
+                    assertEquals(i == 50 ? "n/a" : String.valueOf(i % 10), rg.getString(1, row));
+                }
+            }
+        } finally {
+            csv.delete();
+            aspic.delete();
+        }
+    }
+
+    @Test
+    public void switchesToVarcharInPlace() throws IOException {
+        File csv = File.createTempFile("aspic-in-place", ".csv");
+        File aspic = File.createTempFile("aspic-in-place", ".aspic");
+        try {
+            StringBuilder sb = new StringBuilder("code,day\n");
+            for (int i = 0; i < 300; i++) {
+                sb.append(i == 150 ? "n/a" : i % 7 == 0 ? "" : String.valueOf(i)).append(',')
+                        .append(i == 250 ? "soon" : LocalDate.ofEpochDay(i).toString()).append('\n');
+            }
+            try (FileOutputStream fos = new FileOutputStream(csv)) {
+                fos.write(sb.toString().getBytes(Charset.forName("UTF-8")));
+            }
+            CsvSchema schema = new CsvSchema(
+                    false,
+                    ImmutableList.of(new Field("code", SmallintType.SMALLINT), new Field("day", DateType.DATE)),
+                    ',',
+                    100,
+                    new String[2][],
+                    true);
+            new AspicWriter(csv.getAbsolutePath(), schema, 100, aspic.getAbsolutePath(), 2);
+
+            AspicReader r = new AspicReader(aspic.getAbsolutePath());
+            assertArrayEquals(new Type[]{VarcharType.VARCHAR, VarcharType.VARCHAR}, r.getTypes());
+            // the text of the values read before then counts toward the stats
+            assertEquals("1", r.getRowGroupStats(0).getMinString(0));
+            assertEquals("99", r.getRowGroupStats(0).getMaxString(0));
+            assertEquals("n/a", r.getDocStats().getMaxString(0));
+            assertEquals("1970-01-01", r.getDocStats().getMinString(1));
+            for (int rowGroup = 0; rowGroup < 3; rowGroup++) {
+                AspicRowGroup rg = new AspicRowGroup(r, rowGroup, null);
+                // the row groups written before a value didn't fit keep their type
+                assertEquals(rowGroup < 1 ? SmallintType.SMALLINT : VarcharType.VARCHAR, rg.getChunkType(0));
+                assertEquals(rowGroup < 2 ? DateType.DATE : VarcharType.VARCHAR, rg.getChunkType(1));
+                for (int row = 0; row < 100; row++) {
+                    final int i = rowGroup * 100 + row;
+                    assertEquals(i % 7 == 0 && i != 150, rg.isNull(0, row));
+                    if (!rg.isNull(0, row))
+                        assertEquals(i == 150 ? "n/a" : String.valueOf(i), rg.getString(0, row));
+                    assertEquals(i == 250 ? "soon" : LocalDate.ofEpochDay(i).toString(), rg.getString(1, row));
+                }
+            }
+        } finally {
+            csv.delete();
+            aspic.delete();
+        }
+    }
+
+    @Test
+    public void keepsTypedChunksWhoseTextIsLost() throws IOException {
+        File csv = File.createTempFile("aspic-text-lost", ".csv");
+        File aspic = File.createTempFile("aspic-text-lost", ".aspic");
+        try {
+            // "007" and "+1" can't be rendered from the integers they're read as
+            StringBuilder sb = new StringBuilder("a,b\n");
+            for (int i = 0; i < 300; i++) {
+                sb.append(i == 10 ? "007" : i == 150 ? "x" : i == 160 ? "008" : String.valueOf(i)).append(',')
+                        .append(i == 20 ? "+1" : i == 250 ? "y" : String.valueOf(i)).append('\n');
+            }
+            try (FileOutputStream fos = new FileOutputStream(csv)) {
+                fos.write(sb.toString().getBytes(Charset.forName("UTF-8")));
+            }
+            CsvSchema schema = new CsvSchema(
+                    false,
+                    ImmutableList.of(new Field("a", SmallintType.SMALLINT), new Field("b", SmallintType.SMALLINT)),
+                    ',',
+                    100,
+                    new String[2][],
+                    true);
+            new AspicWriter(csv.getAbsolutePath(), schema, 100, aspic.getAbsolutePath(), 2);
+
+            AspicReader r = new AspicReader(aspic.getAbsolutePath());
+            assertArrayEquals(new Type[]{VarcharType.VARCHAR, VarcharType.VARCHAR}, r.getTypes());
+            assertEquals(300, r.getDocStats().getRows());
+            // the stats count the text each chunk is read as
+            assertEquals("0", r.getRowGroupStats(0).getMinString(0));
+            assertEquals("99", r.getRowGroupStats(0).getMaxString(0));
+            assertEquals("008", r.getRowGroupStats(1).getMinString(0));
+            for (int rowGroup = 0; rowGroup < 3; rowGroup++) {
+                AspicRowGroup rg = new AspicRowGroup(r, rowGroup, null);
+                // only the row group a value didn't fit in is written as text
+                assertEquals(rowGroup < 1 ? SmallintType.SMALLINT : VarcharType.VARCHAR, rg.getChunkType(0));
+                assertEquals(rowGroup < 2 ? SmallintType.SMALLINT : VarcharType.VARCHAR, rg.getChunkType(1));
+                for (int row = 0; row < 100; row++) {
+                    final int i = rowGroup * 100 + row;
+                    assertEquals(i == 10 ? "7" : i == 150 ? "x" : i == 160 ? "008" : String.valueOf(i),
+                            rg.getString(0, row));
+                    assertEquals(i == 20 ? "1" : i == 250 ? "y" : String.valueOf(i), rg.getString(1, row));
+                }
+            }
+        } finally {
+            csv.delete();
+            aspic.delete();
+        }
+    }
+
+    @Test
+    public void onePass() throws IOException {
+        File aspic = File.createTempFile("aspic-one-pass", ".aspic");
+        try {
+            ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+            try (Writer w = new OutputStreamWriter(new GZIPOutputStream(gzipped), Charset.forName("UTF-8"))) {
+                w.write("\uFEFFid\tprice\tflag\tday\tcode\tnothing\r\n");
+                for (int i = 0; i < 300; i++) {
+                    w.write((i < 200 ? i % 100 : i * 1000) + "\t" + (i + 0.5f) + "\t" + (i % 3 == 0) + "\t" +
+                            LocalDate.ofEpochDay(i) + "\t" + (i == 250 ? "007" : i % 7 == 0 ? "" : String.valueOf(i)) + "\t\r\n");
+                }
+            }
+            new AspicWriter(new GZIPInputStream(new ByteArrayInputStream(gzipped.toByteArray())), 100, aspic.getAbsolutePath(), 2);
+
+            AspicReader r = new AspicReader(aspic.getAbsolutePath());
+            assertArrayEquals(new String[]{"id", "price", "flag", "day", "code", "nothing"}, r.getColumnNames());
+            assertArrayEquals(new Type[]{
+                    IntegerType.INTEGER, RealType.REAL, BooleanType.BOOLEAN, DateType.DATE, VarcharType.VARCHAR, VarcharType.VARCHAR
+            }, r.getTypes());
+            assertEquals(300, r.getDocStats().getRows());
+            assertEquals(299000L, r.getDocStats().getMaxLong(0));
+            for (int rowGroup = 0; rowGroup < 3; rowGroup++) {
+                AspicRowGroup rg = new AspicRowGroup(r, rowGroup, null);
+                assertEquals(rowGroup < 2 ? TinyintType.TINYINT : IntegerType.INTEGER, rg.getChunkType(0));
+                // typed until "007" turned up
+                assertEquals(rowGroup == 0 ? TinyintType.TINYINT : rowGroup == 1 ? SmallintType.SMALLINT : VarcharType.VARCHAR, rg.getChunkType(4));
+                for (int row = 0; row < 100; row++) {
+                    final int i = rowGroup * 100 + row;
+                    assertEquals(i < 200 ? i % 100 : i * 1000, rg.getLong(0, row));
+                    assertEquals(i + 0.5f, rg.getFloat(1, row), 0);
+                    assertEquals(i % 3 == 0 ? 1 : 0, rg.getLong(2, row));
+                    assertEquals(i, rg.getLong(3, row));
+                    assertEquals(i % 7 == 0 && i != 250, rg.isNull(4, row));
+                    if (!rg.isNull(4, row))
+                        assertEquals(i == 250 ? "007" : String.valueOf(i), rg.getString(4, row));
+                    assertTrue(rg.isNull(5, row));
+                }
+            }
+        } finally {
+            aspic.delete();
+        }
+    }
+
     @Test
     public void go() throws IOException {
         String csvFile = "/home/cldellow/Downloads/test.csv";
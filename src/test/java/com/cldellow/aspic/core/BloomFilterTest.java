@@ -0,0 +1,78 @@
+package com.cldellow.aspic.core;
+
+import io.airlift.slice.Slices;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+public class BloomFilterTest {
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private BloomFilter roundTrip(BloomFilter filter) {
+        return new BloomFilter(ByteBuffer.wrap(filter.toBytes()));
+    }
+
+    @Test
+    public void longs() {
+        BloomFilter filter = new BloomFilter(BloomFilter.LONGS, 1000);
+        for (long i = 0; i < 1000; i++)
+            filter.addLong(i * 7);
+        filter = roundTrip(filter);
+
+        for (long i = 0; i < 1000; i++)
+            assertTrue(filter.mightContain(i * 7));
+
+        int falsePositives = 0;
+        for (long i = 0; i < 10000; i++)
+            if (filter.mightContain(-1 - i * 7))
+                falsePositives++;
+        assertTrue("false positives: " + falsePositives, falsePositives < 300);
+    }
+
+    @Test
+    public void strings() {
+        BloomFilter filter = new BloomFilter(BloomFilter.STRINGS, 1000);
+        for (int i = 0; i < 1000; i++) {
+            byte[] bytes = ("value " + i).getBytes(UTF8);
+            filter.addString(bytes, 0, bytes.length);
+        }
+        filter = roundTrip(filter);
+
+        for (int i = 0; i < 1000; i++)
+            assertTrue(filter.mightContain(Slices.utf8Slice("value " + i)));
+
+        int falsePositives = 0;
+        for (int i = 1000; i < 11000; i++)
+            if (filter.mightContain(Slices.utf8Slice("value " + i)))
+                falsePositives++;
+        assertTrue("false positives: " + falsePositives, falsePositives < 300);
+    }
+
+    @Test
+    public void acrossKinds() {
+        // a varchar column's chunk typed as integers
+        BloomFilter longs = new BloomFilter(BloomFilter.LONGS, 10);
+        longs.addLong(-42);
+        assertTrue(longs.mightContain(Slices.utf8Slice("-42")));
+        // not how the chunk would have spelled it
+        assertFalse(longs.mightContain(Slices.utf8Slice("-042")));
+        assertFalse(longs.mightContain(Slices.utf8Slice("forty two")));
+
+        BloomFilter strings = new BloomFilter(BloomFilter.STRINGS, 10);
+        byte[] bytes = "123".getBytes(UTF8);
+        strings.addString(bytes, 0, bytes.length);
+        assertTrue(strings.mightContain(123));
+    }
+
+    @Test
+    public void hashesDependOnEveryByte() {
+        byte[] a = "0123456789abcdef".getBytes(UTF8);
+        byte[] b = "0123456789abcdeg".getBytes(UTF8);
+        assertTrue(BloomFilter.hash(a, 0, a.length) != BloomFilter.hash(b, 0, b.length));
+        assertTrue(BloomFilter.hash(a, 0, 15) != BloomFilter.hash(a, 0, 16));
+        assertEquals(BloomFilter.hash(a, 1, 3), BloomFilter.hash("123".getBytes(UTF8), 0, 3));
+    }
+}
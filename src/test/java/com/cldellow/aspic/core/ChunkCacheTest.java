@@ -0,0 +1,62 @@
+package com.cldellow.aspic.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class ChunkCacheTest {
+    File f;
+    AspicReader reader;
+
+    @Before
+    public void setUp() throws IOException {
+        f = File.createTempFile("aspic-chunk-cache", ".aspic");
+        String csv = path("/nulls-1.csv");
+        new AspicWriter(csv, new CsvSchemaInferer(csv).schema, 100, f.getAbsolutePath());
+        reader = new AspicReader(f.getAbsolutePath());
+    }
+
+    @After
+    public void tearDown() {
+        f.delete();
+    }
+
+    public String path(String p) {
+        String rv = getClass().getResource(p).toString();
+        if (rv.startsWith("file:"))
+            rv = rv.substring("file:".length());
+        return rv;
+    }
+
+    @Test
+    public void sharesChunksAcrossRowGroups() {
+        ChunkCache cache = new ChunkCache(1 << 20);
+        AspicRowGroup first = new AspicRowGroup(reader, 0, cache);
+        assertEquals(123, first.getLong(0, 1));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        AspicRowGroup second = new AspicRowGroup(reader, 0, cache);
+        assertEquals(123, second.getLong(0, 1));
+        assertEquals("str1", second.getString(2, 1));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.getSize());
+    }
+
+    @Test
+    public void evictsToStayWithinBudget() {
+        ChunkCache cache = new ChunkCache(0);
+        AspicRowGroup first = new AspicRowGroup(reader, 0, cache);
+        assertEquals(123, first.getLong(0, 1));
+        AspicRowGroup second = new AspicRowGroup(reader, 0, cache);
+        assertEquals(123, second.getLong(0, 1));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.getSize());
+    }
+}
@@ -0,0 +1,123 @@
+package com.cldellow.aspic.core;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CsvCursorTest {
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+    File f;
+
+    @After
+    public void tearDown() {
+        if (f != null)
+            f.delete();
+    }
+
+    private List<List<String>> parse(String csv, int bufferSize, boolean unixNewline, char separator) throws IOException {
+        f = File.createTempFile("aspic-cursor", ".csv");
+        try (FileOutputStream fos = new FileOutputStream(f)) {
+            fos.write(csv.getBytes(UTF8));
+        }
+
+        MappedFile file = new MappedFile(f.getAbsolutePath());
+        MmapRecord record = new MmapRecord(new byte[bufferSize]);
+        CsvCursor cursor = new CsvCursor(file, record, 0, file.length(), unixNewline, separator);
+        List<List<String>> rows = new ArrayList<>();
+        byte[] scratch = new byte[bufferSize];
+        while (cursor.next()) {
+            List<String> row = new ArrayList<>();
+            for (int i = 0; i < record.getNumFields(); i++) {
+                if (record.containsQuotes[i])
+                    row.add(new String(scratch, 0, record.unescape(i, scratch, 0), UTF8));
+                else
+                    row.add(new String(record.bytes, record.getStart(i), record.getLength(i), UTF8));
+            }
+            rows.add(row);
+        }
+        assertEquals(file.length(), cursor.getPos());
+        return rows;
+    }
+
+    private List<String> row(String... fields) {
+        List<String> rv = new ArrayList<>();
+        for (String field : fields)
+            rv.add(field);
+        return rv;
+    }
+
+    @Test
+    public void quotedFields() throws IOException {
+        List<List<String>> rows = parse("a,\"b,c\",\"say \"\"hi\"\"\"\n\"multi\nline\",,\"\"\n", 1024, true, ',');
+        assertEquals(2, rows.size());
+        assertEquals(row("a", "b,c", "say \"hi\""), rows.get(0));
+        assertEquals(row("multi\nline", "", ""), rows.get(1));
+    }
+
+    @Test
+    public void separatorsAndLineEndings() throws IOException {
+        List<List<String>> rows = parse("a\tb\r\n\"c\"\td", 1024, false, '\t');
+        assertEquals(2, rows.size());
+        assertEquals(row("a", "b"), rows.get(0));
+        // no trailing newline
+        assertEquals(row("c", "d"), rows.get(1));
+    }
+
+    @Test
+    public void rowsSpanBufferRefills() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+            sb.append(i).append(",\"").append(i).append("\"\"x\"\n");
+
+        List<List<String>> rows = parse(sb.toString(), 16, true, ',');
+        assertEquals(100, rows.size());
+        for (int i = 0; i < 100; i++)
+            assertEquals(row("" + i, i + "\"x"), rows.get(i));
+    }
+
+    @Test
+    public void fieldsOfEveryLengthAndAlignment() throws IOException {
+        // so that separators, quotes and newlines land at every offset of a word
+        Random random = new Random(42);
+        String alphabet = "abc|\"\n";
+        List<List<String>> expected = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            List<String> fields = new ArrayList<>();
+            for (int j = 0; j < 1 + random.nextInt(4); j++) {
+                StringBuilder field = new StringBuilder();
+                for (int k = random.nextInt(20); k > 0; k--)
+                    field.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                final String value = field.toString();
+                if (j > 0)
+                    sb.append('|');
+                if (value.indexOf('|') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0)
+                    sb.append('"').append(value.replace("\"", "\"\"")).append('"');
+                else
+                    sb.append(value);
+                fields.add(value);
+            }
+            // a lone empty field reads as a blank line
+            if (fields.size() == 1 && fields.get(0).isEmpty())
+                sb.append("\"\"");
+            sb.append('\n');
+            expected.add(fields);
+        }
+
+        assertEquals(expected, parse(sb.toString(), 1024, true, '|'));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rowLongerThanBuffer() throws IOException {
+        parse("0123456789,0123456789\n", 16, true, ',');
+    }
+}
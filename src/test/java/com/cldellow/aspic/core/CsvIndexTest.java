@@ -0,0 +1,86 @@
+package com.cldellow.aspic.core;
+
+import com.facebook.presto.spi.type.BigintType;
+import com.facebook.presto.spi.type.RealType;
+import com.facebook.presto.spi.type.VarcharType;
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+public class CsvIndexTest {
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void chunksStartOnRowsAndHaveStats() throws IOException {
+        File csv = File.createTempFile("aspic-index", ".csv");
+        File index = File.createTempFile("aspic-index", ".csv.index");
+        try {
+            String header = "id|name|price\r\n";
+            String[] rows = {
+                    "5|\"multi\r\nline\"|1.5\r\n",
+                    "3|bob|2.5\r\n",
+                    "9|cy|oops\r\n",
+                    "|dee|\r\n",
+                    "7|ed|0.5\r\n"
+            };
+            StringBuilder sb = new StringBuilder(header);
+            for (String row : rows)
+                sb.append(row);
+            byte[] bytes = sb.toString().getBytes(UTF8);
+            try (FileOutputStream fos = new FileOutputStream(csv)) {
+                fos.write(new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF});
+                fos.write(bytes);
+            }
+            CsvSchema schema = new CsvSchema(
+                    true,
+                    ImmutableList.of(
+                            new Field("id", BigintType.BIGINT),
+                            new Field("name", VarcharType.VARCHAR),
+                            new Field("price", RealType.REAL)),
+                    '|',
+                    5,
+                    new String[][]{null, null, null},
+                    false,
+                    true);
+            new CsvIndexWriter(csv.getAbsolutePath(), schema, 2, index.getAbsolutePath());
+
+            CsvIndexReader r = new CsvIndexReader(index.getAbsolutePath());
+            assertEquals(csv.length(), r.getCsvLength());
+            assertArrayEquals(new Object[]{BigintType.BIGINT, VarcharType.VARCHAR, RealType.REAL}, r.getTypes());
+            assertEquals(3, r.getNumChunks());
+            long offset = 3 + header.length();
+            assertEquals(offset, r.getChunkOffset(0));
+            offset += rows[0].length() + rows[1].length();
+            assertEquals(offset, r.getChunkOffset(1));
+            offset += rows[2].length() + rows[3].length();
+            assertEquals(offset, r.getChunkOffset(2));
+
+            Stats first = r.getChunkStats(0);
+            assertEquals(2, first.getRows());
+            assertEquals(3, first.getMinLong(0));
+            assertEquals(5, first.getMaxLong(0));
+            assertEquals("bob", first.getMinString(1));
+            assertEquals("multi\r\nline", first.getMaxString(1));
+            assertEquals(1.5f, first.getMinFloat(2), 0);
+            assertEquals(2.5f, first.getMaxFloat(2), 0);
+
+            Stats second = r.getChunkStats(1);
+            assertEquals(1, second.getNulls(0));
+            assertEquals(9, second.getMinLong(0));
+            // "oops" isn't a real, so the chunk can't be pruned on price
+            assertFalse(second.getMinFloat(2) <= second.getMaxFloat(2));
+            assertEquals(1, second.getNulls(2));
+
+            assertEquals(1, r.getChunkStats(2).getRows());
+        } finally {
+            csv.delete();
+            index.delete();
+        }
+    }
+}
@@ -5,6 +5,9 @@ import org.junit.Ignore;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
 
 import static org.junit.Assert.*;
 
@@ -142,6 +145,99 @@ public class CsvSchemaInfererTest {
 //        assertEquals("\n", fs.getLineSeparator());
     }
 
+    @Test
+    public void partsAgreeWithOneThread() throws IOException {
+        File csv = File.createTempFile("aspic-parts", ".csv");
+        try {
+            StringBuilder sb = new StringBuilder("id,small,when,name,flag\n");
+            for (int i = 0; i < 2000; i++) {
+                sb.append(i).append(',')
+                        .append(i % 100).append(',')
+                        .append(i % 5 == 0 ? "" : "2018-02-" + (10 + i % 18)).append(',')
+                        .append("\"name ").append(i % 50).append("\"").append(',')
+                        .append(i % 2 == 0 ? "Y" : "n").append('\n');
+            }
+            try (FileOutputStream fos = new FileOutputStream(csv)) {
+                fos.write(sb.toString().getBytes(Charset.forName("UTF-8")));
+            }
+
+            CsvSchema serial = new CsvSchemaInferer(csv.getAbsolutePath(), 1).schema;
+            CsvSchema parallel = new CsvSchemaInferer(csv.getAbsolutePath(), 8, 0, 1000).schema;
+            assertEquals(2000, serial.getRows());
+            assertEquals(SmallintType.SMALLINT, serial.getFields().get(0).getType());
+            assertEquals(TinyintType.TINYINT, serial.getFields().get(1).getType());
+            assertEquals(DateType.DATE, serial.getFields().get(2).getType());
+            assertEquals(VarcharType.VARCHAR, serial.getFields().get(3).getType());
+            assertEquals(50, serial.getEnumValues()[3].length);
+            assertEquals(BooleanType.BOOLEAN, serial.getFields().get(4).getType());
+
+            assertTrue(serial.getNewlinesEndRows());
+            assertTrue(parallel.getNewlinesEndRows());
+            assertEquals(serial.getRows(), parallel.getRows());
+            assertEquals(serial.getFields(), parallel.getFields());
+            for (int i = 0; i < 5; i++)
+                assertArrayEquals(serial.getEnumValues()[i], parallel.getEnumValues()[i]);
+        } finally {
+            csv.delete();
+        }
+    }
+
+    @Test
+    public void quotedNewlinesAcrossParts() throws IOException {
+        File csv = File.createTempFile("aspic-parts", ".csv");
+        try {
+            StringBuilder sb = new StringBuilder("id,notes\n");
+            for (int i = 0; i < 1000; i++)
+                sb.append(i).append(",\"line one\nline two, ").append(i).append("\"\n");
+            try (FileOutputStream fos = new FileOutputStream(csv)) {
+                fos.write(sb.toString().getBytes(Charset.forName("UTF-8")));
+            }
+
+            CsvSchema fs = new CsvSchemaInferer(csv.getAbsolutePath(), 8, 0, 1000).schema;
+            assertEquals(1000, fs.getRows());
+            assertEquals(SmallintType.SMALLINT, fs.getFields().get(0).getType());
+            assertEquals(VarcharType.VARCHAR, fs.getFields().get(1).getType());
+            assertEquals("line one\nline two, 0", fs.getEnumValues()[1][0]);
+            // so the file can't be split at newlines
+            assertFalse(fs.getNewlinesEndRows());
+            assertFalse(new CsvSchemaInferer(csv.getAbsolutePath(), 1).schema.getNewlinesEndRows());
+        } finally {
+            csv.delete();
+        }
+    }
+
+    @Test
+    public void sampled() throws IOException {
+        File csv = File.createTempFile("aspic-sample", ".csv");
+        try {
+            StringBuilder sb = new StringBuilder("id,colour\n");
+            for (int i = 0; i < 20000; i++)
+                sb.append(i % 100).append(',').append(i % 2 == 0 ? "red" : "blue").append('\n');
+            try (FileOutputStream fos = new FileOutputStream(csv)) {
+                fos.write(sb.toString().getBytes(Charset.forName("UTF-8")));
+            }
+
+            CsvSchema fs = new CsvSchemaInferer(csv.getAbsolutePath(), 4, 2000).schema;
+            assertTrue(fs.getSampled());
+            // the rows it didn't read may have newlines in quotes
+            assertFalse(fs.getNewlinesEndRows());
+            assertEquals(TinyintType.TINYINT, fs.getFields().get(0).getType());
+            assertEquals(VarcharType.VARCHAR, fs.getFields().get(1).getType());
+            // a sample can't promise to have seen every value
+            assertNull(fs.getEnumValues()[1]);
+            assertTrue(fs.getRows() > 15000 && fs.getRows() < 25000);
+
+            // a sample as big as the file is the same as reading all of it
+            CsvSchema all = new CsvSchemaInferer(csv.getAbsolutePath(), 4, 100000).schema;
+            assertFalse(all.getSampled());
+            assertTrue(all.getNewlinesEndRows());
+            assertEquals(20000, all.getRows());
+            assertEquals(2, all.getEnumValues()[1].length);
+        } finally {
+            csv.delete();
+        }
+    }
+
     //@Test
     public void easy5() {
         CsvSchemaInferer fsb = new CsvSchemaInferer("/tmp/tmphive/rent/big.csv");
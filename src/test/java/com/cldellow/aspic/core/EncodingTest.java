@@ -0,0 +1,55 @@
+package com.cldellow.aspic.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class EncodingTest {
+    @Test
+    public void zigZag() {
+        assertEquals(0, Encoding.zigZag(0));
+        assertEquals(1, Encoding.zigZag(-1));
+        assertEquals(2, Encoding.zigZag(1));
+        assertEquals(-1, Encoding.zigZag(Long.MIN_VALUE));
+        for (long v : new long[]{0, 1, -1, 12345, -12345, Long.MAX_VALUE, Long.MIN_VALUE})
+            assertEquals(v, Encoding.unZigZag(Encoding.zigZag(v)));
+    }
+
+    @Test
+    public void bitWidth() {
+        assertEquals(0, Encoding.bitWidth(0));
+        assertEquals(1, Encoding.bitWidth(1));
+        assertEquals(8, Encoding.bitWidth(255));
+        assertEquals(9, Encoding.bitWidth(256));
+        assertEquals(64, Encoding.bitWidth(-1));
+    }
+
+    @Test
+    public void packRoundTripsEveryWidth() throws IOException {
+        Random random = new Random(0);
+        for (int width = 0; width <= 64; width++) {
+            long[] values = new long[101];
+            final long reference = random.nextLong();
+            for (int i = 0; i < values.length; i++) {
+                long bits = width == 0 ? 0 : random.nextLong() >>> (64 - width);
+                values[i] = bits + reference;
+            }
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            baos.write(0xAB);
+            Encoding.pack(new DataOutputStream(baos), values, 1, values.length - 1, reference, width);
+            assertEquals(1 + Encoding.packedLength(values.length - 1, width), baos.size());
+
+            long[] unpacked = new long[values.length];
+            Encoding.unpack(ByteBuffer.wrap(baos.toByteArray()), 1, values.length - 1, width, reference, unpacked, 1);
+            for (int i = 1; i < values.length; i++)
+                assertEquals("width " + width + ", value " + i, values[i], unpacked[i]);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.cldellow.aspic.core;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class FieldParserTest {
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+    private final FieldParser parser = new FieldParser();
+
+    private byte[] bytes(String s) {
+        return s.getBytes(UTF8);
+    }
+
+    @Test
+    public void testLongs() {
+        String[] valid = {"0", "-1", "+42", "007", "9223372036854775807", "-9223372036854775808"};
+        for (String s : valid) {
+            assertTrue(s, parser.parseLong(bytes(s), 0, s.length(), Long.MIN_VALUE, Long.MAX_VALUE));
+            assertEquals(s, Long.parseLong(s), parser.value);
+        }
+
+        String[] invalid = {"", "-", "+", "1.0", "1e3", " 1", "9223372036854775808", "-9223372036854775809"};
+        for (String s : invalid)
+            assertFalse(s, parser.parseLong(bytes(s), 0, s.length(), Long.MIN_VALUE, Long.MAX_VALUE));
+
+        assertTrue(parser.parseLong(bytes("-128"), 0, 4, Byte.MIN_VALUE, Byte.MAX_VALUE));
+        assertFalse(parser.parseLong(bytes("128"), 0, 3, Byte.MIN_VALUE, Byte.MAX_VALUE));
+    }
+
+    @Test
+    public void testReals() {
+        // both the fast path and the fallback
+        String[] valid = {"0", "-0", "1.5", ".25", "3.", "0.1", "-2.675", "1234567", "0.0000001234567",
+                "12345678.9", "1e10", "NaN", "-Infinity", " 4.5 "};
+        for (String s : valid) {
+            assertTrue(s, parser.parseReal(bytes(s), 0, s.length()));
+            assertEquals(s, Float.floatToRawIntBits(Float.parseFloat(s)), (int) parser.value);
+        }
+
+        String[] invalid = {"", "-", ".", "1.2.3", "abc"};
+        for (String s : invalid)
+            assertFalse(s, parser.parseReal(bytes(s), 0, s.length()));
+    }
+
+    @Test
+    public void testDates() throws Exception {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        // the last two roll over, as SimpleDateFormat does
+        String[] valid = {"1970-01-01", "1969-12-31", "2000-02-29", "2018-02-30", "2018-03-00", "1500-06-01"};
+        for (String s : valid) {
+            assertTrue(s, parser.parseDate(bytes(s), 0, s.length()));
+            assertEquals(s, dateFormat.parse(s).getTime() / 86400000L, parser.value);
+        }
+
+        assertFalse(parser.parseDate(bytes("yesterday"), 0, 9));
+    }
+
+    @Test
+    public void testTimestamps() {
+        assertTrue(parser.parseTimestamp(bytes("1970-01-01T00:00:01Z"), 0, 20));
+        assertEquals(1000, parser.value);
+        assertTrue(parser.parseTimestamp(bytes("2018-02-23T02:18:24.123+01:30"), 0, 29));
+        assertEquals(1519352304123L - 90 * 60 * 1000, parser.value);
+        assertFalse(parser.parseTimestamp(bytes("2018-02-23"), 0, 10));
+        // any number of fractional digits up to 9; the millis are kept
+        assertTrue(parser.parseTimestamp(bytes("1970-01-01T00:00:01.5Z"), 0, 22));
+        assertEquals(1500, parser.value);
+        assertTrue(parser.parseTimestamp(bytes("1970-01-01T00:00:01.123456Z"), 0, 27));
+        assertEquals(1123, parser.value);
+    }
+
+    @Test
+    public void testBooleans() {
+        for (String s : new String[]{"1", "t", "Y", "yes", "TRUE"}) {
+            assertTrue(parser.parseBoolean(bytes(s), 0, s.length()));
+            assertEquals(s, 1, parser.value);
+        }
+        for (String s : new String[]{"0", "f", "no", "True"}) {
+            assertTrue(parser.parseBoolean(bytes(s), 0, s.length()));
+            assertEquals(s, 0, parser.value);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.cldellow.aspic.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class MappedFileTest {
+    File f;
+
+    @Before
+    public void setUp() throws IOException {
+        f = File.createTempFile("aspic-mapped", ".bin");
+        try (FileOutputStream fos = new FileOutputStream(f)) {
+            for (int i = 0; i < 100; i++)
+                fos.write(i);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        f.delete();
+    }
+
+    @Test
+    public void crossesRegions() throws IOException {
+        // 100 bytes in regions of 16
+        MappedFile mf = new MappedFile(f.getAbsolutePath(), 16);
+        assertEquals(100, mf.length());
+        for (int i = 0; i < 100; i++)
+            assertEquals(i, mf.get(i));
+
+        byte[] dst = new byte[40];
+        mf.get(10, dst, 0, 40);
+        for (int i = 0; i < 40; i++)
+            assertEquals(10 + i, dst[i]);
+
+        // within a region
+        ByteBuffer bb = mf.slice(33, 10);
+        assertEquals(10, bb.remaining());
+        assertEquals(33, bb.get(0));
+
+        // straddling regions
+        bb = mf.slice(30, 20);
+        assertEquals(20, bb.remaining());
+        for (int i = 0; i < 20; i++)
+            assertEquals(30 + i, bb.get(i));
+
+        // the last, short, region
+        bb = mf.slice(96, 4);
+        assertEquals(99, bb.get(3));
+    }
+}
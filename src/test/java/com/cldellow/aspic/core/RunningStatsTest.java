@@ -7,6 +7,7 @@ import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.HashSet;
 
@@ -14,6 +15,8 @@ import static org.junit.Assert.*;
 
 @RunWith(JUnitQuickcheck.class)
 public class RunningStatsTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
     @Property
     public void testRows(@InRange(min = "0", max="3000") int rows) {
         RunningStats rs = new RunningStats(2);
@@ -113,17 +116,57 @@ public class RunningStatsTest {
         for(String s: strs2)
             rs.addString(1, s);
 
-        Arrays.sort(strs1);
-        Arrays.sort(strs2);
+        // Presto orders varchars by their UTF-8 bytes
+        Arrays.sort(strs1, RunningStatsTest::compareUtf8);
+        Arrays.sort(strs2, RunningStatsTest::compareUtf8);
 
         if(strs1.length > 0) {
-            assertEquals(strs1[0], rs.getMinString(0));
-            assertEquals(strs1[strs1.length - 1], rs.getMaxString(0));
+            assertEquals(utf8(strs1[0]), rs.getMinString(0));
+            assertEquals(utf8(strs1[strs1.length - 1]), rs.getMaxString(0));
         }
 
         if(strs2.length > 0) {
-            assertEquals(strs2[0], rs.getMinString(1));
-            assertEquals(strs2[strs2.length - 1], rs.getMaxString(1));
+            assertEquals(utf8(strs2[0]), rs.getMinString(1));
+            assertEquals(utf8(strs2[strs2.length - 1]), rs.getMaxString(1));
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testNaN() {
+        RunningStats rs = new RunningStats(1);
+        rs.addFloat(0, 1f);
+        rs.addFloat(0, Float.NaN);
+        rs.addFloat(0, 2f);
+
+        assertEquals(Float.NEGATIVE_INFINITY, rs.getMinFloat(0), 0);
+        assertEquals(Float.POSITIVE_INFINITY, rs.getMaxFloat(0), 0);
+    }
+
+    @Test
+    public void testUtf8Order() {
+        // U+FF61 sorts before U+1F600 in UTF-8, but not in UTF-16
+        String bmp = "\uFF61";
+        String astral = "\uD83D\uDE00";
+        assertTrue(bmp.compareTo(astral) > 0);
+
+        RunningStats rs = new RunningStats(1);
+        rs.addString(0, astral);
+        rs.addString(0, bmp);
+        assertEquals(bmp, rs.getMinString(0));
+        assertEquals(astral, rs.getMaxString(0));
+    }
+
+    /** What the stats keep: unpaired surrogates don't survive the trip through UTF-8. */
+    private static String utf8(String s) {
+        return new String(s.getBytes(UTF8), UTF8);
+    }
+
+    private static int compareUtf8(String a, String b) {
+        byte[] x = a.getBytes(UTF8);
+        byte[] y = b.getBytes(UTF8);
+        for (int i = 0; i < Math.min(x.length, y.length); i++)
+            if (x[i] != y[i])
+                return (x[i] & 0xFF) - (y[i] & 0xFF);
+        return x.length - y.length;
+    }
+}
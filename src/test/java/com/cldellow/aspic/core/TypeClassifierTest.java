@@ -0,0 +1,98 @@
+package com.cldellow.aspic.core;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static com.cldellow.aspic.core.TypeClassifier.*;
+import static org.junit.Assert.*;
+
+public class TypeClassifierTest {
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+    private final FieldParser parser = new FieldParser();
+
+    private int classify(String s) {
+        // not at the start of the array, to catch reads relative to 0
+        byte[] bytes = ("xx" + s + "yy").getBytes(UTF8);
+        return TypeClassifier.classify(bytes, 2, bytes.length - 4);
+    }
+
+    @Test
+    public void testIntegers() {
+        assertEquals(0, classify(""));
+        assertEquals(TINYINT | SMALLINT | INTEGER | BIGINT | BOOLEAN, classify("1"));
+        assertEquals(TINYINT | SMALLINT | INTEGER | BIGINT, classify("-128"));
+        assertEquals(SMALLINT | INTEGER | BIGINT, classify("128"));
+        assertEquals(INTEGER | BIGINT, classify("-32769"));
+        assertEquals(BIGINT, classify("2147483648"));
+        assertEquals(BIGINT, classify("-9223372036854775808"));
+        assertEquals(0, classify("9223372036854775808"));
+        assertEquals(0, classify("+1"));
+        assertEquals(0, classify("-"));
+        assertEquals(0, classify("1 "));
+    }
+
+    @Test
+    public void testReals() {
+        assertEquals(REAL, classify("1.5"));
+        assertEquals(REAL, classify("-0.25"));
+        assertEquals(REAL, classify("99999999999999999999.0"));
+        assertEquals(0, classify("1."));
+        assertEquals(0, classify(".5"));
+        assertEquals(0, classify("1.2.3"));
+        assertEquals(0, classify("1e5"));
+    }
+
+    @Test
+    public void testBooleans() {
+        for (String s : new String[]{"t", "F", "y", "N", "0", "yes", "NO", "TRUE", "false"})
+            assertTrue(s, (classify(s) & BOOLEAN) != 0);
+        for (String s : new String[]{"True", "nO", "Yes", "2", "off"})
+            assertEquals(s, 0, classify(s) & BOOLEAN);
+    }
+
+    @Test
+    public void testDates() {
+        String[] valid = {"2017-01-31", "2017-1-5", "1970-12-01"};
+        for (String s : valid) {
+            assertEquals(s, DATE, classify(s));
+            // whatever is inferred, the writer can read
+            assertTrue(s, parser.parseDate(s.getBytes(UTF8), 0, s.length()));
+        }
+        for (String s : new String[]{"2017-13-01", "2017-01-32", "2017-001-01", "17-01-01", "2017-01-01 ", "2017/01/01"})
+            assertEquals(s, 0, classify(s));
+    }
+
+    @Test
+    public void testTimestamps() {
+        String[] valid = {
+                "2017-01-31T12:34:56Z",
+                "2017-01-31T12:34:56.789Z",
+                "2017-01-31T12:34:56.123-05:00",
+                "2020-01-01T10:00:00.5Z",
+                "2020-01-01T10:00:00.123456+01:00",
+                "2020-01-01T10:00:00.123456789Z",
+                "2016-02-29T00:00:00+14:00",
+                "20170131T123456Z",
+                "20170131T123456.789+0530"
+        };
+        for (String s : valid) {
+            assertEquals(s, TIMESTAMP, classify(s));
+            assertTrue(s, parser.parseTimestamp(s.getBytes(UTF8), 0, s.length()));
+        }
+
+        String[] invalid = {
+                "2017-02-29T00:00:00Z",
+                "2017-01-31T24:00:00Z",
+                "2017-01-31T12:34:56",
+                "2017-01-31T12:34:56.Z",
+                "2017-01-31T12:34:56.1234567890Z",
+                "2017-01-31T12:34:56.5",
+                "2017-01-31 12:34:56Z",
+                "2017-01-31T12:34:56+0530",
+                "20170131T123456+05:30"
+        };
+        for (String s : invalid)
+            assertEquals(s, 0, classify(s));
+    }
+}
@@ -0,0 +1,147 @@
+package com.cldellow.aspic.spi;
+
+import com.cldellow.aspic.core.AspicReader;
+import com.cldellow.aspic.core.AspicWriter;
+import com.cldellow.aspic.core.ChunkCache;
+import com.cldellow.aspic.core.CsvSchema;
+import com.cldellow.aspic.core.CsvSchemaInferer;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import io.airlift.units.DataSize;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class AspicClientTest {
+    File root;
+    File sales;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("aspic-client").toFile();
+        sales = new File(root, "Sales");
+        sales.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : sales.listFiles())
+            f.delete();
+        sales.delete();
+        root.delete();
+    }
+
+    public String path(String p) {
+        String rv = getClass().getResource(p).toString();
+        if (rv.startsWith("file:"))
+            rv = rv.substring("file:".length());
+        return rv;
+    }
+
+    private void write(String table, int rowGroupSize) throws IOException {
+        String csv = path("/varchars.csv");
+        CsvSchema schema = new CsvSchemaInferer(csv).schema;
+        new AspicWriter(csv, schema, rowGroupSize, new File(sales, table).getAbsolutePath());
+    }
+
+    private AspicClient client() {
+        return new AspicClient(new AspicConfig().setDirectories(sales.getAbsolutePath()), false);
+    }
+
+    @Test
+    public void findsTables() throws IOException {
+        write("Orders.aspic", 100);
+        new File(sales, "notes.txt").createNewFile();
+        try (FileOutputStream fos = new FileOutputStream(new File(sales, "partial.aspic"))) {
+            // what the writer has put down before the footer's offset is known
+            fos.write(new byte[]{'A', 'S', 'P', 'C', 9, 0, 0, 0, 0, 0, 0, 0, 0});
+        }
+
+        AspicClient client = client();
+        assertEquals(ImmutableSet.of("sales"), client.getSchemaNames());
+        assertEquals(ImmutableSet.of("orders"), client.getTableNames("sales"));
+        assertEquals(new File(sales, "Orders.aspic").getAbsolutePath(), client.getTable("sales", "orders").getFile());
+        assertNull(client.getTable("sales", "partial"));
+        assertNull(client.getTable("other", "orders"));
+    }
+
+    @Test
+    public void onlyReopensChangedFiles() throws IOException {
+        write("a.aspic", 100);
+        write("b.aspic", 100);
+        AspicClient client = client();
+        AspicTable a = client.getTable("sales", "a");
+        AspicTable b = client.getTable("sales", "b");
+        assertEquals(1, a.getRowGroupOffsets().size());
+
+        write("b.aspic", 1);
+        write("c.aspic", 100);
+        assertTrue(new File(sales, "a.aspic").delete());
+        // nothing changes until the next refresh
+        assertSame(a, client.getTable("sales", "a"));
+        client.refresh();
+
+        assertEquals(ImmutableSet.of("b", "c"), client.getTableNames("sales"));
+        assertNotSame(b, client.getTable("sales", "b"));
+        assertTrue(client.getTable("sales", "b").getRowGroupOffsets().size() > 1);
+
+        AspicTable c = client.getTable("sales", "c");
+        client.refresh();
+        assertSame(c, client.getTable("sales", "c"));
+    }
+
+    @Test
+    public void rejectsSplitsPlannedBeforeTheTableChanged() throws IOException {
+        write("orders.aspic", 1);
+        AspicClient client = client();
+        AspicReader reader = client.getTable("sales", "orders").getReader();
+        assertEquals(2, reader.getNumRowGroups());
+        AspicRecordSetProvider provider = new AspicRecordSetProvider(new AspicConnectorId("aspic"), client, new ChunkCache(0));
+        AspicSplit split = new AspicSplit("aspic", "sales", "orders", reader.getFile(),
+                reader.getRowGroupOffset(1), reader.getRowGroupOffset(1) + reader.getRowGroupLength(1), 1, reader.getLastModified());
+        assertSame(reader, provider.getReader(split));
+
+        // now a single row group, so the split's index would be out of range
+        write("orders.aspic", 100);
+        assertTrue(new File(sales, "orders.aspic").setLastModified(reader.getLastModified() + 2000));
+        client.refresh();
+        try {
+            provider.getReader(split);
+            fail();
+        } catch (IllegalStateException ise) {
+            assertEquals("Table sales.orders changed during query", ise.getMessage());
+        }
+    }
+
+    @Test
+    public void splitsRawCsvIntoByteRanges() {
+        AspicClient client = new AspicClient(new AspicConfig()
+                .setDirectories(sales.getAbsolutePath())
+                .setCsvSplitSize(new DataSize(1, DataSize.Unit.KILOBYTE)), false);
+        assertEquals(ImmutableList.of(0L), client.splitOffsets(0, true, null));
+        assertEquals(ImmutableList.of(0L), client.splitOffsets(1024, true, null));
+        assertEquals(ImmutableList.of(0L, 1024L, 2048L), client.splitOffsets(2500, true, null));
+        // a newline may be inside a quoted field
+        assertEquals(ImmutableList.of(0L), client.splitOffsets(2500, false, null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void schemaNamesMustBeUnique() throws IOException {
+        File other = new File(root, "other");
+        File sales2 = new File(other, "sales");
+        sales2.mkdirs();
+        try {
+            new AspicClient(new AspicConfig().setDirectories(sales + ", " + sales2), false);
+        } finally {
+            sales2.delete();
+            other.delete();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.cldellow.aspic.spi;
+
+import com.cldellow.aspic.core.ChunkCache;
+import com.facebook.presto.spi.connector.Connector;
+import com.facebook.presto.testing.TestingConnectorContext;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.weakref.jmx.ObjectNames.generatedNameOf;
+
+public class AspicConnectorFactoryTest {
+    @Test
+    public void eachCatalogExportsItsOwnCache() throws Exception {
+        File dir = Files.createTempDirectory("aspic-factory").toFile();
+        AspicConnectorFactory factory = new AspicConnectorFactory();
+        Map<String, String> config = ImmutableMap.of("directories", dir.getAbsolutePath());
+
+        Connector first = factory.create("first", config, new TestingConnectorContext());
+        Connector second = factory.create("second", config, new TestingConnectorContext());
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertTrue(server.isRegistered(new ObjectName(generatedNameOf(ChunkCache.class, "first"))));
+            assertTrue(server.isRegistered(new ObjectName(generatedNameOf(ChunkCache.class, "second"))));
+        } finally {
+            first.shutdown();
+            second.shutdown();
+            dir.delete();
+        }
+    }
+}
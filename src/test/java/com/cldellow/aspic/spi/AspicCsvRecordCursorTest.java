@@ -0,0 +1,152 @@
+package com.cldellow.aspic.spi;
+
+import com.cldellow.aspic.core.CsvSchema;
+import com.cldellow.aspic.core.CsvSchemaInferer;
+import com.facebook.presto.spi.type.BooleanType;
+import com.facebook.presto.spi.type.DateType;
+import com.facebook.presto.spi.type.IntegerType;
+import com.facebook.presto.spi.type.RealType;
+import com.facebook.presto.spi.type.TimestampType;
+import com.facebook.presto.spi.type.TinyintType;
+import com.facebook.presto.spi.type.VarcharType;
+import io.airlift.slice.Slice;
+import io.airlift.units.DataSize;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AspicCsvRecordCursorTest {
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+    File f;
+
+    @Before
+    public void setUp() throws IOException {
+        f = File.createTempFile("aspic-csv", ".csv");
+    }
+
+    @After
+    public void tearDown() {
+        f.delete();
+    }
+
+    private AspicRecordCursor cursor(long start, long end) {
+        List<AspicColumnHandle> columns = Arrays.asList(
+                new AspicColumnHandle("", "name", VarcharType.VARCHAR, 0),
+                new AspicColumnHandle("", "city", VarcharType.VARCHAR, 1));
+        return new AspicRecordCursor(columns, f.getAbsolutePath(), start, end, '\t', true, true);
+    }
+
+    private List<String> read(long start, long end) {
+        AspicRecordCursor cursor = cursor(start, end);
+        List<String> rv = new ArrayList<>();
+        while (cursor.advanceNextPosition())
+            rv.add(cursor.getSlice(0).toStringUtf8() + "/" + cursor.getSlice(1).toStringUtf8());
+        return rv;
+    }
+
+    @Test
+    public void everySplitPointReadsEachRowOnce() throws IOException {
+        byte[] bom = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+        byte[] body = "name\tcity\r\nann\tparis\r\nbob\t\"new, york\"\r\ncy\trome\r\n".getBytes(UTF8);
+        byte[] bytes = new byte[bom.length + body.length];
+        System.arraycopy(bom, 0, bytes, 0, bom.length);
+        System.arraycopy(body, 0, bytes, bom.length, body.length);
+        Files.write(f.toPath(), bytes);
+
+        List<String> expected = Arrays.asList("ann/paris", "bob/new, york", "cy/rome");
+        assertEquals(expected, read(0, f.length()));
+
+        assertTrue(new CsvSchemaInferer(f.getAbsolutePath()).schema.getNewlinesEndRows());
+        for (long split = 0; split <= f.length(); split++) {
+            List<String> rows = new ArrayList<>(read(0, split));
+            rows.addAll(read(split, f.length()));
+            assertEquals("split at " + split, expected, rows);
+        }
+
+        // a split starting inside the quotes would read "b" as a row, so the
+        // client keeps a file with a newline in quotes in one split
+        Files.write(f.toPath(), "name\tcity\r\nann\t\"a\nb\"\r\ncy\trome\r\n".getBytes(UTF8));
+        CsvSchema schema = new CsvSchemaInferer(f.getAbsolutePath()).schema;
+        assertFalse(schema.getNewlinesEndRows());
+        File empty = Files.createTempDirectory("aspic-csv").toFile();
+        List<Long> splits;
+        try {
+            AspicClient client = new AspicClient(new AspicConfig()
+                    .setDirectories(empty.getAbsolutePath())
+                    .setCsvSplitSize(new DataSize(1, DataSize.Unit.BYTE)), false);
+            splits = client.splitOffsets(f.length(), schema.getNewlinesEndRows(), null);
+        } finally {
+            empty.delete();
+        }
+        assertEquals(1, splits.size());
+        assertEquals(Arrays.asList("ann/a\nb", "cy/rome"), read(splits.get(0), f.length()));
+    }
+
+    @Test
+    public void doubledQuotesAreUnescaped() throws IOException {
+        Files.write(f.toPath(), "name\tcity\r\n\"say \"\"hi\"\"\"\tparis\r\nann\t\"rome\"\r\n".getBytes(UTF8));
+        AspicRecordCursor cursor = cursor(0, f.length());
+
+        assertTrue(cursor.advanceNextPosition());
+        Slice unescaped = cursor.getSlice(0);
+        assertEquals("say \"hi\"", unescaped.toStringUtf8());
+        assertEquals("paris", cursor.getSlice(1).toStringUtf8());
+        // copied out of the row
+        assertNotSame(cursor.getSlice(1).getBase(), unescaped.getBase());
+
+        assertTrue(cursor.advanceNextPosition());
+        Slice quoted = cursor.getSlice(1);
+        assertEquals("rome", quoted.toStringUtf8());
+        // without doubled quotes, still a view of the row's bytes
+        assertSame(cursor.getSlice(0).getBase(), quoted.getBase());
+        assertFalse(cursor.advanceNextPosition());
+    }
+
+    @Test
+    public void typedColumns() throws IOException {
+        Files.write(f.toPath(), ("n,count,price,day,at,ok\n" +
+                "5,70000,1.5,1970-01-03,1970-01-01T00:00:01.5Z,yes\n" +
+                "300,x,oops,soon,never,no\n" +
+                "\"-7\",,,,,\n").getBytes(UTF8));
+        List<AspicColumnHandle> columns = Arrays.asList(
+                new AspicColumnHandle("", "n", TinyintType.TINYINT, 0),
+                new AspicColumnHandle("", "count", IntegerType.INTEGER, 1),
+                new AspicColumnHandle("", "price", RealType.REAL, 2),
+                new AspicColumnHandle("", "day", DateType.DATE, 3),
+                new AspicColumnHandle("", "at", TimestampType.TIMESTAMP, 4),
+                new AspicColumnHandle("", "ok", BooleanType.BOOLEAN, 5));
+        AspicRecordCursor cursor = new AspicRecordCursor(columns, f.getAbsolutePath(), 0, f.length(), ',', false, false);
+
+        assertTrue(cursor.advanceNextPosition());
+        for (int i = 0; i < columns.size(); i++)
+            assertFalse(cursor.isNull(i));
+        assertEquals(5, cursor.getLong(0));
+        assertEquals(70000, cursor.getLong(1));
+        assertEquals(1.5f, Float.intBitsToFloat((int) cursor.getLong(2)), 0);
+        assertEquals(2, cursor.getLong(3));
+        assertEquals(1500, cursor.getLong(4));
+        assertTrue(cursor.getBoolean(5));
+
+        // values that don't parse are nulls, as they are once converted
+        assertTrue(cursor.advanceNextPosition());
+        for (int i = 0; i < 5; i++)
+            assertTrue(cursor.isNull(i));
+        assertFalse(cursor.getBoolean(5));
+
+        assertTrue(cursor.advanceNextPosition());
+        assertEquals(-7, cursor.getLong(0));
+        for (int i = 1; i < columns.size(); i++)
+            assertTrue(cursor.isNull(i));
+        assertFalse(cursor.advanceNextPosition());
+    }
+}
@@ -0,0 +1,202 @@
+package com.cldellow.aspic.spi;
+
+import com.cldellow.aspic.core.AspicReader;
+import com.cldellow.aspic.core.AspicRowGroup;
+import com.cldellow.aspic.core.AspicWriter;
+import com.cldellow.aspic.core.CsvSchema;
+import com.cldellow.aspic.core.CsvSchemaInferer;
+import com.cldellow.aspic.core.Field;
+import com.facebook.presto.spi.Page;
+import com.facebook.presto.spi.block.Block;
+import com.facebook.presto.spi.block.DictionaryBlock;
+import com.facebook.presto.spi.block.RunLengthEncodedBlock;
+import com.facebook.presto.spi.type.BigintType;
+import com.facebook.presto.spi.type.Type;
+import com.facebook.presto.spi.type.VarcharType;
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Vector;
+
+import static org.junit.Assert.*;
+
+public class AspicPageSourceTest {
+    File f;
+
+    @Before
+    public void setUp() throws IOException {
+        f = File.createTempFile("aspic-page-source", ".aspic");
+    }
+
+    @After
+    public void tearDown() {
+        f.delete();
+    }
+
+    public String path(String p) {
+        String rv = getClass().getResource(p).toString();
+        if (rv.startsWith("file:"))
+            rv = rv.substring("file:".length());
+        return rv;
+    }
+
+    private AspicReader write(CsvSchema schema, String csv) throws IOException {
+        new AspicWriter(path(csv), schema, 100, f.getAbsolutePath());
+        return new AspicReader(f.getAbsolutePath());
+    }
+
+    private List<AspicColumnHandle> columns(AspicReader r, int... cols) {
+        Type[] types = r.getTypes();
+        List<AspicColumnHandle> columns = new Vector<>();
+        for (int col : cols)
+            columns.add(new AspicColumnHandle("", r.getColumnNames()[col], types[col], col));
+        return columns;
+    }
+
+    private String string(Block block, int position) {
+        return block.getSlice(position, 0, block.getSliceLength(position)).toStringUtf8();
+    }
+
+    @Test
+    public void nulls() throws IOException {
+        AspicReader r = write(new CsvSchemaInferer(path("/nulls-1.csv")).schema, "/nulls-1.csv");
+        AspicPageSource source = new AspicPageSource(r, 0, columns(r, 8, 0, 1, 2, 3, 4, 5, 6, 7));
+
+        Page page = source.getNextPage();
+        assertTrue(source.isFinished());
+        assertNull(source.getNextPage());
+
+        assertEquals(2, page.getPositionCount());
+        for (int i = 0; i < 9; i++) {
+            assertTrue("channel " + i, page.getBlock(i).isNull(0));
+            assertFalse("channel " + i, page.getBlock(i).isNull(1));
+        }
+
+        assertEquals(40000, page.getBlock(0).getInt(1, 0));
+        assertEquals(123, page.getBlock(1).getByte(1, 0));
+        assertEquals(456.789f, Float.intBitsToFloat(page.getBlock(2).getInt(1, 0)), 0.0001);
+        assertEquals("str1", string(page.getBlock(3), 1));
+        assertEquals(17167, page.getBlock(4).getInt(1, 0));
+        assertEquals(1, page.getBlock(5).getByte(1, 0));
+        assertEquals(1519352304000L, page.getBlock(6).getLong(1, 0));
+        assertEquals(17179869184L, page.getBlock(7).getLong(1, 0));
+        assertEquals(20000, page.getBlock(8).getShort(1, 0));
+    }
+
+    @Test
+    public void varchars() throws IOException {
+        CsvSchema schema = new CsvSchemaInferer(path("/nulls-2.csv")).schema
+                .withFieldType(2, VarcharType.VARCHAR);
+        AspicReader r = write(schema, "/nulls-2.csv");
+        Page page = new AspicPageSource(r, 0, columns(r, 2)).getNextPage();
+
+        assertEquals(2, page.getPositionCount());
+        assertEquals("str1", string(page.getBlock(0), 0));
+        assertTrue(page.getBlock(0).isNull(1));
+    }
+
+    @Test
+    public void noColumns() throws IOException {
+        AspicReader r = write(new CsvSchemaInferer(path("/nulls-1.csv")).schema, "/nulls-1.csv");
+        Page page = new AspicPageSource(r, 0, columns(r)).getNextPage();
+
+        assertEquals(2, page.getPositionCount());
+        assertEquals(0, page.getChannelCount());
+    }
+
+    @Test
+    public void dictionaryEncodedColumns() throws IOException {
+        File csv = File.createTempFile("aspic-dictionary", ".csv");
+        try {
+            StringBuilder sb = new StringBuilder("sku,store\n");
+            for (int i = 0; i < 1000; i++) {
+                if (i % 10 == 0)
+                    sb.append(",\n");
+                else
+                    sb.append("SKU-").append(i * 7919 % 300).append(',').append(1000000007L * (i % 300)).append('\n');
+            }
+            try (FileOutputStream fos = new FileOutputStream(csv)) {
+                fos.write(sb.toString().getBytes(Charset.forName("UTF-8")));
+            }
+            CsvSchema schema = new CsvSchema(
+                    false,
+                    ImmutableList.of(new Field("sku", VarcharType.VARCHAR), new Field("store", BigintType.BIGINT)),
+                    ',',
+                    1000,
+                    new String[2][]);
+            new AspicWriter(csv.getAbsolutePath(), schema, 1000, f.getAbsolutePath());
+            AspicReader r = new AspicReader(f.getAbsolutePath());
+            Page page = new AspicPageSource(r, 0, columns(r, 0, 1)).getNextPage();
+
+            assertTrue(page.getBlock(0) instanceof DictionaryBlock);
+            assertTrue(page.getBlock(1) instanceof DictionaryBlock);
+            // and rows can still be read one value at a time
+            AspicRowGroup rowGroup = new AspicRowGroup(r, 0, null);
+            assertEquals("SKU-" + (7 * 7919 % 300), rowGroup.getString(0, 7));
+            assertEquals(1000000007L * 7, rowGroup.getLong(1, 7));
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(i % 10 == 0, page.getBlock(0).isNull(i));
+                assertEquals(i % 10 == 0, page.getBlock(1).isNull(i));
+                if (i % 10 != 0) {
+                    assertEquals("SKU-" + (i * 7919 % 300), string(page.getBlock(0), i));
+                    assertEquals(1000000007L * (i % 300), page.getBlock(1).getLong(i, 0));
+                }
+            }
+        } finally {
+            csv.delete();
+        }
+    }
+
+    @Test
+    public void constantColumnsComeFromStats() throws IOException {
+        File csv = File.createTempFile("aspic-constant", ".csv");
+        try {
+            StringBuilder sb = new StringBuilder("region,id,note\n");
+            for (int i = 0; i < 5000; i++)
+                sb.append("east,").append(i).append(",\n");
+            try (FileOutputStream fos = new FileOutputStream(csv)) {
+                fos.write(sb.toString().getBytes(Charset.forName("UTF-8")));
+            }
+            CsvSchema schema = new CsvSchema(
+                    false,
+                    ImmutableList.of(
+                            new Field("region", VarcharType.VARCHAR),
+                            new Field("id", BigintType.BIGINT),
+                            new Field("note", BigintType.BIGINT)),
+                    ',',
+                    5000,
+                    new String[3][]);
+            new AspicWriter(csv.getAbsolutePath(), schema, 5000, f.getAbsolutePath());
+            AspicReader r = new AspicReader(f.getAbsolutePath());
+
+            // nothing has to be read, so the row group is one page
+            AspicPageSource source = new AspicPageSource(r, 0, columns(r, 0, 2));
+            Page page = source.getNextPage();
+            assertTrue(source.isFinished());
+            assertEquals(5000, page.getPositionCount());
+            assertTrue(page.getBlock(0) instanceof RunLengthEncodedBlock);
+            assertEquals("east", string(page.getBlock(0), 4999));
+            assertTrue(page.getBlock(1) instanceof RunLengthEncodedBlock);
+            assertTrue(page.getBlock(1).isNull(0));
+            assertEquals(0, source.getSystemMemoryUsage());
+
+            page = new AspicPageSource(r, 0, columns(r)).getNextPage();
+            assertEquals(5000, page.getPositionCount());
+
+            page = new AspicPageSource(r, 0, columns(r, 1, 0)).getNextPage();
+            assertEquals(AspicPageSource.MAX_BATCH_SIZE, page.getPositionCount());
+            assertFalse(page.getBlock(0) instanceof RunLengthEncodedBlock);
+            assertEquals(7, page.getBlock(0).getLong(7, 0));
+            assertTrue(page.getBlock(1) instanceof RunLengthEncodedBlock);
+        } finally {
+            csv.delete();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.cldellow.aspic.spi;
+
+import com.cldellow.aspic.core.AspicReader;
+import com.cldellow.aspic.core.AspicWriter;
+import com.cldellow.aspic.core.CsvSchema;
+import com.cldellow.aspic.core.Field;
+import com.cldellow.aspic.core.FixedStats;
+import com.cldellow.aspic.core.Stats;
+import com.facebook.presto.spi.ColumnHandle;
+import com.facebook.presto.spi.predicate.Domain;
+import com.facebook.presto.spi.predicate.Range;
+import com.facebook.presto.spi.predicate.TupleDomain;
+import com.facebook.presto.spi.predicate.ValueSet;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.airlift.slice.Slices;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static com.facebook.presto.spi.type.BigintType.BIGINT;
+import static com.facebook.presto.spi.type.VarcharType.VARCHAR;
+import static org.junit.Assert.*;
+
+public class AspicStatsPredicateTest {
+    private final AspicColumnHandle id = new AspicColumnHandle("", "id", BIGINT, 0);
+    private final AspicColumnHandle name = new AspicColumnHandle("", "name", VARCHAR, 1);
+
+    // 10 rows, id in [100, 200] with 2 nulls, name entirely null
+    private final Stats stats = new FixedStats(
+            10,
+            new int[]{2, 10},
+            new int[]{8, 0},
+            new long[]{100, 0},
+            new long[]{200, 0},
+            new float[2],
+            new float[2],
+            new String[]{null, null},
+            new String[]{null, null});
+
+    private TupleDomain<ColumnHandle> constraint(AspicColumnHandle column, Domain domain) {
+        return TupleDomain.withColumnDomains(ImmutableMap.of(column, domain));
+    }
+
+    @Test
+    public void allAndNone() {
+        assertTrue(AspicStatsPredicate.matches(TupleDomain.all(), stats));
+        assertFalse(AspicStatsPredicate.matches(TupleDomain.none(), stats));
+    }
+
+    @Test
+    public void ranges() {
+        assertTrue(AspicStatsPredicate.matches(constraint(id, Domain.singleValue(BIGINT, 150L)), stats));
+        assertTrue(AspicStatsPredicate.matches(constraint(id, Domain.singleValue(BIGINT, 200L)), stats));
+        assertFalse(AspicStatsPredicate.matches(constraint(id, Domain.singleValue(BIGINT, 201L)), stats));
+        assertFalse(AspicStatsPredicate.matches(
+                constraint(id, Domain.create(ValueSet.ofRanges(Range.lessThan(BIGINT, 100L)), false)), stats));
+        assertTrue(AspicStatsPredicate.matches(
+                constraint(id, Domain.create(ValueSet.ofRanges(Range.lessThan(BIGINT, 100L)), true)), stats));
+    }
+
+    @Test
+    public void allNull() {
+        assertTrue(AspicStatsPredicate.matches(constraint(name, Domain.onlyNull(VARCHAR)), stats));
+        assertFalse(AspicStatsPredicate.matches(constraint(name, Domain.notNull(VARCHAR)), stats));
+        assertFalse(AspicStatsPredicate.matches(
+                constraint(name, Domain.singleValue(VARCHAR, Slices.utf8Slice("foo"))), stats));
+    }
+
+    @Test
+    public void bloomFilters() throws IOException {
+        File csv = File.createTempFile("aspic-bloom", ".csv");
+        File aspic = File.createTempFile("aspic-bloom", ".aspic");
+        try {
+            // even ids in the first row group, odd in the second, so their
+            // ranges overlap
+            StringBuilder sb = new StringBuilder("id,name,flag\n");
+            for (int i = 0; i < 1000; i++) {
+                final int id = i < 500 ? i * 2 : (i - 500) * 2 + 1;
+                sb.append(id).append(",n").append(id).append(",").append(id % 2).append("\n");
+            }
+            try (FileOutputStream fos = new FileOutputStream(csv)) {
+                fos.write(sb.toString().getBytes(Charset.forName("UTF-8")));
+            }
+            CsvSchema schema = new CsvSchema(
+                    false,
+                    ImmutableList.of(new Field("id", BIGINT), new Field("name", VARCHAR), new Field("flag", BIGINT)),
+                    ',',
+                    1000,
+                    new String[][]{null, null, null});
+            new AspicWriter(csv.getAbsolutePath(), schema, 500, aspic.getAbsolutePath(), 1);
+            AspicReader reader = new AspicReader(aspic.getAbsolutePath());
+            assertEquals(2, reader.getNumRowGroups());
+            // too few distinct values to be worth a filter
+            assertNull(reader.getBloomFilter(0, 2));
+
+            TupleDomain<ColumnHandle> ids = constraint(id, Domain.create(ValueSet.of(BIGINT, 2L, 4L), false));
+            assertTrue(AspicStatsPredicate.matches(ids, reader.getRowGroupStats(1)));
+            assertTrue(AspicStatsPredicate.matchesBloomFilters(ids, reader, 0));
+            assertFalse(AspicStatsPredicate.matchesBloomFilters(ids, reader, 1));
+
+            TupleDomain<ColumnHandle> names = constraint(name, Domain.singleValue(VARCHAR, Slices.utf8Slice("n3")));
+            assertFalse(AspicStatsPredicate.matchesBloomFilters(names, reader, 0));
+            assertTrue(AspicStatsPredicate.matchesBloomFilters(names, reader, 1));
+
+            // the filters don't know about nulls
+            TupleDomain<ColumnHandle> orNull = constraint(id, Domain.create(ValueSet.of(BIGINT, 3L), true));
+            assertTrue(AspicStatsPredicate.matchesBloomFilters(orNull, reader, 0));
+        } finally {
+            csv.delete();
+            aspic.delete();
+        }
+    }
+}
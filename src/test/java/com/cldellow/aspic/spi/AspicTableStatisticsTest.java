@@ -0,0 +1,89 @@
+package com.cldellow.aspic.spi;
+
+import com.cldellow.aspic.core.AspicReader;
+import com.cldellow.aspic.core.AspicWriter;
+import com.cldellow.aspic.core.CsvSchema;
+import com.cldellow.aspic.core.Field;
+import com.facebook.presto.spi.ColumnHandle;
+import com.facebook.presto.spi.predicate.Domain;
+import com.facebook.presto.spi.predicate.TupleDomain;
+import com.facebook.presto.spi.statistics.ColumnStatistics;
+import com.facebook.presto.spi.statistics.RangeColumnStatistics;
+import com.facebook.presto.spi.statistics.TableStatistics;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import static com.facebook.presto.spi.type.BigintType.BIGINT;
+import static com.facebook.presto.spi.type.VarcharType.VARCHAR;
+import static org.junit.Assert.*;
+
+public class AspicTableStatisticsTest {
+    private final AspicColumnHandle id = new AspicColumnHandle("", "id", BIGINT, 0);
+    private final AspicColumnHandle name = new AspicColumnHandle("", "name", VARCHAR, 1);
+    private final List<ColumnHandle> columns = ImmutableList.of(id, name);
+    File csv;
+    File aspic;
+    AspicTable table;
+
+    @Before
+    public void setUp() throws IOException {
+        csv = File.createTempFile("aspic-table-statistics", ".csv");
+        aspic = File.createTempFile("aspic-table-statistics", ".aspic");
+        try (FileOutputStream fos = new FileOutputStream(csv)) {
+            fos.write("id,name\n1,a\n5,\n3,b\n20,b\n".getBytes(Charset.forName("UTF-8")));
+        }
+        CsvSchema schema = new CsvSchema(
+                false,
+                ImmutableList.of(new Field("id", BIGINT), new Field("name", VARCHAR)),
+                ',',
+                4,
+                new String[][]{null, null});
+        // row groups of [1, 5] and [3, 20]
+        new AspicWriter(csv.getAbsolutePath(), schema, 2, aspic.getAbsolutePath(), 1);
+        table = new AspicTable("t", new AspicReader(aspic.getAbsolutePath()));
+    }
+
+    @After
+    public void tearDown() {
+        csv.delete();
+        aspic.delete();
+    }
+
+    @Test
+    public void wholeTable() {
+        TableStatistics stats = AspicTableStatistics.of(table, columns, TupleDomain.all());
+        assertEquals(4, stats.getRowCount().getValue(), 0);
+
+        RangeColumnStatistics ids = stats.getColumnStatistics().get(id).getOnlyRangeColumnStatistics();
+        assertEquals(1L, ids.getLowValue().get());
+        assertEquals(20L, ids.getHighValue().get());
+        assertEquals(4, ids.getDistinctValuesCount().getValue(), 0);
+
+        ColumnStatistics names = stats.getColumnStatistics().get(name);
+        assertEquals(0.25, names.getNullsFraction().getValue(), 0);
+        assertEquals(0.75, names.getOnlyRangeColumnStatistics().getFraction().getValue(), 0);
+        assertFalse(names.getOnlyRangeColumnStatistics().getLowValue().isPresent());
+    }
+
+    @Test
+    public void onlyCountsRowGroupsTheConstraintAllows() {
+        TupleDomain<ColumnHandle> constraint = TupleDomain.withColumnDomains(
+                ImmutableMap.of(id, Domain.singleValue(BIGINT, 10L)));
+        TableStatistics stats = AspicTableStatistics.of(table, columns, constraint);
+        assertEquals(2, stats.getRowCount().getValue(), 0);
+
+        RangeColumnStatistics ids = stats.getColumnStatistics().get(id).getOnlyRangeColumnStatistics();
+        assertEquals(3L, ids.getLowValue().get());
+        assertEquals(20L, ids.getHighValue().get());
+        assertTrue(ids.getDistinctValuesCount().getValue() <= 2);
+    }
+}